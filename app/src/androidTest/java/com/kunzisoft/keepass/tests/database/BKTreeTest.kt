@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.database
+
+import com.kunzisoft.keepass.database.search.BKTree
+import junit.framework.TestCase
+import java.util.*
+
+class BKTreeTest : TestCase() {
+
+    fun testLevenshteinDistance() {
+        assertEquals(0, BKTree.levenshteinDistance("mail", "mail"))
+        assertEquals(4, BKTree.levenshteinDistance("", "mail"))
+        assertEquals(1, BKTree.levenshteinDistance("mail", "mal"))
+        assertEquals(1, BKTree.levenshteinDistance("mail", "gmail"))
+        assertEquals(2, BKTree.levenshteinDistance("mail", "mial"))
+        assertEquals(3, BKTree.levenshteinDistance("kitten", "sitting"))
+    }
+
+    fun testSearchKeepsTheSmallestDistanceOfEachValue() {
+        val tree = BKTree<Int>()
+        tree.add("mail", 1)
+        tree.add("gmail", 1)
+        tree.add("bank", 2)
+        tree.add("mall", 3)
+
+        val results = tree.search("mail", 1)
+        assertEquals(mapOf(1 to 0, 3 to 1), results)
+        assertTrue(tree.search("xyz", 1).isEmpty())
+    }
+
+    fun testRemoveValueOfAKey() {
+        val tree = BKTree<Int>()
+        tree.add("mail", 1)
+        tree.add("mail", 2)
+        tree.add("mall", 3)
+        tree.remove("mail", 1)
+        assertEquals(mapOf(2 to 0, 3 to 1), tree.search("mail", 1))
+        tree.remove("mail", 2)
+        // The empty key still routes the search to its children
+        assertEquals(mapOf(3 to 1), tree.search("mail", 1))
+    }
+
+    fun testSearchAfterRebuildMatchesBruteForce() {
+        val random = Random(42)
+        val alphabet = "abcde"
+        val keys = ArrayList<String>()
+        for (i in 0 until 500) {
+            val length = 2 + random.nextInt(5)
+            keys.add(String(CharArray(length) { alphabet[random.nextInt(alphabet.length)] }))
+        }
+        val tree = BKTree<Int>()
+        keys.forEachIndexed { index, key -> tree.add(key, index) }
+        // Remove most of the values to trigger the rebuilds of the tree
+        val removed = HashSet<Int>()
+        keys.forEachIndexed { index, key ->
+            if (index % 4 != 0) {
+                tree.remove(key, index)
+                removed.add(index)
+            }
+        }
+
+        for (query in listOf("abc", "eeee", "ad", "bcdea")) {
+            val expected = HashMap<Int, Int>()
+            keys.forEachIndexed { index, key ->
+                val distance = BKTree.levenshteinDistance(query, key)
+                if (index !in removed && distance <= 2)
+                    expected[index] = distance
+            }
+            assertEquals(expected, tree.search(query, 2))
+        }
+    }
+
+    fun testClear() {
+        val tree = BKTree<Int>()
+        tree.add("mail", 1)
+        tree.clear()
+        assertTrue(tree.search("mail", 2).isEmpty())
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.database
+
+import com.kunzisoft.keepass.database.element.group.ChildNodeList
+import junit.framework.TestCase
+
+class ChildNodeListTest : TestCase() {
+
+    fun testAddKeepsInsertionOrder() {
+        val list = ChildNodeList<String>()
+        list.addAll(listOf("a", "b", "c"))
+        assertEquals(listOf("a", "b", "c"), list.toList())
+        assertEquals(1, list.indexOf("b"))
+    }
+
+    fun testAddPresentNodeMovesItAtTheEnd() {
+        val list = ChildNodeList<String>()
+        list.addAll(listOf("a", "b", "c"))
+        list.add("a")
+        assertEquals(3, list.size)
+        assertEquals(listOf("b", "c", "a"), list.toList())
+    }
+
+    fun testRemoveCompactsSlots() {
+        val list = ChildNodeList<String>()
+        list.addAll(listOf("a", "b", "c", "d"))
+        assertTrue(list.remove("b"))
+        assertFalse(list.remove("z"))
+        assertFalse(list.contains("b"))
+        assertEquals(3, list.size)
+        assertEquals("c", list[1])
+        assertEquals(2, list.indexOf("d"))
+        list.clear()
+        assertTrue(list.isEmpty())
+    }
+
+    private class TestNode(val id: Int, val name: String)
+
+    fun testAddEqualNodeReplacesTheChild() {
+        val list = ChildNodeList<TestNode> { it.id }
+        val first = TestNode(1, "first")
+        val other = TestNode(2, "other")
+        val sameIdAsFirst = TestNode(1, "copy")
+        list.add(first)
+        list.add(other)
+        list.add(sameIdAsFirst)
+        assertEquals(2, list.size)
+        assertEquals(listOf("other", "copy"), list.map { it.name })
+        assertTrue(list.contains(first))
+        assertEquals(1, list.indexOf(first))
+        assertTrue(list.remove(first))
+        assertFalse(list.contains(sameIdAsFirst))
+        assertEquals(1, list.size)
+    }
+
+    fun testAddManyChildrenInLinearTime() {
+        val numberOfChildren = 100000
+        val list = ChildNodeList<TestNode> { it.id }
+        val startTime = System.currentTimeMillis()
+        for (i in 0 until numberOfChildren) {
+            list.add(TestNode(i, "node$i"))
+        }
+        // A scan of the children at each add would take minutes
+        assertTrue(System.currentTimeMillis() - startTime < 5000)
+        assertEquals(numberOfChildren, list.size)
+        assertEquals(numberOfChildren - 1, list.indexOf(TestNode(numberOfChildren - 1, "")))
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.database
+
+import com.kunzisoft.keepass.database.element.database.DatabaseKDB
+import com.kunzisoft.keepass.database.element.entry.EntryKDB
+import com.kunzisoft.keepass.database.element.group.GroupKDB
+import com.kunzisoft.keepass.database.file.input.DatabaseInputKDB
+import com.kunzisoft.keepass.database.file.output.DatabaseOutputKDB
+import junit.framework.TestCase
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+
+class DatabaseInputKDBTest : TestCase() {
+
+    private lateinit var tempDirectory: File
+    private lateinit var database: DatabaseKDB
+
+    override fun setUp() {
+        super.setUp()
+        tempDirectory = File(System.getProperty("java.io.tmpdir"), "kdb-test-" + System.nanoTime())
+        assertTrue(tempDirectory.mkdirs())
+        database = DatabaseKDB().apply {
+            retrieveMasterKey(PASSWORD, null)
+            rootGroup = createGroup().apply {
+                level = -1
+            }
+        }
+    }
+
+    override fun tearDown() {
+        tempDirectory.deleteRecursively()
+        super.tearDown()
+    }
+
+    private fun addGroup(title: String, groupId: Int, parent: GroupKDB): GroupKDB {
+        val group = database.createGroup().apply {
+            this.title = title
+            setGroupId(groupId)
+            level = parent.level + 1
+        }
+        database.addGroupTo(group, parent)
+        return group
+    }
+
+    private fun addEntry(title: String, parent: GroupKDB): EntryKDB {
+        val entry = database.createEntry().apply {
+            this.title = title
+            nodeId = database.newEntryId()
+        }
+        database.addEntryTo(entry, parent)
+        return entry
+    }
+
+    private fun saveAndReload(): DatabaseKDB {
+        val outputStream = ByteArrayOutputStream()
+        DatabaseOutputKDB(database, outputStream).output()
+        return DatabaseInputKDB(tempDirectory)
+                .openDatabase(ByteArrayInputStream(outputStream.toByteArray()), PASSWORD, null, null)
+    }
+
+    private fun childGroupTitles(group: GroupKDB): List<String> {
+        return group.getChildGroups().map { it.title }
+    }
+
+    fun testTreeOrder() {
+        val first = addGroup("First", 1, database.rootGroup!!)
+        addGroup("Child", 2, first)
+        addGroup("Second", 3, database.rootGroup!!)
+        addEntry("Entry", first)
+
+        val reloaded = saveAndReload()
+        val root = reloaded.rootGroup!!
+        assertEquals(listOf("First", "Second"), childGroupTitles(root))
+        val reloadedFirst = root.getChildGroups()[0]
+        assertEquals(listOf("Child"), childGroupTitles(reloadedFirst))
+        assertEquals(listOf("Entry"), reloadedFirst.getChildEntries().map { it.title })
+    }
+
+    fun testDuplicateGroupIds() {
+        val first = addGroup("First", 1, database.rootGroup!!)
+        addGroup("Child", 2, first)
+        val second = addGroup("Second", 3, database.rootGroup!!)
+        addEntry("Entry of first", first)
+        addEntry("Entry of second", second)
+        // Written with the id of the first group, as in a corrupted file
+        second.setGroupId(1)
+
+        val reloaded = saveAndReload()
+        val root = reloaded.rootGroup!!
+        // Both groups are kept in the tree, the duplicate with a new id
+        assertEquals(listOf("First", "Second"), childGroupTitles(root))
+        val reloadedFirst = root.getChildGroups()[0]
+        val reloadedSecond = root.getChildGroups()[1]
+        assertEquals(1, reloadedFirst.id)
+        assertTrue(reloadedSecond.id != 1)
+        assertEquals(3, reloaded.numberOfGroups())
+        assertEquals(listOf("Child"), childGroupTitles(reloadedFirst))
+        // Entries of the duplicate id are attached to the first group read
+        assertEquals(listOf("Entry of first", "Entry of second"),
+                reloadedFirst.getChildEntries().map { it.title })
+    }
+
+    companion object {
+        private const val PASSWORD = "password"
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.database
+
+import com.kunzisoft.keepass.crypto.keyDerivation.KdfFactory
+import com.kunzisoft.keepass.database.element.database.CompressionAlgorithm
+import com.kunzisoft.keepass.database.element.database.DatabaseKDBX
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.element.security.BinaryAttachment
+import com.kunzisoft.keepass.database.element.security.ProtectedString
+import com.kunzisoft.keepass.database.file.input.DatabaseInputKDBX
+import com.kunzisoft.keepass.database.file.output.DatabaseOutputCacheKDBX
+import com.kunzisoft.keepass.database.file.output.DatabaseOutputKDBX
+import junit.framework.TestCase
+import org.junit.Assert.assertArrayEquals
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.zip.GZIPInputStream
+
+class DatabaseSaveReloadTest : TestCase() {
+
+    private lateinit var tempDirectory: File
+    private lateinit var database: DatabaseKDBX
+    // Shared by the saves, as the cache of the database
+    private lateinit var outputCache: DatabaseOutputCacheKDBX
+
+    override fun setUp() {
+        super.setUp()
+        tempDirectory = File(System.getProperty("java.io.tmpdir"), "save-test-" + System.nanoTime())
+        assertTrue(tempDirectory.mkdirs())
+        database = DatabaseKDBX("Test", "Root").apply {
+            compressionAlgorithm = CompressionAlgorithm.None
+            retrieveMasterKey(PASSWORD, null)
+        }
+        outputCache = DatabaseOutputCacheKDBX()
+    }
+
+    override fun tearDown() {
+        tempDirectory.deleteRecursively()
+        super.tearDown()
+    }
+
+    private fun addBinary(name: String, data: ByteArray, protected: Boolean): BinaryAttachment {
+        val file = File(tempDirectory, name)
+        file.writeBytes(data)
+        return BinaryAttachment(file, protected).apply {
+            database.binaryPool.add(this)
+        }
+    }
+
+    private fun addEntry(title: String,
+                         password: String,
+                         pin: String,
+                         binary: BinaryAttachment): EntryKDBX {
+        val entry = database.createEntry().apply {
+            this.title = title
+            putExtraField(EntryKDBX.STR_PASSWORD, ProtectedString(true, password))
+            putExtraField("PIN", ProtectedString(true, pin))
+            putProtectedBinary("$title.bin", binary)
+        }
+        database.addEntryTo(entry, database.rootGroup)
+        return entry
+    }
+
+    private fun save(): ByteArray {
+        val outputStream = ByteArrayOutputStream()
+        DatabaseOutputKDBX(database, outputStream, outputCache).output()
+        return outputStream.toByteArray()
+    }
+
+    private fun reload(data: ByteArray): DatabaseKDBX {
+        val reloadDirectory = File(tempDirectory, "reload-" + System.nanoTime())
+        assertTrue(reloadDirectory.mkdirs())
+        return DatabaseInputKDBX(reloadDirectory)
+                .openDatabase(ByteArrayInputStream(data), PASSWORD, null, null)
+    }
+
+    private fun entryOf(reloaded: DatabaseKDBX, title: String): EntryKDBX {
+        return reloaded.rootGroup!!.getChildEntries().first { it.title == title }
+    }
+
+    private fun readBinary(binary: BinaryAttachment): ByteArray {
+        return (if (binary.isCompressed == true)
+            GZIPInputStream(binary.getInputDataStream())
+        else
+            binary.getInputDataStream()).use { it.readBytes() }
+    }
+
+    private fun assertEntry(entry: EntryKDBX, password: String, pin: String, binaryData: ByteArray, protected: Boolean) {
+        val passwordField = entry.fields[EntryKDBX.STR_PASSWORD]!!
+        assertEquals(password, passwordField.toString())
+        assertTrue(passwordField.isProtected)
+        val pinField = entry.fields["PIN"]!!
+        assertEquals(pin, pinField.toString())
+        assertTrue(pinField.isProtected)
+        val binary = entry.binaries[entry.title + ".bin"]!!
+        assertEquals(protected, binary.isProtected)
+        assertArrayEquals(binaryData, readBinary(binary))
+    }
+
+    /**
+     * Save, modify a single entry and save again with the same cache, the fragment of the other entry is reused,
+     * its protected values and binaries must still be written with the random stream in the document order
+     */
+    private fun saveModifyAndReload() {
+        val changedData = ByteArray(3000) { (it % 251).toByte() }
+        val unchangedData = ByteArray(5000) { (it % 13).toByte() }
+        // The modified entry is before the unchanged one, the random stream is consumed in a new order
+        val changed = addEntry("Changed", "old-secret", "1111",
+                addBinary("changed", changedData, true))
+        val unchanged = addEntry("Unchanged", "kept-secret", "2222",
+                addBinary("unchanged", unchangedData, false))
+
+        assertEntry(entryOf(reload(save()), "Unchanged"), "kept-secret", "2222", unchangedData, false)
+        assertFalse(changed.isModifiedSinceLastSave)
+        assertFalse(unchanged.isModifiedSinceLastSave)
+
+        changed.putExtraField(EntryKDBX.STR_PASSWORD, ProtectedString(true, "new-secret"))
+        assertTrue(changed.isModifiedSinceLastSave)
+        assertFalse(unchanged.isModifiedSinceLastSave)
+
+        val reloaded = reload(save())
+        assertEntry(entryOf(reloaded, "Changed"), "new-secret", "1111", changedData, true)
+        assertEntry(entryOf(reloaded, "Unchanged"), "kept-secret", "2222", unchangedData, false)
+    }
+
+    fun testSaveModifyAndReloadKDBX3() {
+        // AES KDF, header hash in the meta and binaries in the XML
+        database.kdfParameters = KdfFactory.aesKdf.defaultParameters
+        saveModifyAndReload()
+    }
+
+    fun testSaveModifyAndReloadKDBX4() {
+        // Argon2 KDF, binaries in the inner header
+        database.kdfParameters = KdfFactory.argon2Kdf.defaultParameters
+        saveModifyAndReload()
+    }
+
+    fun testTouchDuringSave() {
+        val entry = addEntry("Touched", "secret", "3333",
+                addBinary("touched", ByteArray(10), false))
+        val modificationCount = entry.modificationCount
+        save()
+        assertFalse(entry.isModifiedSinceLastSave)
+
+        // Touched after the read of the count, as on the main thread during a save
+        entry.touch(modified = false, touchParents = false)
+        entry.markAsSaved(modificationCount)
+        assertTrue(entry.isModifiedSinceLastSave)
+    }
+
+    companion object {
+        private const val PASSWORD = "password"
+    }
+}
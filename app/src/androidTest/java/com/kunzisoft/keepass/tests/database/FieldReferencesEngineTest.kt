@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.database
+
+import com.kunzisoft.keepass.database.element.database.DatabaseKDBX
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.search.UuidUtil
+import junit.framework.TestCase
+
+class FieldReferencesEngineTest : TestCase() {
+
+    private lateinit var database: DatabaseKDBX
+
+    override fun setUp() {
+        super.setUp()
+        database = DatabaseKDBX("Test", "Root")
+    }
+
+    private fun addEntry(title: String, username: String = "", password: String = ""): EntryKDBX {
+        val entry = database.createEntry().apply {
+            this.title = title
+            this.username = username
+            this.password = password
+        }
+        database.addEntryTo(entry, database.rootGroup)
+        return entry
+    }
+
+    private fun refById(wanted: Char, target: EntryKDBX): String {
+        return "{REF:" + wanted + "@I:" + UuidUtil.toHexString(target.nodeId.id) + "}"
+    }
+
+    private fun passwordOf(entry: EntryKDBX): String {
+        return database.fieldReferencesEngine.decodeField(entry, EntryKDBX.STR_PASSWORD,
+                entry.fields[EntryKDBX.STR_PASSWORD]?.toString() ?: "")
+    }
+
+    private fun usernameOf(entry: EntryKDBX): String {
+        return database.fieldReferencesEngine.decodeField(entry, EntryKDBX.STR_USERNAME,
+                entry.fields[EntryKDBX.STR_USERNAME]?.toString() ?: "")
+    }
+
+    private fun editPassword(entry: EntryKDBX, password: String) {
+        entry.password = password
+        database.updateEntry(entry)
+    }
+
+    fun testTextWithoutReference() {
+        val entry = addEntry("Mail", password = "secret")
+        assertEquals("secret", passwordOf(entry))
+    }
+
+    fun testReferenceChain() {
+        val last = addEntry("Last", "carol", "secret")
+        val middle = addEntry("Middle", password = refById('P', last))
+        val first = addEntry("First", password = "pin-" + refById('P', middle))
+        assertEquals("pin-secret", passwordOf(first))
+        assertEquals("secret", passwordOf(middle))
+    }
+
+    fun testReferenceChainByTitle() {
+        val last = addEntry("Last", "carol")
+        val middle = addEntry("Middle", username = refById('U', last))
+        val first = addEntry("First", username = "{REF:U@T:middle}")
+        assertEquals("carol", usernameOf(first))
+        assertEquals("carol", usernameOf(middle))
+    }
+
+    fun testInvalidationAfterTargetEdit() {
+        val target = addEntry("Target", password = "old")
+        val source = addEntry("Source", password = refById('P', target))
+        assertEquals("old", passwordOf(source))
+
+        editPassword(target, "new")
+        assertEquals("new", passwordOf(source))
+    }
+
+    fun testInvalidationAlongTheChain() {
+        val last = addEntry("Last", password = "old")
+        val middle = addEntry("Middle", password = refById('P', last))
+        val first = addEntry("First", password = refById('P', middle))
+        assertEquals("old", passwordOf(middle))
+        assertEquals("old", passwordOf(first))
+
+        editPassword(last, "new")
+        assertEquals("new", passwordOf(first))
+        assertEquals("new", passwordOf(middle))
+    }
+
+    fun testInvalidationAfterTitleEdit() {
+        val target = addEntry("Target", password = "old")
+        val source = addEntry("Source", password = "{REF:P@T:Renamed}")
+        assertEquals("{REF:P@T:Renamed}", passwordOf(source))
+
+        target.title = "Renamed"
+        database.updateEntry(target)
+        assertEquals("old", passwordOf(source))
+    }
+
+    fun testReferenceByTitleTakesTheFirstEntryContainingIt() {
+        // As in KeePass, the first entry in tree order whose title contains the value, even without exact title
+        addEntry("Mail backup", password = "backup")
+        addEntry("Mail", password = "mail")
+        val source = addEntry("Source", password = "{REF:P@T:mail}")
+        assertEquals("backup", passwordOf(source))
+
+        val newTarget = addEntry("Other")
+        database.removeEntryFrom(database.rootGroup!!.getChildEntries()[0], database.rootGroup)
+        newTarget.title = "Gmail"
+        database.updateEntry(newTarget)
+        assertEquals("mail", passwordOf(source))
+    }
+
+    fun testCycleIsResolved() {
+        val first = addEntry("First")
+        val second = addEntry("Second")
+        editPassword(first, "a" + refById('P', second))
+        editPassword(second, "b" + refById('P', first))
+
+        // The recursion is limited, no reference is left in the value
+        val firstPassword = passwordOf(first)
+        assertTrue(firstPassword.startsWith("ab"))
+        assertFalse(firstPassword.contains("{REF:", true))
+        assertEquals(firstPassword, passwordOf(first))
+
+        // The cycle is broken by an edit
+        editPassword(second, "c")
+        assertEquals("ac", passwordOf(first))
+    }
+
+    fun testSelfReference() {
+        val entry = addEntry("Self", "user")
+        editPassword(entry, refById('U', entry) + "-" + refById('T', entry))
+        assertEquals("user-Self", passwordOf(entry))
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.database
+
+import com.kunzisoft.keepass.database.search.PublicSuffixTrie
+import junit.framework.TestCase
+
+class PublicSuffixTrieTest : TestCase() {
+
+    fun testTopLevelDomain() {
+        assertEquals("example.com", PublicSuffixTrie.registrableDomain("www.example.com"))
+        assertEquals("example.com", PublicSuffixTrie.registrableDomain("a.b.example.com"))
+        assertEquals("example.com", PublicSuffixTrie.registrableDomain("example.com"))
+    }
+
+    fun testMultiLevelSuffix() {
+        assertEquals("example.co.uk", PublicSuffixTrie.registrableDomain("www.example.co.uk"))
+        assertEquals("example.com.au", PublicSuffixTrie.registrableDomain("login.example.com.au"))
+        // "uk" alone is not a rule with a second level, the top-level domain is the suffix
+        assertEquals("example.uk", PublicSuffixTrie.registrableDomain("www.example.uk"))
+    }
+
+    fun testPrivateSuffix() {
+        assertEquals("user.github.io", PublicSuffixTrie.registrableDomain("www.user.github.io"))
+        assertEquals("github.com", PublicSuffixTrie.registrableDomain("gist.github.com"))
+    }
+
+    fun testWildcardAndException() {
+        assertEquals("foo.bar.ck", PublicSuffixTrie.registrableDomain("www.foo.bar.ck"))
+        assertEquals("www.ck", PublicSuffixTrie.registrableDomain("www.ck"))
+        assertEquals("www.ck", PublicSuffixTrie.registrableDomain("mail.www.ck"))
+    }
+
+    fun testHostReturnedAsIs() {
+        // Public suffixes, single labels and IP addresses
+        assertEquals("co.uk", PublicSuffixTrie.registrableDomain("co.uk"))
+        assertEquals("github.io", PublicSuffixTrie.registrableDomain("github.io"))
+        assertEquals("bar.ck", PublicSuffixTrie.registrableDomain("bar.ck"))
+        assertEquals("localhost", PublicSuffixTrie.registrableDomain("localhost"))
+        assertEquals("192.168.0.1", PublicSuffixTrie.registrableDomain("192.168.0.1"))
+        assertEquals("", PublicSuffixTrie.registrableDomain(" "))
+    }
+
+    fun testHostIsNormalized() {
+        assertEquals("example.co.uk", PublicSuffixTrie.registrableDomain(" WWW.Example.CO.UK. "))
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.database
+
+import com.kunzisoft.keepass.database.element.Entry
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.search.SearchQuery
+import junit.framework.TestCase
+
+class SearchQueryTest : TestCase() {
+
+    private fun newEntry(title: String, username: String, url: String, tags: String = ""): Entry {
+        return Entry(EntryKDBX().apply { this.tags = tags }).apply {
+            this.title = title
+            this.username = username
+            this.url = url
+        }
+    }
+
+    fun testParseDefaultTerms() {
+        val query = SearchQuery.parse("Mail  Bank")
+        assertEquals(2, query.terms.size)
+        assertEquals(SearchQuery.Scope.DEFAULT, query.terms[0].scope)
+        assertEquals("mail", query.terms[0].value)
+        assertEquals("bank", query.terms[1].value)
+        assertFalse(query.isSingleTerm)
+        assertTrue(SearchQuery.parse("mail").isSingleTerm)
+    }
+
+    fun testParseScopes() {
+        val query = SearchQuery.parse("TITLE:Mail user:bob url:example.com notes:pin tag:work group:web expired:no")
+        assertEquals(listOf(SearchQuery.Scope.TITLE,
+                SearchQuery.Scope.USER,
+                SearchQuery.Scope.URL,
+                SearchQuery.Scope.NOTES,
+                SearchQuery.Scope.TAG,
+                SearchQuery.Scope.GROUP,
+                SearchQuery.Scope.EXPIRED),
+                query.terms.map { it.scope })
+        assertEquals(listOf("mail", "bob", "example.com", "pin", "work", "web", "no"),
+                query.terms.map { it.value })
+    }
+
+    fun testParseNegatedAndQuotedTerm() {
+        val query = SearchQuery.parse("-group:\"Old Accounts\" -")
+        assertEquals(2, query.terms.size)
+        val groupTerm = query.terms[0]
+        assertEquals(SearchQuery.Scope.GROUP, groupTerm.scope)
+        assertEquals("old accounts", groupTerm.value)
+        assertTrue(groupTerm.negated)
+        // A lone dash is searched as a text
+        assertEquals("-", query.terms[1].value)
+        assertFalse(query.terms[1].negated)
+        assertFalse(query.isSingleTerm)
+    }
+
+    fun testParseIgnoresEmptyTerms() {
+        assertTrue(SearchQuery.parse("title: \"\"  ").terms.isEmpty())
+    }
+
+    fun testMatches() {
+        val entry = newEntry("My Mail", "bob", "https://mail.example.com", "work")
+        assertTrue(SearchQuery.parse("mail bob").matches(entry))
+        assertTrue(SearchQuery.parse("url:example tag:work").matches(entry))
+        assertFalse(SearchQuery.parse("user:mail").matches(entry))
+        assertFalse(SearchQuery.parse("mail -bob").matches(entry))
+        assertTrue(SearchQuery.parse("mail -alice expired:no").matches(entry))
+        assertFalse(SearchQuery.parse("").matches(entry))
+    }
+}
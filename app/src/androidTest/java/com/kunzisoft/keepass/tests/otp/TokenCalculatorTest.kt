@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.otp
+
+import com.kunzisoft.keepass.otp.TokenCalculator
+import com.kunzisoft.keepass.otp.TokenCalculator.HashAlgorithm
+import junit.framework.TestCase
+
+class TokenCalculatorTest : TestCase() {
+
+    // Secrets of the test vectors of RFC 4226 and RFC 6238
+    private val secretSha1 = "12345678901234567890".toByteArray()
+    private val secretSha256 = "12345678901234567890123456789012".toByteArray()
+    private val secretSha512 = ("12345678901234567890123456789012"
+            + "34567890123456789012345678901234").toByteArray()
+
+    private val hotpSha1Tokens = arrayOf("755224", "287082", "359152", "969429", "338314",
+            "254676", "287922", "162583", "399871", "520489")
+
+    override fun tearDown() {
+        TokenCalculator.clearCache()
+        super.tearDown()
+    }
+
+    private fun totp(secret: ByteArray, time: Long, algorithm: HashAlgorithm): String {
+        return TokenCalculator.formatTokenString(
+                TokenCalculator.TOTP_RFC6238(secret, 30, time, 8, algorithm), 8)
+    }
+
+    fun testFormatTokenStringPadsWithZeros() {
+        assertEquals("000000", TokenCalculator.formatTokenString(0, 6))
+        assertEquals("000042", TokenCalculator.formatTokenString(42, 6))
+        assertEquals("07081804", TokenCalculator.formatTokenString(7081804, 8))
+        assertEquals("123456", TokenCalculator.formatTokenString(123456, 6))
+        assertEquals("1234567", TokenCalculator.formatTokenString(1234567, 6))
+    }
+
+    fun testHotpVectors() {
+        hotpSha1Tokens.forEachIndexed { counter, token ->
+            assertEquals(token, TokenCalculator.HOTP(secretSha1, counter.toLong(), 6, HashAlgorithm.SHA1))
+        }
+    }
+
+    fun testTotpVectors() {
+        assertEquals("94287082", totp(secretSha1, 59, HashAlgorithm.SHA1))
+        assertEquals("46119246", totp(secretSha256, 59, HashAlgorithm.SHA256))
+        assertEquals("90693936", totp(secretSha512, 59, HashAlgorithm.SHA512))
+        // Tokens with a leading zero
+        assertEquals("07081804", totp(secretSha1, 1111111109, HashAlgorithm.SHA1))
+        assertEquals("68084774", totp(secretSha256, 1111111109, HashAlgorithm.SHA256))
+        assertEquals("25091201", totp(secretSha512, 1111111109, HashAlgorithm.SHA512))
+    }
+
+    fun testCachedMacIsReusedWithTheSameResults() {
+        // Alternate the secrets and the algorithms with the cached Macs
+        for (i in 0 until 3) {
+            assertEquals("94287082", totp(secretSha1, 59, HashAlgorithm.SHA1))
+            assertEquals("46119246", totp(secretSha256, 59, HashAlgorithm.SHA256))
+            assertEquals(hotpSha1Tokens[i], TokenCalculator.HOTP(secretSha1, i.toLong(), 6, HashAlgorithm.SHA1))
+        }
+        TokenCalculator.clearCache()
+        assertEquals("94287082", totp(secretSha1, 59, HashAlgorithm.SHA1))
+    }
+
+    fun testCachedMacIsSpecificToTheAlgorithm() {
+        val sha1Token = TokenCalculator.HOTP(secretSha1, 0, 6, HashAlgorithm.SHA1)
+        val sha256Token = TokenCalculator.HOTP(secretSha1, 0, 6, HashAlgorithm.SHA256)
+        assertEquals("755224", sha1Token)
+        assertFalse(sha1Token == sha256Token)
+        TokenCalculator.clearCache()
+        assertEquals(sha256Token, TokenCalculator.HOTP(secretSha1, 0, 6, HashAlgorithm.SHA256))
+    }
+
+    fun testCachedMacIsNotChangedByTheSecretArray() {
+        val secret = secretSha1.copyOf()
+        assertEquals("755224", TokenCalculator.HOTP(secret, 0, 6, HashAlgorithm.SHA1))
+        // The cache keeps a copy of the secret, a modified array is another key
+        secret[0] = 0
+        val modifiedSecretToken = TokenCalculator.HOTP(secret, 0, 6, HashAlgorithm.SHA1)
+        TokenCalculator.clearCache()
+        assertEquals(modifiedSecretToken, TokenCalculator.HOTP(secret.copyOf(), 0, 6, HashAlgorithm.SHA1))
+        assertFalse("755224" == modifiedSecretToken)
+    }
+
+    fun testTokensAfterEvictionOfTheCache() {
+        val secrets = Array(100) { index -> "secret number $index".toByteArray() }
+        val tokens = secrets.map { TokenCalculator.HOTP(it, 1, 6, HashAlgorithm.SHA1) }
+        // The first Macs were evicted, they are initialised again
+        secrets.forEachIndexed { index, secret ->
+            assertEquals(tokens[index], TokenCalculator.HOTP(secret, 1, 6, HashAlgorithm.SHA1))
+        }
+        assertEquals("755224", TokenCalculator.HOTP(secretSha1, 0, 6, HashAlgorithm.SHA1))
+    }
+
+    fun testSteamTokenOfThePeriod() {
+        val counter = 1111111109L / 30
+        val token = TokenCalculator.Steam(secretSha1, counter, 5, HashAlgorithm.SHA1)
+        assertEquals(5, token.length)
+        assertTrue(token.all { it in "23456789BCDFGHJKMNPQRTVWXY" })
+        assertEquals(token, TokenCalculator.Steam(secretSha1, counter, 5, HashAlgorithm.SHA1))
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.stream
+
+import com.kunzisoft.keepass.stream.SpooledOutputStream
+import junit.framework.TestCase
+import org.junit.Assert.assertArrayEquals
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.*
+
+class SpooledOutputStreamTest : TestCase() {
+
+    private lateinit var tempDirectory: File
+
+    override fun setUp() {
+        super.setUp()
+        tempDirectory = File(System.getProperty("java.io.tmpdir"), "spool-test-" + System.nanoTime())
+        assertTrue(tempDirectory.mkdirs())
+    }
+
+    override fun tearDown() {
+        tempDirectory.deleteRecursively()
+        super.tearDown()
+    }
+
+    private fun randomBytes(size: Int): ByteArray {
+        return ByteArray(size).apply { Random(size.toLong()).nextBytes(this) }
+    }
+
+    private fun spool(spooledOutputStream: SpooledOutputStream, data: ByteArray) {
+        // Single bytes and blocks, to cross the threshold with both
+        var offset = 0
+        while (offset < data.size) {
+            if (offset % 3 == 0) {
+                spooledOutputStream.write(data[offset].toInt())
+                offset++
+            } else {
+                val count = minOf(100, data.size - offset)
+                spooledOutputStream.write(data, offset, count)
+                offset += count
+            }
+        }
+        spooledOutputStream.close()
+    }
+
+    private fun replay(spooledOutputStream: SpooledOutputStream): ByteArray {
+        return ByteArrayOutputStream().also { spooledOutputStream.writeTo(it) }.toByteArray()
+    }
+
+    fun testReplayInMemory() {
+        val data = randomBytes(1000)
+        val spooledOutputStream = SpooledOutputStream(4096, tempDirectory)
+        spool(spooledOutputStream, data)
+
+        assertArrayEquals(data, replay(spooledOutputStream))
+        assertTrue(tempDirectory.listFiles().isNullOrEmpty())
+        spooledOutputStream.release()
+    }
+
+    fun testReplayFromTempFile() {
+        val data = randomBytes(50000)
+        val spooledOutputStream = SpooledOutputStream(4096, tempDirectory)
+        spool(spooledOutputStream, data)
+
+        assertEquals(1, tempDirectory.listFiles()?.size)
+        assertArrayEquals(data, replay(spooledOutputStream))
+        // The spool can be replayed many times until released
+        assertArrayEquals(data, replay(spooledOutputStream))
+
+        spooledOutputStream.release()
+        assertTrue(tempDirectory.listFiles().isNullOrEmpty())
+    }
+
+    fun testThresholdReached() {
+        val data = randomBytes(4096)
+        val spooledOutputStream = SpooledOutputStream(4096, tempDirectory)
+        spool(spooledOutputStream, data)
+        // The threshold is the maximum size in memory
+        assertTrue(tempDirectory.listFiles().isNullOrEmpty())
+        assertArrayEquals(data, replay(spooledOutputStream))
+        spooledOutputStream.release()
+    }
+
+    fun testEmptySpool() {
+        val spooledOutputStream = SpooledOutputStream(4096, tempDirectory)
+        spooledOutputStream.close()
+        assertEquals(0, replay(spooledOutputStream).size)
+        spooledOutputStream.release()
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tests.timeout
+
+import com.kunzisoft.keepass.timeout.TimerWheel
+import junit.framework.TestCase
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class TimerWheelTest : TestCase() {
+
+    fun testScheduleRunsOnceAfterDelay() {
+        val latch = CountDownLatch(1)
+        val runs = AtomicInteger()
+        val startTime = System.currentTimeMillis()
+        TimerWheel.schedule(200) {
+            runs.incrementAndGet()
+            latch.countDown()
+        }
+        assertTrue(latch.await(2, TimeUnit.SECONDS))
+        assertTrue(System.currentTimeMillis() - startTime >= 200)
+        Thread.sleep(300)
+        assertEquals(1, runs.get())
+    }
+
+    fun testCancelledTimerIsNotRun() {
+        val runs = AtomicInteger()
+        val timeout = TimerWheel.schedule(200) {
+            runs.incrementAndGet()
+        }
+        timeout.cancel()
+        assertTrue(timeout.isCancelled)
+        Thread.sleep(500)
+        assertEquals(0, runs.get())
+    }
+
+    fun testTimersOfTheSameTickAreAllRun() {
+        val latch = CountDownLatch(3)
+        TimerWheel.schedule(150) { latch.countDown() }
+        TimerWheel.schedule(160) { latch.countDown() }
+        TimerWheel.schedule(170) { latch.countDown() }
+        assertTrue(latch.await(2, TimeUnit.SECONDS))
+    }
+
+    fun testFixedRateUntilCancelled() {
+        val latch = CountDownLatch(2)
+        val runs = AtomicInteger()
+        val timeout = TimerWheel.scheduleAtFixedRate(200) {
+            runs.incrementAndGet()
+            latch.countDown()
+        }
+        assertTrue(latch.await(2, TimeUnit.SECONDS))
+        timeout.cancel()
+        val runsAtCancel = runs.get()
+        Thread.sleep(500)
+        assertEquals(runsAtCancel, runs.get())
+    }
+
+    fun testCountdownFinishesOnce() {
+        // End just after a tick of the countdown, the tick must not finish the countdown
+        val duration = TimerWheel.COUNTDOWN_PERIOD -
+                System.currentTimeMillis() % TimerWheel.COUNTDOWN_PERIOD + 50
+        val finishes = AtomicInteger()
+        val ticks = AtomicInteger()
+        val latch = CountDownLatch(1)
+        TimerWheel.scheduleCountdown(duration,
+                { remaining ->
+                    assertTrue(remaining >= 0)
+                    ticks.incrementAndGet()
+                },
+                {
+                    finishes.incrementAndGet()
+                    latch.countDown()
+                })
+        assertTrue(latch.await(3, TimeUnit.SECONDS))
+        Thread.sleep(TimerWheel.COUNTDOWN_PERIOD)
+        assertEquals(1, finishes.get())
+        assertTrue(ticks.get() >= 1)
+    }
+}
@@ -55,4 +55,23 @@ class StringUtilTest : TestCase() {
     fun testReplaceAllIgnoresCase2() {
         assertEquals(repText, StringUtil.replaceAllIgnoresCase(repText, repSearchBad, repNew, Locale.ENGLISH))
     }
+
+    fun testSplitStringTermsOnBlanks() {
+        assertEquals(listOf("a", "bc", "d", "e"), StringUtil.splitStringTerms(" a  bc\td\r\ne "))
+    }
+
+    fun testSplitStringTermsKeepsQuotedBlanks() {
+        assertEquals(listOf("old accounts", "b"), StringUtil.splitStringTerms("\"old accounts\" b"))
+        assertEquals(listOf("-group:old accounts", "url:x"), StringUtil.splitStringTerms("-group:\"old accounts\" url:x"))
+    }
+
+    fun testSplitStringTermsUnclosedQuote() {
+        assertEquals(listOf("a", "b c"), StringUtil.splitStringTerms("a \"b c"))
+    }
+
+    fun testSplitStringTermsEmpty() {
+        assertTrue(StringUtil.splitStringTerms(null).isEmpty())
+        assertTrue(StringUtil.splitStringTerms(" \t ").isEmpty())
+        assertTrue(StringUtil.splitStringTerms("\"\"").isEmpty())
+    }
 }
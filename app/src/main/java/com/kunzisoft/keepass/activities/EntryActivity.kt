@@ -225,6 +225,13 @@ class EntryActivity : LockingActivity() {
     }
 
     private fun fillEntryDataInContentsView(entry: Entry) {
+        // Fields are read with the shared lock, an action of the database service may modify the entry
+        Database.getInstance().doWithReadLock {
+            assignEntryDataInContentsView(entry)
+        }
+    }
+
+    private fun assignEntryDataInContentsView(entry: Entry) {
 
         val database = Database.getInstance()
         database.startManageEntry(entry)
@@ -549,7 +556,7 @@ class EntryActivity : LockingActivity() {
     override fun finish() {
         // Transit data in previous Activity after an update
         Intent().apply {
-            putExtra(EntryEditActivity.ADD_OR_UPDATE_ENTRY_KEY, mEntry)
+            putExtra(EntryEditActivity.ADD_OR_UPDATE_ENTRY_KEY, mEntry?.let { mDatabase?.getHandle(it) })
             setResult(EntryEditActivity.UPDATE_ENTRY_RESULT_CODE, this)
         }
         super.finish()
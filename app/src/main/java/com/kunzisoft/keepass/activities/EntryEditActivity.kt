@@ -43,6 +43,8 @@ import com.kunzisoft.keepass.database.element.DateInstant
 import com.kunzisoft.keepass.database.element.Entry
 import com.kunzisoft.keepass.database.element.Group
 import com.kunzisoft.keepass.database.element.icon.IconImage
+import com.kunzisoft.keepass.database.element.node.NodeDraftRegistry
+import com.kunzisoft.keepass.database.element.node.NodeHandle
 import com.kunzisoft.keepass.database.element.node.NodeId
 import com.kunzisoft.keepass.education.EntryEditActivityEducation
 import com.kunzisoft.keepass.notifications.ClipboardEntryNotificationService
@@ -73,6 +75,8 @@ class EntryEditActivity : LockingActivity(),
     private var mParent: Group? = null
     // New or copy of mEntry in the database to be modifiable
     private var mNewEntry: Entry? = null
+    // Handle of mNewEntry saved in the instance state
+    private var mNewEntryDraft: NodeHandle? = null
     private var mIsNew: Boolean = false
 
     // Views
@@ -128,6 +132,12 @@ class EntryEditActivity : LockingActivity(),
         // Likely the app has been killed exit the activity
         mDatabase = Database.getInstance()
 
+        // Retrieve the new entry after an orientation change
+        val draftNewEntry = savedInstanceState?.getParcelable<NodeHandle>(KEY_NEW_ENTRY)?.let {
+            mNewEntryDraft = it
+            mDatabase?.getEntryByHandle(it)
+        }
+
         // Entry is retrieve, it's an entry to update
         intent.getParcelableExtra<NodeId<UUID>>(KEY_ENTRY)?.let {
             mIsNew = false
@@ -145,8 +155,7 @@ class EntryEditActivity : LockingActivity(),
             }
 
             // Create the new entry from the current one
-            if (savedInstanceState == null
-                    || !savedInstanceState.containsKey(KEY_NEW_ENTRY)) {
+            if (draftNewEntry == null) {
                 mEntry?.let { entry ->
                     // Create a copy to modify
                     mNewEntry = Entry(entry).also { newEntry ->
@@ -161,8 +170,7 @@ class EntryEditActivity : LockingActivity(),
         intent.getParcelableExtra<NodeId<*>>(KEY_PARENT)?.let {
             mIsNew = true
             // Create an empty new entry
-            if (savedInstanceState == null
-                    || !savedInstanceState.containsKey(KEY_NEW_ENTRY)) {
+            if (draftNewEntry == null) {
                 mNewEntry = mDatabase?.createEntry()
             }
             mParent = mDatabase?.getGroupById(it)
@@ -172,10 +180,8 @@ class EntryEditActivity : LockingActivity(),
             }
         }
 
-        // Retrieve the new entry after an orientation change
-        if (savedInstanceState != null
-                && savedInstanceState.containsKey(KEY_NEW_ENTRY)) {
-            mNewEntry = savedInstanceState.getParcelable(KEY_NEW_ENTRY)
+        if (draftNewEntry != null) {
+            mNewEntry = draftNewEntry
         }
 
         // Close the activity if entry or parent can't be retrieve
@@ -496,14 +502,25 @@ class EntryEditActivity : LockingActivity(),
     }
 
     override fun onSaveInstanceState(outState: Bundle) {
-        mNewEntry?.let {
-            populateEntryWithViews(it)
-            outState.putParcelable(KEY_NEW_ENTRY, it)
+        mNewEntry?.let { newEntry ->
+            populateEntryWithViews(newEntry)
+            // Only the handle of the entry in edition is written in the state
+            val draft = mNewEntryDraft?.takeIf { mDatabase?.getEntryByHandle(it) === newEntry }
+                    ?: mDatabase?.registerDraft(newEntry)
+            mNewEntryDraft = draft
+            outState.putParcelable(KEY_NEW_ENTRY, draft)
         }
 
         super.onSaveInstanceState(outState)
     }
 
+    override fun onDestroy() {
+        if (isFinishing) {
+            mNewEntryDraft?.let { NodeDraftRegistry.remove(it) }
+        }
+        super.onDestroy()
+    }
+
     override fun acceptPassword(bundle: Bundle) {
         bundle.getString(GeneratePasswordDialogFragment.KEY_PASSWORD_ID)?.let {
             entryEditContentsView?.password = it
@@ -533,7 +550,7 @@ class EntryEditActivity : LockingActivity(),
             mNewEntry?.let {
                 val bundle = Bundle()
                 val intentEntry = Intent()
-                bundle.putParcelable(ADD_OR_UPDATE_ENTRY_KEY, mNewEntry)
+                bundle.putParcelable(ADD_OR_UPDATE_ENTRY_KEY, mDatabase?.getHandle(it))
                 intentEntry.putExtras(bundle)
                 if (mIsNew) {
                     setResult(ADD_ENTRY_RESULT_CODE, intentEntry)
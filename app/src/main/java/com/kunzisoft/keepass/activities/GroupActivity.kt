@@ -57,6 +57,7 @@ import com.kunzisoft.keepass.database.element.Group
 import com.kunzisoft.keepass.database.element.SortNodeEnum
 import com.kunzisoft.keepass.database.element.icon.IconImage
 import com.kunzisoft.keepass.database.element.node.Node
+import com.kunzisoft.keepass.database.element.node.NodeHandle
 import com.kunzisoft.keepass.database.element.node.NodeId
 import com.kunzisoft.keepass.database.element.node.Type
 import com.kunzisoft.keepass.education.GroupActivityEducation
@@ -153,7 +154,9 @@ class GroupActivity : LockingActivity(),
             if (savedInstanceState.containsKey(REQUEST_STARTUP_SEARCH_KEY))
                 mRequestStartupSearch = savedInstanceState.getBoolean(REQUEST_STARTUP_SEARCH_KEY)
             if (savedInstanceState.containsKey(OLD_GROUP_TO_UPDATE_KEY))
-                mOldGroupToUpdate = savedInstanceState.getParcelable(OLD_GROUP_TO_UPDATE_KEY)
+                mOldGroupToUpdate = savedInstanceState.getParcelable<NodeHandle>(OLD_GROUP_TO_UPDATE_KEY)?.let {
+                    mDatabase?.getGroupByHandle(it)
+                }
         }
 
         try {
@@ -340,7 +343,7 @@ class GroupActivity : LockingActivity(),
             outState.putParcelable(GROUP_ID_KEY, it.nodeId)
         }
         mOldGroupToUpdate?.let {
-            outState.putParcelable(OLD_GROUP_TO_UPDATE_KEY, it)
+            outState.putParcelable(OLD_GROUP_TO_UPDATE_KEY, mDatabase?.getHandle(it))
         }
         outState.putBoolean(REQUEST_STARTUP_SEARCH_KEY, mRequestStartupSearch)
         super.onSaveInstanceState(outState)
@@ -690,6 +693,17 @@ class GroupActivity : LockingActivity(),
                 }
                 setIconifiedByDefault(false) // Do not iconify the widget; expand it by default
                 suggestionsAdapter = mSearchSuggestionAdapter
+                setOnQueryTextListener(object : SearchView.OnQueryTextListener {
+                    override fun onQueryTextSubmit(query: String?): Boolean {
+                        return false
+                    }
+
+                    override fun onQueryTextChange(newText: String?): Boolean {
+                        // Cancel the search of the previous text
+                        mSearchSuggestionAdapter?.updateQuery(newText ?: "")
+                        return false
+                    }
+                })
                 setOnSuggestionListener(object : SearchView.OnSuggestionListener {
                     override fun onSuggestionClick(position: Int): Boolean {
                         mSearchSuggestionAdapter?.let { searchAdapter ->
@@ -38,6 +38,8 @@ import com.kunzisoft.keepass.adapters.NodeAdapter
 import com.kunzisoft.keepass.database.element.SortNodeEnum
 import com.kunzisoft.keepass.database.element.Group
 import com.kunzisoft.keepass.database.element.node.Node
+import com.kunzisoft.keepass.database.element.node.NodeDraftRegistry
+import com.kunzisoft.keepass.database.element.node.NodeHandle
 import com.kunzisoft.keepass.activities.dialogs.SortDialogFragment
 import com.kunzisoft.keepass.activities.helpers.EntrySelectionHelper
 import com.kunzisoft.keepass.settings.PreferencesUtil
@@ -55,6 +57,7 @@ class ListNodesFragment : StylishFragment(), SortDialogFragment.SortSelectionLis
     private var mNodesRecyclerView: RecyclerView? = null
     var mainGroup: Group? = null
         private set
+    private var mainGroupHandle: NodeHandle? = null
     private var mAdapter: NodeAdapter? = null
 
     var nodeActionSelectionMode = false
@@ -107,7 +110,8 @@ class ListNodesFragment : StylishFragment(), SortDialogFragment.SortSelectionLis
         arguments?.let { args ->
             // Contains all the group in element
             if (args.containsKey(GROUP_KEY)) {
-                mainGroup = args.getParcelable(GROUP_KEY)
+                mainGroupHandle = args.getParcelable(GROUP_KEY)
+                mainGroup = mainGroupHandle?.let { Database.getInstance().getGroupByHandle(it) }
             }
             if (args.containsKey(IS_SEARCH)) {
                 isASearchResult = args.getBoolean(IS_SEARCH)
@@ -193,27 +197,29 @@ class ListNodesFragment : StylishFragment(), SortDialogFragment.SortSelectionLis
         }
 
         // Refresh data
-        rebuildList()
-
-        if (isASearchResult && mAdapter!= null && mAdapter!!.isEmpty) {
-            // To show the " no search entry found "
-            mNodesRecyclerView?.visibility = View.GONE
-            notFoundView?.visibility = View.VISIBLE
-        } else {
-            mNodesRecyclerView?.visibility = View.VISIBLE
-            notFoundView?.visibility = View.GONE
+        rebuildList {
+            if (isASearchResult && mAdapter!= null && mAdapter!!.isEmpty) {
+                // To show the " no search entry found "
+                mNodesRecyclerView?.visibility = View.GONE
+                notFoundView?.visibility = View.VISIBLE
+            } else {
+                mNodesRecyclerView?.visibility = View.VISIBLE
+                notFoundView?.visibility = View.GONE
+            }
         }
     }
 
-    fun rebuildList() {
+    fun rebuildList(onListBuilt: (() -> Unit)? = null) {
         // Add elements to the list
         mainGroup?.let { mainGroup ->
             mAdapter?.apply {
-                rebuildList(mainGroup)
-                // To visually change the elements
-                if (PreferencesUtil.APPEARANCE_CHANGED) {
-                    notifyDataSetChanged()
-                    PreferencesUtil.APPEARANCE_CHANGED = false
+                rebuildList(mainGroup) {
+                    // To visually change the elements
+                    if (PreferencesUtil.APPEARANCE_CHANGED) {
+                        notifyDataSetChanged()
+                        PreferencesUtil.APPEARANCE_CHANGED = false
+                    }
+                    onListBuilt?.invoke()
                 }
             }
         }
@@ -362,6 +368,17 @@ class ListNodesFragment : StylishFragment(), SortDialogFragment.SortSelectionLis
         }
     }
 
+    override fun onDestroy() {
+        // The group of a search is no longer needed when the fragment is definitively removed
+        if (isRemoving || activity?.isFinishing == true) {
+            mainGroupHandle?.let {
+                if (it.isDraft)
+                    NodeDraftRegistry.remove(it)
+            }
+        }
+        super.onDestroy()
+    }
+
     override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
         super.onActivityResult(requestCode, resultCode, data)
 
@@ -369,7 +386,9 @@ class ListNodesFragment : StylishFragment(), SortDialogFragment.SortSelectionLis
             EntryEditActivity.ADD_OR_UPDATE_ENTRY_REQUEST_CODE -> {
                 if (resultCode == EntryEditActivity.ADD_ENTRY_RESULT_CODE
                         || resultCode == EntryEditActivity.UPDATE_ENTRY_RESULT_CODE) {
-                    data?.getParcelableExtra<Node>(EntryEditActivity.ADD_OR_UPDATE_ENTRY_KEY)?.let { changedNode ->
+                    data?.getParcelableExtra<NodeHandle>(EntryEditActivity.ADD_OR_UPDATE_ENTRY_KEY)?.let {
+                        Database.getInstance().getEntryByHandle(it)
+                    }?.let { changedNode ->
                         if (resultCode == EntryEditActivity.ADD_ENTRY_RESULT_CODE)
                             addNode(changedNode)
                         if (resultCode == EntryEditActivity.UPDATE_ENTRY_RESULT_CODE)
@@ -461,7 +480,10 @@ class ListNodesFragment : StylishFragment(), SortDialogFragment.SortSelectionLis
         fun newInstance(group: Group?, readOnly: Boolean, isASearch: Boolean): ListNodesFragment {
             val bundle = Bundle()
             if (group != null) {
-                bundle.putParcelable(GROUP_KEY, group)
+                val database = Database.getInstance()
+                // Group of a search is not in the database
+                bundle.putParcelable(GROUP_KEY,
+                        if (isASearch) database.registerDraft(group) else database.getHandle(group))
             }
             bundle.putBoolean(IS_SEARCH, isASearch)
             ReadOnlyHelper.putReadOnlyInBundle(bundle, readOnly)
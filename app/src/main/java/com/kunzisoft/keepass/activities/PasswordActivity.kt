@@ -46,11 +46,13 @@ import com.kunzisoft.keepass.activities.helpers.OpenFileHelper
 import com.kunzisoft.keepass.activities.helpers.ReadOnlyHelper
 import com.kunzisoft.keepass.activities.lock.LockingActivity
 import com.kunzisoft.keepass.activities.stylish.StylishActivity
+import com.kunzisoft.keepass.app.StartupTrace
 import com.kunzisoft.keepass.app.database.CipherDatabaseEntity
 import com.kunzisoft.keepass.app.database.FileDatabaseHistoryAction
 import com.kunzisoft.keepass.autofill.AutofillHelper
 import com.kunzisoft.keepass.autofill.AutofillHelper.KEY_SEARCH_INFO
 import com.kunzisoft.keepass.biometric.AdvancedUnlockedManager
+import com.kunzisoft.keepass.crypto.NativeLib
 import com.kunzisoft.keepass.database.action.ProgressDialogThread
 import com.kunzisoft.keepass.database.element.Database
 import com.kunzisoft.keepass.database.exception.DuplicateUuidDatabaseException
@@ -114,7 +116,13 @@ open class PasswordActivity : StylishActivity() {
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
 
-        setContentView(R.layout.activity_password)
+        // Load the native libraries of the key derivation while the credentials are entered
+        NativeLib.preloadInBackground()
+
+        StartupTrace.trace("Password layout inflation") {
+            setContentView(R.layout.activity_password)
+        }
+        StartupTrace.reportFirstFrame(this)
 
         toolbar = findViewById(R.id.toolbar)
         toolbar?.title = getString(R.string.app_name)
@@ -741,7 +749,7 @@ open class PasswordActivity : StylishActivity() {
             when (resultCode) {
                 LockingActivity.RESULT_EXIT_LOCK, Activity.RESULT_CANCELED -> {
                     clearCredentialsViews()
-                    Database.getInstance().closeAndClear(applicationContext.filesDir)
+                    Database.getInstance().closeAndClearInBackground(applicationContext.filesDir)
                 }
             }
         }
@@ -21,6 +21,9 @@ package com.kunzisoft.keepass.adapters
 
 import android.content.Context
 import android.graphics.Color
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
 import android.util.TypedValue
 import android.view.LayoutInflater
 import android.view.View
@@ -30,6 +33,7 @@ import android.widget.TextView
 import androidx.recyclerview.widget.RecyclerView
 import androidx.recyclerview.widget.SortedList
 import androidx.recyclerview.widget.SortedListAdapterCallback
+import com.kunzisoft.keepass.BuildConfig
 import com.kunzisoft.keepass.R
 import com.kunzisoft.keepass.database.element.Database
 import com.kunzisoft.keepass.database.element.Entry
@@ -43,6 +47,7 @@ import com.kunzisoft.keepass.settings.PreferencesUtil
 import com.kunzisoft.keepass.view.setTextSize
 import com.kunzisoft.keepass.view.strikeOut
 import java.util.*
+import java.util.concurrent.Executors
 
 /**
  * Create node list adapter with contextMenu or not
@@ -54,6 +59,11 @@ class NodeAdapter (private val context: Context)
     private var nodeComparator: Comparator<NodeVersionedInterface<Group>>? = null
     private val nodeSortedListCallback: NodeSortedListCallback
     private val nodeSortedList: SortedList<Node>
+    // Sorted nodes of the last build not yet added to the list, loaded window by window
+    private val pendingNodes = LinkedList<Node>()
+    // Incremented at each build, to ignore the result of a previous build
+    private var buildGeneration = 0
+    private val mainHandler = Handler(Looper.getMainLooper())
     private val inflater: LayoutInflater = LayoutInflater.from(context)
 
     private var calculateViewTypeTextSize = Array(2) { true} // number of view type
@@ -108,33 +118,77 @@ class NodeAdapter (private val context: Context)
     }
 
     fun assignPreferences() {
-        this.prefSizeMultiplier = PreferencesUtil.getListTextSize(context)
+        val preferences = PreferencesUtil.getSnapshot(context)
+        this.prefSizeMultiplier = preferences.listTextSize
 
         notifyChangeSort(
-                PreferencesUtil.getListSort(context),
+                preferences.listSort,
                         SortNodeEnum.SortNodeParameters(
-                            PreferencesUtil.getAscendingSort(context),
-                            PreferencesUtil.getGroupsBeforeSort(context),
-                            PreferencesUtil.getRecycleBinBottomSort(context)
+                            preferences.ascendingSort,
+                            preferences.groupsBeforeSort,
+                            preferences.recycleBinBottomSort
                         )
                 )
 
-        this.showUserNames = PreferencesUtil.showUsernamesListEntries(context)
-        this.showNumberEntries = PreferencesUtil.showNumberEntries(context)
+        this.showUserNames = preferences.showUsernamesListEntries
+        this.showNumberEntries = preferences.showNumberEntries
 
-        this.entryFilters = Group.ChildFilter.getDefaults(context)
+        this.entryFilters = Group.ChildFilter.getDefaults(preferences)
 
         // Reinit textSize for all view type
         calculateViewTypeTextSize.forEachIndexed { index, _ -> calculateViewTypeTextSize[index] = true }
     }
 
     /**
-     * Rebuild the list by clear and build children from the group
+     * Rebuild the list by clear and build children from the group,
+     * children are retrieved and sorted in background, then displayed window by window
+     * @param onListBuilt Called in the main thread when the first window is displayed
      */
-    fun rebuildList(group: Group) {
+    fun rebuildList(group: Group, onListBuilt: (() -> Unit)? = null) {
         assignPreferences()
-        nodeSortedList.replaceAll(group.getFilteredChildren(*entryFilters)
-        )
+        val generation = ++buildGeneration
+        val comparator = nodeComparator
+        val filters = entryFilters
+        buildExecutor.execute {
+            val startTime = System.currentTimeMillis()
+            val children = mDatabase.doWithReadLock {
+                group.getFilteredChildren(*filters).let { nodes ->
+                    comparator?.let { nodes.sortedWith(it) } ?: nodes
+                }
+            }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "List of " + children.size + " nodes built in " + (System.currentTimeMillis() - startTime) + " ms")
+            mainHandler.post {
+                if (generation == buildGeneration) {
+                    pendingNodes.clear()
+                    pendingNodes.addAll(children)
+                    // Nodes are already sorted, the list only merges them with the previous ones
+                    nodeSortedList.replaceAll(takePendingNodes(), true)
+                    onListBuilt?.invoke()
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the next window of nodes to display from the pending nodes
+     */
+    private fun takePendingNodes(maxSize: Int = WINDOW_SIZE): Array<Node> {
+        val size = minOf(maxSize, pendingNodes.size)
+        return Array(size) { pendingNodes.removeFirst() }
+    }
+
+    private fun loadNextWindow() {
+        if (pendingNodes.isNotEmpty())
+            nodeSortedList.addAll(takePendingNodes(), true)
+    }
+
+    /**
+     * Display all the pending nodes, before an operation which must know the whole list
+     */
+    private fun loadAllPendingNodes() {
+        if (pendingNodes.isNotEmpty())
+            nodeSortedList.addAll(takePendingNodes(pendingNodes.size), true)
     }
 
     private inner class NodeSortedListCallback: SortedListAdapterCallback<Node>(this) {
@@ -155,6 +209,7 @@ class NodeAdapter (private val context: Context)
 
     fun contains(node: Node): Boolean {
         return nodeSortedList.indexOf(node) != SortedList.INVALID_POSITION
+                || pendingNodes.contains(node)
     }
 
     /**
@@ -162,6 +217,7 @@ class NodeAdapter (private val context: Context)
      * @param node Node to add
      */
     fun addNode(node: Node) {
+        loadAllPendingNodes()
         nodeSortedList.add(node)
     }
 
@@ -170,6 +226,7 @@ class NodeAdapter (private val context: Context)
      * @param nodes Nodes to add
      */
     fun addNodes(nodes: List<Node>) {
+        loadAllPendingNodes()
         nodeSortedList.addAll(nodes)
     }
 
@@ -178,6 +235,7 @@ class NodeAdapter (private val context: Context)
      * @param node Node to delete
      */
     fun removeNode(node: Node) {
+        pendingNodes.remove(node)
         nodeSortedList.remove(node)
     }
 
@@ -187,6 +245,7 @@ class NodeAdapter (private val context: Context)
      */
     fun removeNodes(nodes: List<Node>) {
         nodes.forEach { node ->
+            pendingNodes.remove(node)
             nodeSortedList.remove(node)
         }
     }
@@ -218,6 +277,7 @@ class NodeAdapter (private val context: Context)
      * @param newNode Node after the update
      */
     fun updateNode(oldNode: Node, newNode: Node) {
+        loadAllPendingNodes()
         nodeSortedList.beginBatchedUpdates()
         nodeSortedList.remove(oldNode)
         nodeSortedList.add(newNode)
@@ -230,6 +290,7 @@ class NodeAdapter (private val context: Context)
      * @param newNodes Node after the update
      */
     fun updateNodes(oldNodes: List<Node>, newNodes: List<Node>) {
+        loadAllPendingNodes()
         nodeSortedList.beginBatchedUpdates()
         oldNodes.forEach { oldNode ->
             nodeSortedList.remove(oldNode)
@@ -280,64 +341,72 @@ class NodeAdapter (private val context: Context)
     }
 
     override fun onBindViewHolder(holder: NodeViewHolder, position: Int) {
-        val subNode = nodeSortedList.get(position)
-        // Assign image
-        val iconColor = when (subNode.type) {
-            Type.GROUP -> iconGroupColor
-            Type.ENTRY -> iconEntryColor
-        }
-        holder.icon.apply {
-            assignDatabaseIcon(mDatabase.drawFactory, subNode.icon, iconColor)
-            // Relative size of the icon
-            layoutParams?.apply {
-                height = (iconDefaultDimension * prefSizeMultiplier).toInt()
-                width = (iconDefaultDimension * prefSizeMultiplier).toInt()
-            }
+        // Load the next nodes before the end of the list is displayed
+        if (pendingNodes.isNotEmpty() && position >= nodeSortedList.size() - WINDOW_PREFETCH_DISTANCE) {
+            mainHandler.post { loadNextWindow() }
         }
 
-        // Assign text
-        holder.text.apply {
-            text = subNode.title
-            setTextSize(textSizeUnit, infoTextDefaultDimension, prefSizeMultiplier)
-            strikeOut(subNode.isCurrentlyExpires)
-        }
-        // Add subText with username
-        holder.subText.apply {
-            text = ""
-            strikeOut(subNode.isCurrentlyExpires)
-            visibility = View.GONE
-        }
-
-        // Specific elements for entry
-        if (subNode.type == Type.ENTRY) {
-            val entry = subNode as Entry
-            mDatabase.startManageEntry(entry)
+        val subNode = nodeSortedList.get(position)
+        // Fields are read with the shared lock, an action of the database service may modify the node
+        mDatabase.doWithReadLock {
+            // Assign image
+            val iconColor = when (subNode.type) {
+                Type.GROUP -> iconGroupColor
+                Type.ENTRY -> iconEntryColor
+            }
+            holder.icon.apply {
+                assignDatabaseIcon(mDatabase.drawFactory, subNode.icon, iconColor)
+                // Relative size of the icon
+                layoutParams?.apply {
+                    height = (iconDefaultDimension * prefSizeMultiplier).toInt()
+                    width = (iconDefaultDimension * prefSizeMultiplier).toInt()
+                }
+            }
 
-            holder.text.text = entry.getVisualTitle()
+            // Assign text
+            holder.text.apply {
+                text = subNode.title
+                setTextSize(textSizeUnit, infoTextDefaultDimension, prefSizeMultiplier)
+                strikeOut(subNode.isCurrentlyExpires)
+            }
+            // Add subText with username
             holder.subText.apply {
-                val username = entry.username
-                if (showUserNames && username.isNotEmpty()) {
-                    visibility = View.VISIBLE
-                    text = username
-                    setTextSize(textSizeUnit, subtextDefaultDimension, prefSizeMultiplier)
-                }
+                text = ""
+                strikeOut(subNode.isCurrentlyExpires)
+                visibility = View.GONE
             }
 
-            mDatabase.stopManageEntry(entry)
-        }
+            // Specific elements for entry
+            if (subNode.type == Type.ENTRY) {
+                val entry = subNode as Entry
+                mDatabase.startManageEntry(entry)
+
+                holder.text.text = entry.getVisualTitle()
+                holder.subText.apply {
+                    val username = entry.username
+                    if (showUserNames && username.isNotEmpty()) {
+                        visibility = View.VISIBLE
+                        text = username
+                        setTextSize(textSizeUnit, subtextDefaultDimension, prefSizeMultiplier)
+                    }
+                }
+
+                mDatabase.stopManageEntry(entry)
+            }
 
-        // Add number of entries in groups
-        if (subNode.type == Type.GROUP) {
-            if (showNumberEntries) {
-                holder.numberChildren?.apply {
-                    text = (subNode as Group)
-                            .getNumberOfChildEntries(*entryFilters)
-                            .toString()
-                    setTextSize(textSizeUnit, numberChildrenTextDefaultDimension, prefSizeMultiplier)
-                    visibility = View.VISIBLE
+            // Add number of entries in groups
+            if (subNode.type == Type.GROUP) {
+                if (showNumberEntries) {
+                    holder.numberChildren?.apply {
+                        text = (subNode as Group)
+                                .getNumberOfChildEntries(*entryFilters)
+                                .toString()
+                        setTextSize(textSizeUnit, numberChildrenTextDefaultDimension, prefSizeMultiplier)
+                        visibility = View.VISIBLE
+                    }
+                } else {
+                    holder.numberChildren?.visibility = View.GONE
                 }
-            } else {
-                holder.numberChildren?.visibility = View.GONE
             }
         }
 
@@ -381,5 +450,13 @@ class NodeAdapter (private val context: Context)
 
     companion object {
         private val TAG = NodeAdapter::class.java.name
+
+        private const val WINDOW_SIZE = 200
+        private const val WINDOW_PREFETCH_DISTANCE = 50
+
+        // Build the lists one after the other, out of the main thread
+        private val buildExecutor = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, TAG).apply { isDaemon = true }
+        }
     }
 }
@@ -22,6 +22,8 @@ package com.kunzisoft.keepass.adapters
 import android.content.Context
 import android.database.Cursor
 import android.graphics.Color
+import android.os.Handler
+import android.os.Looper
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
@@ -36,6 +38,7 @@ import com.kunzisoft.keepass.database.element.Group
 import com.kunzisoft.keepass.database.element.database.DatabaseKDB
 import com.kunzisoft.keepass.database.element.database.DatabaseKDBX
 import com.kunzisoft.keepass.database.search.SearchHelper
+import com.kunzisoft.keepass.database.search.SearchSession
 import com.kunzisoft.keepass.icons.assignDatabaseIcon
 import com.kunzisoft.keepass.settings.PreferencesUtil
 import com.kunzisoft.keepass.view.strikeOut
@@ -49,6 +52,10 @@ class SearchEntryCursorAdapter(private val context: Context,
     private var displayUsername: Boolean = false
     private val iconColor: Int
 
+    @Volatile
+    private var searchSession: SearchSession? = null
+    private val mainHandler = Handler(Looper.getMainLooper())
+
     init {
         // Get the icon color
         val taTextColor = context.theme.obtainStyledAttributes(intArrayOf(R.attr.textColorInverse))
@@ -116,11 +123,42 @@ class SearchEntryCursorAdapter(private val context: Context,
         }
     }
 
+    /**
+     * Cancel the search in progress if the [query] typed is different
+     */
+    fun updateQuery(query: String) {
+        searchSession?.updateQuery(query)
+    }
+
     override fun runQueryOnBackgroundThread(constraint: CharSequence): Cursor? {
         return searchEntries(context, constraint.toString())
     }
 
     private fun searchEntries(context: Context, query: String): Cursor? {
+        val session = searchSession ?: database.createSearchSession()?.also {
+            searchSession = it
+        } ?: return null
+
+        // Search in hide entries but not meta-stream
+        val childFilters = Group.ChildFilter.getDefaults(context)
+        val entries = session.search(query,
+                SearchHelper.MAX_SEARCH_ENTRY,
+                { entry -> Group.ChildFilter.isEntryAccepted(entry, childFilters) }
+        ) { firstEntries ->
+            // Show the first entries without waiting the end of the search
+            val firstCursor = createCursor(firstEntries)
+            mainHandler.post {
+                if (session.isLatestQuery(query))
+                    changeCursor(firstCursor)
+                else
+                    firstCursor?.close()
+            }
+        } ?: return null
+
+        return createCursor(entries)
+    }
+
+    private fun createCursor(entries: List<Entry>): Cursor? {
         var cursorKDB: EntryCursorKDB? = null
         var cursorKDBX: EntryCursorKDBX? = null
 
@@ -129,16 +167,12 @@ class SearchEntryCursorAdapter(private val context: Context,
         if (database.type == DatabaseKDBX.TYPE)
             cursorKDBX = EntryCursorKDBX()
 
-        val searchGroup = database.createVirtualGroupFromSearch(query, SearchHelper.MAX_SEARCH_ENTRY)
-        if (searchGroup != null) {
-            // Search in hide entries but not meta-stream
-            for (entry in searchGroup.getFilteredChildEntries(*Group.ChildFilter.getDefaults(context))) {
-                entry.entryKDB?.let {
-                    cursorKDB?.addEntry(it)
-                }
-                entry.entryKDBX?.let {
-                    cursorKDBX?.addEntry(it)
-                }
+        for (entry in entries) {
+            entry.entryKDB?.let {
+                cursorKDB?.addEntry(it)
+            }
+            entry.entryKDBX?.let {
+                cursorKDBX?.addEntry(it)
             }
         }
 
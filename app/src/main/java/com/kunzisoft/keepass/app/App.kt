@@ -27,13 +27,24 @@ class App : MultiDexApplication() {
 
     override fun onCreate() {
         super.onCreate()
+        StartupTrace.mark("Application creation")
 
-        Stylish.init(this)
-        PRNGFixes.apply()
+        StartupTrace.trace("Stylish initialization") {
+            Stylish.init(this)
+        }
+        // Must be applied before any use of SecureRandom, can't be deferred
+        StartupTrace.trace("PRNG fixes") {
+            PRNGFixes.apply()
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        Database.getInstance().drawFactory.onTrimMemory(level)
     }
 
     override fun onTerminate() {
-        Database.getInstance().closeAndClear(applicationContext.filesDir)
+        Database.getInstance().closeAndClearInBackground(applicationContext.filesDir)
         super.onTerminate()
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.app
+
+import android.app.Activity
+import android.os.Build
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import android.view.ViewTreeObserver
+import com.kunzisoft.keepass.BuildConfig
+
+/**
+ * Timing of the phases of a cold start, from the start of the process to the first frame of the first activity,
+ * each phase is logged with its duration and the first frame with the time elapsed since the start of the process.
+ * Nothing is measured nor logged in release builds.
+ */
+object StartupTrace {
+
+    private val TAG = StartupTrace::class.java.name
+
+    private val processStartTime: Long = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+        Process.getStartElapsedRealtime()
+    } else {
+        SystemClock.elapsedRealtime()
+    }
+
+    @Volatile
+    private var firstFrameReported = false
+
+    /**
+     * Do the [action] of the startup phase named [phase] and log its duration
+     */
+    fun <T> trace(phase: String, action: () -> T): T {
+        if (!BuildConfig.DEBUG)
+            return action.invoke()
+        val startTime = SystemClock.elapsedRealtime()
+        try {
+            return action.invoke()
+        } finally {
+            Log.d(TAG, phase + " in " + (SystemClock.elapsedRealtime() - startTime) + " ms")
+        }
+    }
+
+    /**
+     * Log the time elapsed since the start of the process when [event] happens
+     */
+    fun mark(event: String) {
+        if (!BuildConfig.DEBUG)
+            return
+        Log.d(TAG, event + " at " + (SystemClock.elapsedRealtime() - processStartTime) + " ms")
+    }
+
+    /**
+     * Log the time of the first frame drawn by [activity], only for the first activity of the process
+     */
+    fun reportFirstFrame(activity: Activity) {
+        if (!BuildConfig.DEBUG || firstFrameReported)
+            return
+        val decorView = activity.window.decorView
+        decorView.viewTreeObserver.addOnPreDrawListener(object : ViewTreeObserver.OnPreDrawListener {
+            override fun onPreDraw(): Boolean {
+                decorView.viewTreeObserver.removeOnPreDrawListener(this)
+                if (!firstFrameReported) {
+                    firstFrameReported = true
+                    mark("First frame of " + activity.javaClass.simpleName)
+                }
+                return true
+            }
+        })
+    }
+}
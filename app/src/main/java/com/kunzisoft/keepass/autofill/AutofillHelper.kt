@@ -34,8 +34,11 @@ import androidx.annotation.RequiresApi
 import androidx.core.content.ContextCompat
 import com.kunzisoft.keepass.R
 import com.kunzisoft.keepass.activities.helpers.EntrySelectionHelper
+import com.kunzisoft.keepass.database.action.node.NodeHandler
 import com.kunzisoft.keepass.database.element.Database
+import com.kunzisoft.keepass.database.element.Entry
 import com.kunzisoft.keepass.database.element.icon.IconImage
+import com.kunzisoft.keepass.database.element.icon.IconImageCustom
 import com.kunzisoft.keepass.database.search.SearchHelper
 import com.kunzisoft.keepass.icons.assignDatabaseIcon
 import com.kunzisoft.keepass.model.EntryInfo
@@ -209,6 +212,43 @@ object AutofillHelper {
         }
     }
 
+    /**
+     * Draw in background the icons of the entries of [database], to build the datasets without drawing.
+     * Only if the autofill service of the app is enabled, and only the icons kept by the cache,
+     * the standard icons then the custom icons of the entries accessed the most recently
+     */
+    fun preloadEntryIcons(context: Context, database: Database) {
+        val autofillManager = context.getSystemService(AutofillManager::class.java)
+        if (autofillManager == null || !autofillManager.hasEnabledAutofillServices())
+            return
+        val standardIcons = LinkedHashSet<IconImage>()
+        // Last access time of the entries of each custom icon
+        val customIconsAccess = HashMap<IconImage, Long>()
+        database.doWithReadLock {
+            database.rootGroup?.doForEachChild(
+                    object : NodeHandler<Entry>() {
+                        override fun operate(node: Entry): Boolean {
+                            val icon = node.icon
+                            if (icon is IconImageCustom) {
+                                val accessTime = node.lastAccessTime.date.time
+                                if (accessTime > (customIconsAccess[icon] ?: Long.MIN_VALUE))
+                                    customIconsAccess[icon] = accessTime
+                            } else {
+                                standardIcons.add(icon)
+                            }
+                            return true
+                        }
+                    },
+                    null)
+        }
+        val customIcons = customIconsAccess.entries
+                .sortedByDescending { it.value }
+                .map { it.key }
+        database.drawFactory.preloadRemoteViewsBitmaps(context,
+                (standardIcons + customIcons).take(database.drawFactory.getRemoteViewsBitmapCapacity(context)),
+                ContextCompat.getColor(context, R.color.green))
+    }
+
     private fun newRemoteViews(context: Context,
                                remoteViewsText: String,
                                remoteViewsIcon: IconImage? = null): RemoteViews {
@@ -20,24 +20,44 @@ package com.kunzisoft.keepass.autofill
 
 import android.app.assist.AssistStructure
 import android.os.Build
+import android.os.SystemClock
 import android.text.InputType
 import androidx.annotation.RequiresApi
 import android.util.Log
 import android.view.View
 import android.view.autofill.AutofillId
+import com.kunzisoft.keepass.BuildConfig
 import java.util.*
 
 
 /**
  * Parse AssistStructure and guess username and password fields.
+ *
+ * The position of the fields found is kept for each window, a next request of the same window
+ * only checks the nodes at these positions, and parses the whole structure if they changed.
  */
 @RequiresApi(api = Build.VERSION_CODES.O)
 internal class StructureParser(private val structure: AssistStructure) {
     private var result: Result? = null
     private var usernameCandidate: AutofillId? = null
 
+    // Child indexes from the window of the current node, and of the nodes found
+    private val currentPath = ArrayList<Int>()
+    private var domainPath: IntArray? = null
+    private var usernamePath: IntArray? = null
+    private var passwordPath: IntArray? = null
+    private var usernameCandidatePath: IntArray? = null
+
     fun parse(): Result? {
         try {
+            val startTime = SystemClock.elapsedRealtime()
+            val cachedResult = parseWithCachedMapping()
+            if (cachedResult != null) {
+                if (BuildConfig.DEBUG)
+                    Log.d(TAG, "Autofill structure retrieved from cache in " + (SystemClock.elapsedRealtime() - startTime) + " ms")
+                return cachedResult
+            }
+
             result = Result()
             result?.apply {
                 usernameCandidate = null
@@ -46,19 +66,26 @@ internal class StructureParser(private val structure: AssistStructure) {
                     applicationId = windowNode.title.toString().split("/")[0]
                     Log.d(TAG, "Autofill applicationId: $applicationId")
 
+                    currentPath.clear()
+                    currentPath.add(i)
                     if (parseViewNode(windowNode.rootViewNode))
                         break@mainLoop
                 }
                 // If not explicit username field found, add the field just before password field.
-                if (usernameId == null && passwordId != null && usernameCandidate != null)
+                if (usernameId == null && passwordId != null && usernameCandidate != null) {
                     usernameId = usernameCandidate
+                    usernamePath = usernameCandidatePath
+                }
             }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Autofill structure parsed in " + (SystemClock.elapsedRealtime() - startTime) + " ms")
 
             // Return the result only if password field is retrieved
             return if (result?.usernameId != null
-                    && result?.passwordId != null)
+                    && result?.passwordId != null) {
+                cacheMapping()
                 result
-            else
+            } else
                 null
         } catch (e: Exception) {
             return null
@@ -69,6 +96,7 @@ internal class StructureParser(private val structure: AssistStructure) {
         // Get the domain of a web app
         node.webDomain?.let {
             result?.domain = it
+            domainPath = currentPath.toIntArray()
             Log.d(TAG, "Autofill domain: $it")
         }
 
@@ -88,13 +116,96 @@ internal class StructureParser(private val structure: AssistStructure) {
             }
             // Recursive method to process each node
             for (i in 0 until node.childCount) {
-                if (parseViewNode(node.getChildAt(i)))
+                currentPath.add(i)
+                val found = parseViewNode(node.getChildAt(i))
+                currentPath.removeAt(currentPath.size - 1)
+                if (found)
                     return true
             }
         }
         return false
     }
 
+    private fun assignUsername(autofillId: AutofillId?) {
+        result?.usernameId = autofillId
+        usernamePath = currentPath.toIntArray()
+    }
+
+    private fun assignUsernameCandidate(autofillId: AutofillId?) {
+        usernameCandidate = autofillId
+        usernameCandidatePath = currentPath.toIntArray()
+    }
+
+    private fun assignPassword(autofillId: AutofillId?) {
+        result?.passwordId = autofillId
+        passwordPath = currentPath.toIntArray()
+    }
+
+    /**
+     * Keep the position of the fields found, with the signature of the nodes
+     */
+    private fun cacheMapping() {
+        if (structure.windowNodeCount == 0)
+            return
+        val windowTitle = structure.getWindowNodeAt(0).title.toString()
+        val usernamePosition = usernamePath ?: return
+        val passwordPosition = passwordPath ?: return
+        val usernameNode = nodeAt(usernamePosition) ?: return
+        val passwordNode = nodeAt(passwordPosition) ?: return
+        val mapping = FieldMapping(result?.applicationId,
+                result?.domain,
+                usernamePosition,
+                signatureOf(usernameNode),
+                passwordPosition,
+                signatureOf(passwordNode))
+        synchronized(mappings) {
+            domainPaths[windowTitle] = domainPath
+            mappings[mappingKey(windowTitle, mapping.domain)] = mapping
+        }
+    }
+
+    /**
+     * Retrieve the fields at the positions of the last mapping of the window and web domain,
+     * null if there is no mapping or if the nodes at these positions have changed
+     */
+    private fun parseWithCachedMapping(): Result? {
+        if (structure.windowNodeCount == 0)
+            return null
+        val windowTitle = structure.getWindowNodeAt(0).title.toString()
+        val mapping = synchronized(mappings) {
+            // The web domain shown in the window is read at the position of the last one found
+            val domain = domainPaths[windowTitle]?.let { nodeAt(it)?.webDomain }
+            mappings[mappingKey(windowTitle, domain)]
+        } ?: return null
+
+        val usernameNode = nodeAt(mapping.usernamePath) ?: return null
+        val passwordNode = nodeAt(mapping.passwordPath) ?: return null
+        if (usernameNode.visibility != View.VISIBLE
+                || passwordNode.visibility != View.VISIBLE
+                || signatureOf(usernameNode) != mapping.usernameSignature
+                || signatureOf(passwordNode) != mapping.passwordSignature)
+            return null
+
+        return Result().apply {
+            applicationId = mapping.applicationId
+            this.domain = mapping.domain
+            usernameId = usernameNode.autofillId
+            passwordId = passwordNode.autofillId
+        }.takeIf { it.usernameId != null && it.passwordId != null }
+    }
+
+    private fun nodeAt(path: IntArray): AssistStructure.ViewNode? {
+        if (path.isEmpty() || path[0] >= structure.windowNodeCount)
+            return null
+        var node = structure.getWindowNodeAt(path[0]).rootViewNode
+        for (index in 1 until path.size) {
+            if (path[index] >= node.childCount)
+                return null
+            node = node.getChildAt(path[index])
+        }
+        return node
+    }
+
     private fun parseNodeByAutofillHint(node: AssistStructure.ViewNode): Boolean {
         val autofillId = node.autofillId
         node.autofillHints?.forEach {
@@ -103,12 +214,12 @@ internal class StructureParser(private val structure: AssistStructure) {
                         || it.equals(View.AUTOFILL_HINT_EMAIL_ADDRESS, true)
                         || it.equals(View.AUTOFILL_HINT_PHONE, true)
                         || it.equals("usernameOrEmail", true)-> {
-                    result?.usernameId = autofillId
+                    assignUsername(autofillId)
                     Log.d(TAG, "Autofill username hint")
                 }
                 it.equals(View.AUTOFILL_HINT_PASSWORD, true)
                         || it.contains("password", true) -> {
-                    result?.passwordId = autofillId
+                    assignPassword(autofillId)
                     Log.d(TAG, "Autofill password hint")
                     return true
                 }
@@ -135,15 +246,15 @@ internal class StructureParser(private val structure: AssistStructure) {
                         "type" -> {
                             when (pairAttribute.second.toLowerCase(Locale.ENGLISH)) {
                                 "tel", "email" -> {
-                                    result?.usernameId = autofillId
+                                    assignUsername(autofillId)
                                     Log.d(TAG, "Autofill username web type: ${node.htmlInfo?.tag} ${node.htmlInfo?.attributes}")
                                 }
                                 "text" -> {
-                                    usernameCandidate = autofillId
+                                    assignUsernameCandidate(autofillId)
                                     Log.d(TAG, "Autofill username candidate web type: ${node.htmlInfo?.tag} ${node.htmlInfo?.attributes}")
                                 }
                                 "password" -> {
-                                    result?.passwordId = autofillId
+                                    assignPassword(autofillId)
                                     Log.d(TAG, "Autofill password web type: ${node.htmlInfo?.tag} ${node.htmlInfo?.attributes}")
                                     return true
                                 }
@@ -162,19 +273,19 @@ internal class StructureParser(private val structure: AssistStructure) {
         if (inputType and InputType.TYPE_CLASS_TEXT != 0) {
             when {
                 inputType and InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS != 0 -> {
-                    result?.usernameId = autofillId
+                    assignUsername(autofillId)
                     Log.d(TAG, "Autofill username android type: $inputType")
                 }
                 inputType and InputType.TYPE_TEXT_VARIATION_NORMAL != 0 ||
                         inputType and InputType.TYPE_NUMBER_VARIATION_NORMAL != 0 ||
                         inputType and InputType.TYPE_TEXT_VARIATION_PERSON_NAME != 0 -> {
-                    usernameCandidate = autofillId
+                    assignUsernameCandidate(autofillId)
                     Log.d(TAG, "Autofill username candidate android type: $inputType")
                 }
                 inputType and InputType.TYPE_TEXT_VARIATION_PASSWORD != 0 ||
                         inputType and InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD != 0 ||
                         inputType and InputType.TYPE_NUMBER_VARIATION_PASSWORD != 0 -> {
-                    result?.passwordId = autofillId
+                    assignPassword(autofillId)
                     Log.d(TAG, "Autofill password android type: $inputType")
                     return true
                 }
@@ -191,7 +302,7 @@ internal class StructureParser(private val structure: AssistStructure) {
                 }
                 else -> {
                     Log.d(TAG, "Autofill unknown android type: $inputType")
-                    usernameCandidate = autofillId
+                    assignUsernameCandidate(autofillId)
                 }
             }
         }
@@ -231,7 +342,50 @@ internal class StructureParser(private val structure: AssistStructure) {
         }
     }
 
+    /**
+     * Position and signature of the fields found in a window
+     */
+    private class FieldMapping(val applicationId: String?,
+                               val domain: String?,
+                               val usernamePath: IntArray,
+                               val usernameSignature: Int,
+                               val passwordPath: IntArray,
+                               val passwordSignature: Int)
+
     companion object {
         private val TAG = StructureParser::class.java.name
+
+        private const val MAX_MAPPINGS = 32
+
+        // Last mapping of each window and web domain, by window title "package/activity" and domain
+        private val mappings = object : LinkedHashMap<String, FieldMapping>(MAX_MAPPINGS, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, FieldMapping>?): Boolean {
+                return size > MAX_MAPPINGS
+            }
+        }
+
+        // Position of the last web domain found in each window, guarded by mappings
+        private val domainPaths = object : LinkedHashMap<String, IntArray?>(MAX_MAPPINGS, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, IntArray?>?): Boolean {
+                return size > MAX_MAPPINGS
+            }
+        }
+
+        private fun mappingKey(windowTitle: String, domain: String?): String {
+            return if (domain == null) windowTitle else "$windowTitle $domain"
+        }
+
+        /**
+         * Signature of the attributes used to guess the type of a field
+         */
+        private fun signatureOf(node: AssistStructure.ViewNode): Int {
+            return Objects.hash(node.className,
+                    node.idEntry,
+                    node.autofillType,
+                    node.inputType,
+                    node.autofillHints?.contentHashCode(),
+                    node.htmlInfo?.tag,
+                    node.htmlInfo?.attributes?.map { it.first + "=" + it.second })
+        }
     }
 }
@@ -19,7 +19,14 @@
  */
 package com.kunzisoft.keepass.crypto
 
+import android.util.Log
+import com.kunzisoft.keepass.BuildConfig
+
 object NativeLib {
+
+    private val TAG = NativeLib::class.java.name
+
+    @Volatile
     private var isLoaded = false
     private var loadSuccess = false
 
@@ -27,14 +34,18 @@ object NativeLib {
         return init()
     }
 
+    @Synchronized
     fun init(): Boolean {
         if (!isLoaded) {
+            val startTime = System.currentTimeMillis()
             try {
                 System.loadLibrary("final-key")
                 System.loadLibrary("argon2")
             } catch (e: UnsatisfiedLinkError) {
                 return false
             }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Native libraries loaded in " + (System.currentTimeMillis() - startTime) + " ms")
 
             isLoaded = true
             loadSuccess = true
@@ -43,4 +54,13 @@ object NativeLib {
         return loadSuccess
     }
 
+    /**
+     * Load the native libraries in a background thread, to not wait for them when the database is opened
+     */
+    fun preloadInBackground() {
+        if (!isLoaded) {
+            Thread({ init() }, TAG).start()
+        }
+    }
+
 }
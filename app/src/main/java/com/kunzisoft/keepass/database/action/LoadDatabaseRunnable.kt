@@ -21,9 +21,11 @@ package com.kunzisoft.keepass.database.action
 
 import android.content.Context
 import android.net.Uri
+import android.os.Build
 import com.kunzisoft.keepass.app.database.CipherDatabaseAction
 import com.kunzisoft.keepass.app.database.CipherDatabaseEntity
 import com.kunzisoft.keepass.app.database.FileDatabaseHistoryAction
+import com.kunzisoft.keepass.autofill.AutofillHelper
 import com.kunzisoft.keepass.database.element.Database
 import com.kunzisoft.keepass.database.exception.DuplicateUuidDatabaseException
 import com.kunzisoft.keepass.database.exception.LoadDatabaseException
@@ -91,6 +93,11 @@ class LoadDatabaseRunnable(private val context: Context,
 
             // Start the opening notification
             DatabaseOpenNotificationService.start(context)
+
+            // Prepare the icons of the autofill datasets
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                AutofillHelper.preloadEntryIcons(context, mDatabase)
+            }
         } else {
             mDatabase.closeAndClear(cacheDirectory)
         }
@@ -226,7 +226,7 @@ class ProgressDialogThread(private val activity: FragmentActivity) {
 
     @Synchronized
     private fun start(bundle: Bundle? = null, actionTask: String) {
-        activity.stopService(intentDatabaseTask)
+        // The service queues the action if another one is running
         if (bundle != null)
             intentDatabaseTask.putExtras(bundle)
         activity.runOnUiThread {
@@ -299,11 +299,12 @@ class ProgressDialogThread(private val activity: FragmentActivity) {
       ----
     */
 
+    // The nodes are copied in the drafts, the caller can continue to modify its instances
     fun startDatabaseCreateGroup(newGroup: Group,
                                  parent: Group,
                                  save: Boolean) {
         start(Bundle().apply {
-            putParcelable(DatabaseTaskNotificationService.GROUP_KEY, newGroup)
+            putParcelable(DatabaseTaskNotificationService.GROUP_KEY, Database.getInstance().registerDraft(Group(newGroup)))
             putParcelable(DatabaseTaskNotificationService.PARENT_ID_KEY, parent.nodeId)
             putBoolean(DatabaseTaskNotificationService.SAVE_DATABASE_KEY, save)
         }
@@ -315,7 +316,7 @@ class ProgressDialogThread(private val activity: FragmentActivity) {
                                  save: Boolean) {
         start(Bundle().apply {
             putParcelable(DatabaseTaskNotificationService.GROUP_ID_KEY, oldGroup.nodeId)
-            putParcelable(DatabaseTaskNotificationService.GROUP_KEY, groupToUpdate)
+            putParcelable(DatabaseTaskNotificationService.GROUP_KEY, Database.getInstance().registerDraft(Group(groupToUpdate)))
             putBoolean(DatabaseTaskNotificationService.SAVE_DATABASE_KEY, save)
         }
                 , ACTION_DATABASE_UPDATE_GROUP_TASK)
@@ -325,7 +326,7 @@ class ProgressDialogThread(private val activity: FragmentActivity) {
                                  parent: Group,
                                  save: Boolean) {
         start(Bundle().apply {
-            putParcelable(DatabaseTaskNotificationService.ENTRY_KEY, newEntry)
+            putParcelable(DatabaseTaskNotificationService.ENTRY_KEY, Database.getInstance().registerDraft(Entry(newEntry)))
             putParcelable(DatabaseTaskNotificationService.PARENT_ID_KEY, parent.nodeId)
             putBoolean(DatabaseTaskNotificationService.SAVE_DATABASE_KEY, save)
         }
@@ -337,7 +338,7 @@ class ProgressDialogThread(private val activity: FragmentActivity) {
                                  save: Boolean) {
         start(Bundle().apply {
             putParcelable(DatabaseTaskNotificationService.ENTRY_ID_KEY, oldEntry.nodeId)
-            putParcelable(DatabaseTaskNotificationService.ENTRY_KEY, entryToUpdate)
+            putParcelable(DatabaseTaskNotificationService.ENTRY_KEY, Database.getInstance().registerDraft(Entry(entryToUpdate)))
             putBoolean(DatabaseTaskNotificationService.SAVE_DATABASE_KEY, save)
         }
                 , ACTION_DATABASE_UPDATE_ENTRY_TASK)
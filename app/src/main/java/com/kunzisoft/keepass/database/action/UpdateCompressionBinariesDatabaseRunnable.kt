@@ -35,10 +35,7 @@ class UpdateCompressionBinariesDatabaseRunnable (
         // Set new compression
         if (database.allowDataCompression) {
             try {
-                database.apply {
-                    updateDataBinaryCompression(oldCompressionAlgorithm, newCompressionAlgorithm)
-                    compressionAlgorithm = newCompressionAlgorithm
-                }
+                database.updateDataBinaryCompression(oldCompressionAlgorithm, newCompressionAlgorithm)
             } catch (e: Exception) {
                 setError(e)
             }
@@ -53,10 +50,7 @@ class UpdateCompressionBinariesDatabaseRunnable (
         if (database.allowDataCompression) {
             if (!result.isSuccess) {
                 try {
-                    database.apply {
-                        compressionAlgorithm = oldCompressionAlgorithm
-                        updateDataBinaryCompression(newCompressionAlgorithm, oldCompressionAlgorithm)
-                    }
+                    database.updateDataBinaryCompression(newCompressionAlgorithm, oldCompressionAlgorithm)
                 } catch (e: Exception) {
                     setError(e)
                 }
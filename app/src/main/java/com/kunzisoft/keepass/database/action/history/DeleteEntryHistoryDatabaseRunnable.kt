@@ -34,7 +34,9 @@ class DeleteEntryHistoryDatabaseRunnable (
 
     override fun onStartRun() {
         try {
-            mainEntry.removeEntryFromHistory(entryHistoryPosition)
+            database.doWithWriteLock {
+                database.removeEntryFromHistory(mainEntry, entryHistoryPosition)
+            }
         } catch (e: Exception) {
             setError(e)
         }
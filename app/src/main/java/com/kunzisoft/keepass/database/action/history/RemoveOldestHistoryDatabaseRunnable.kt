@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *     
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.action.history
+
+import android.content.Context
+import com.kunzisoft.keepass.database.action.SaveDatabaseRunnable
+import com.kunzisoft.keepass.database.element.Database
+
+/**
+ * Remove the history items over the maximum of the database in the thread of the service,
+ * the exclusive lock can wait for the end of a save
+ */
+class RemoveOldestHistoryDatabaseRunnable (
+        context: Context,
+        database: Database,
+        saveDatabase: Boolean)
+    : SaveDatabaseRunnable(context, database, saveDatabase) {
+
+    override fun onStartRun() {
+        try {
+            database.removeOldestHistoryForEachEntry()
+        } catch (e: Exception) {
+            setError(e)
+        }
+
+        super.onStartRun()
+    }
+}
@@ -36,7 +36,10 @@ abstract class ActionNodeDatabaseRunnable(
     abstract fun nodeAction()
 
     override fun onStartRun() {
-        nodeAction()
+        // The save after the action only needs the shared lock
+        database.doWithWriteLock {
+            nodeAction()
+        }
         super.onStartRun()
     }
 
@@ -47,8 +50,11 @@ abstract class ActionNodeDatabaseRunnable(
 
     override fun onFinishRun() {
         super.onFinishRun()
+        val actionNodesValues = database.doWithWriteLock {
+            nodeFinish()
+        }
         afterActionNodesFinish?.apply {
-            onActionNodesFinish(result, nodeFinish())
+            onActionNodesFinish(result, actionNodesValues)
         }
     }
 }
@@ -45,7 +45,7 @@ class UpdateEntryRunnable constructor(
         mNewEntry.touch(modified = true, touchParents = true)
 
         // Create an entry history (an entry history don't have history)
-        mOldEntry.addEntryToHistory(Entry(mBackupEntryHistory, copyHistory = false))
+        database.addEntryToHistory(mOldEntry, Entry(mBackupEntryHistory, copyHistory = false))
         database.removeOldestEntryHistory(mOldEntry)
 
         // Only change data in index
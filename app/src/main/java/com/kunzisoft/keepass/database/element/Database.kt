@@ -28,10 +28,15 @@ import com.kunzisoft.keepass.database.action.node.NodeHandler
 import com.kunzisoft.keepass.database.element.database.CompressionAlgorithm
 import com.kunzisoft.keepass.database.element.database.DatabaseKDB
 import com.kunzisoft.keepass.database.element.database.DatabaseKDBX
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
 import com.kunzisoft.keepass.database.element.icon.IconImageFactory
+import com.kunzisoft.keepass.database.element.node.Node
+import com.kunzisoft.keepass.database.element.node.NodeDraftRegistry
+import com.kunzisoft.keepass.database.element.node.NodeHandle
 import com.kunzisoft.keepass.database.element.node.NodeId
 import com.kunzisoft.keepass.database.element.node.NodeIdInt
 import com.kunzisoft.keepass.database.element.node.NodeIdUUID
+import com.kunzisoft.keepass.database.element.node.Type
 import com.kunzisoft.keepass.database.element.security.EncryptionAlgorithm
 import com.kunzisoft.keepass.database.exception.DatabaseOutputException
 import com.kunzisoft.keepass.database.exception.FileNotFoundDatabaseException
@@ -41,11 +46,17 @@ import com.kunzisoft.keepass.database.file.DatabaseHeaderKDB
 import com.kunzisoft.keepass.database.file.DatabaseHeaderKDBX
 import com.kunzisoft.keepass.database.file.input.DatabaseInputKDB
 import com.kunzisoft.keepass.database.file.input.DatabaseInputKDBX
+import com.kunzisoft.keepass.database.file.output.DatabaseOutputCacheKDBX
 import com.kunzisoft.keepass.database.file.output.DatabaseOutputKDB
 import com.kunzisoft.keepass.database.file.output.DatabaseOutputKDBX
+import com.kunzisoft.keepass.database.search.AutofillSearchIndex
+import com.kunzisoft.keepass.database.search.EntrySearchIndex
 import com.kunzisoft.keepass.database.search.SearchHelper
+import com.kunzisoft.keepass.database.search.SearchSession
 import com.kunzisoft.keepass.icons.IconDrawableFactory
 import com.kunzisoft.keepass.model.SearchInfo
+import com.kunzisoft.keepass.otp.OtpEngine
+import com.kunzisoft.keepass.stream.NullOutputStream
 import com.kunzisoft.keepass.stream.readBytes4ToInt
 import com.kunzisoft.keepass.tasks.ProgressTaskUpdater
 import com.kunzisoft.keepass.utils.SingletonHolder
@@ -53,10 +64,28 @@ import com.kunzisoft.keepass.utils.UriUtil
 import org.apache.commons.io.FileUtils
 import java.io.*
 import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
 
 
+/**
+ * Database shared by the activities, the services and the actions.
+ *
+ * Nodes are read with the shared lock of [doWithReadLock] and modified with the exclusive lock
+ * of [doWithWriteLock]. A save only reads the nodes, the lists and the autofill keep
+ * reading the database during the save, the modifications wait for its end.
+ * The main thread also takes the shared lock to bind the nodes and to build the entry info,
+ * the actions modify the nodes in the thread of the database service.
+ */
 class Database {
 
+    private val mLock = ReentrantReadWriteLock()
+    // To write a single file at a time
+    private val mSaveLock = Any()
+
     // To keep a reference for specific methods provided by version
     private var mDatabaseKDB: DatabaseKDB? = null
     private var mDatabaseKDBX: DatabaseKDBX? = null
@@ -66,10 +95,26 @@ class Database {
 
     private var mSearchHelper: SearchHelper? = null
 
+    // To serialize again only the nodes modified since the last save
+    private val mOutputCacheKDBX = DatabaseOutputCacheKDBX()
+
+    // Single wrapper by node, to not allocate wrappers each time the tree is browsed
+    val nodeWrapperCache = NodeWrapperCache()
+    val sortKeyCache = NodeSortKeyCache()
+
+    val searchIndex = EntrySearchIndex()
+    val autofillIndex = AutofillSearchIndex()
+
+    // Notified of each change of the nodes and of the metadata, the caches and indexes first
+    private val mChangeListeners = CopyOnWriteArrayList<DatabaseChangeListener>(
+            listOf(nodeWrapperCache, sortKeyCache, searchIndex, autofillIndex))
+
     var isReadOnly = false
 
-    val drawFactory = IconDrawableFactory()
+    // Created at the first drawing of an icon, not at startup
+    val drawFactory by lazy { IconDrawableFactory() }
 
+    @Volatile
     var loaded = false
 
     val iconFactory: IconImageFactory
@@ -87,6 +132,7 @@ class Database {
         set(name) {
             mDatabaseKDBX?.name = name
             mDatabaseKDBX?.nameChanged = DateInstant()
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     val allowDescription: Boolean
@@ -99,6 +145,7 @@ class Database {
         set(description) {
             mDatabaseKDBX?.description = description
             mDatabaseKDBX?.descriptionChanged = DateInstant()
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     val allowDefaultUsername: Boolean
@@ -112,6 +159,7 @@ class Database {
         set(username) {
             mDatabaseKDBX?.defaultUserName = username
             mDatabaseKDBX?.defaultUserNameChanged = DateInstant()
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     val allowCustomColor: Boolean
@@ -126,6 +174,7 @@ class Database {
         set(value) {
             // TODO Check color string
             mDatabaseKDBX?.color = value
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     val allowOTP: Boolean
@@ -148,12 +197,26 @@ class Database {
         set(value) {
             value?.let {
                 mDatabaseKDBX?.compressionAlgorithm = it
+                notifyChange(DatabaseChange.MetadataChanged)
             }
         }
 
+    /**
+     * Change the compression of the binaries and of the database. The binaries are recompressed
+     * with the shared lock, the lists and a save keep reading the database meanwhile,
+     * the exclusive lock is only taken to replace the files.
+     */
     fun updateDataBinaryCompression(oldCompression: CompressionAlgorithm,
                                     newCompression: CompressionAlgorithm) {
-        mDatabaseKDBX?.changeBinaryCompression(oldCompression, newCompression)
+        val preparedFiles = mLock.read {
+            mDatabaseKDBX?.prepareBinaryCompression(oldCompression, newCompression)
+        }
+        mLock.write {
+            preparedFiles?.let {
+                mDatabaseKDBX?.applyBinaryCompression(it, newCompression)
+            }
+            compressionAlgorithm = newCompression
+        }
     }
 
     val allowNoMasterKey: Boolean
@@ -178,6 +241,7 @@ class Database {
                 mDatabaseKDBX?.encryptionAlgorithm = algorithm
                 mDatabaseKDBX?.setDataEngine(algorithm.cipherEngine)
                 mDatabaseKDBX?.dataCipher = algorithm.dataCipher
+                notifyChange(DatabaseChange.MetadataChanged)
             }
         }
 
@@ -209,6 +273,7 @@ class Database {
         set(numberRounds) {
             mDatabaseKDB?.numberKeyEncryptionRounds = numberRounds
             mDatabaseKDBX?.numberKeyEncryptionRounds = numberRounds
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     var memoryUsage: Long
@@ -217,12 +282,14 @@ class Database {
         }
         set(memory) {
             mDatabaseKDBX?.memoryUsage = memory
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     var parallelism: Int
         get() = mDatabaseKDBX?.parallelism ?: KdfEngine.UNKNOWN_VALUE
         set(parallelism) {
             mDatabaseKDBX?.parallelism = parallelism
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     var masterKey: ByteArray
@@ -235,10 +302,10 @@ class Database {
     val rootGroup: Group?
         get() {
             mDatabaseKDB?.rootGroup?.let {
-                return Group(it)
+                return nodeWrapperCache.getGroup(it)
             }
             mDatabaseKDBX?.rootGroup?.let {
-                return Group(it)
+                return nodeWrapperCache.getGroup(it)
             }
             return null
         }
@@ -252,6 +319,7 @@ class Database {
         }
         set(value) {
             mDatabaseKDBX?.historyMaxItems = value
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     var historyMaxSize: Long
@@ -260,6 +328,7 @@ class Database {
         }
         set(value) {
             mDatabaseKDBX?.historyMaxSize = value
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     /**
@@ -274,42 +343,101 @@ class Database {
         get() = mDatabaseKDB != null || mDatabaseKDBX?.isRecycleBinEnabled ?: false
         set(value) {
             mDatabaseKDBX?.isRecycleBinEnabled = value
+            notifyChange(DatabaseChange.MetadataChanged)
         }
 
     val recycleBin: Group?
         get() {
             mDatabaseKDB?.backupGroup?.let {
-                return Group(it)
+                return nodeWrapperCache.getGroup(it)
             }
             mDatabaseKDBX?.recycleBin?.let {
-                return Group(it)
+                return nodeWrapperCache.getGroup(it)
             }
             return null
         }
 
     fun ensureRecycleBinExists(resources: Resources) {
+        val recycleBinExisted = recycleBin != null
         mDatabaseKDB?.ensureRecycleBinExists()
         mDatabaseKDBX?.ensureRecycleBinExists(resources)
+        notifyRecycleBinAdded(recycleBinExisted)
     }
 
     fun removeRecycleBin() {
         // TODO #394 delete backup mDatabaseKDB?.removeRecycleBin()
         mDatabaseKDBX?.removeRecycleBin()
+        notifyChange(DatabaseChange.MetadataChanged)
+    }
+
+    private fun notifyRecycleBinAdded(recycleBinExisted: Boolean) {
+        if (!recycleBinExisted) {
+            recycleBin?.let { recycleBinGroup ->
+                recycleBinGroup.parent?.let { parent ->
+                    notifyChange(DatabaseChange.NodeAdded(recycleBinGroup, parent))
+                }
+                notifyChange(DatabaseChange.MetadataChanged)
+            }
+        }
+    }
+
+    fun addChangeListener(listener: DatabaseChangeListener) {
+        mChangeListeners.addIfAbsent(listener)
+    }
+
+    fun removeChangeListener(listener: DatabaseChangeListener) {
+        mChangeListeners.remove(listener)
+    }
+
+    private fun notifyChange(change: DatabaseChange) {
+        for (listener in mChangeListeners) {
+            listener.onDatabaseChanged(change)
+        }
+    }
+
+    /**
+     * Run [action] with the shared lock, the nodes can't be modified during the action
+     */
+    fun <T> doWithReadLock(action: () -> T): T {
+        return mLock.read(action)
+    }
+
+    /**
+     * Run [action] with the exclusive lock, to modify the nodes
+     */
+    fun <T> doWithWriteLock(action: () -> T): T {
+        return mLock.write(action)
     }
 
     private fun setDatabaseKDB(databaseKDB: DatabaseKDB) {
-        this.mDatabaseKDB = databaseKDB
-        this.mDatabaseKDBX = null
+        mLock.write {
+            this.mDatabaseKDB = databaseKDB
+            this.mDatabaseKDBX = null
+            this.mOutputCacheKDBX.clear()
+            this.nodeWrapperCache.clear()
+            this.sortKeyCache.clear()
+            this.searchIndex.clear()
+            this.autofillIndex.clear()
+        }
     }
 
     private fun setDatabaseKDBX(databaseKDBX: DatabaseKDBX) {
-        this.mDatabaseKDB = null
-        this.mDatabaseKDBX = databaseKDBX
+        mLock.write {
+            this.mDatabaseKDB = null
+            this.mDatabaseKDBX = databaseKDBX
+            this.mOutputCacheKDBX.clear()
+            this.nodeWrapperCache.clear()
+            this.sortKeyCache.clear()
+            this.searchIndex.clear()
+            this.autofillIndex.clear()
+        }
     }
 
     fun createData(databaseUri: Uri, databaseName: String, rootName: String) {
         setDatabaseKDBX(DatabaseKDBX(databaseName, rootName))
         this.fileUri = databaseUri
+        this.searchIndex.buildInBackground(rootGroup)
+        this.autofillIndex.buildInBackground(rootGroup)
     }
 
     @Throws(LoadDatabaseException::class)
@@ -377,6 +505,8 @@ class Database {
             }
 
             this.mSearchHelper = SearchHelper(omitBackup)
+            this.searchIndex.buildInBackground(rootGroup)
+            this.autofillIndex.buildInBackground(rootGroup)
             loaded = true
 
         } catch (e: LoadDatabaseException) {
@@ -398,33 +528,52 @@ class Database {
     }
 
     fun createVirtualGroupFromSearch(searchQuery: String, max: Int = Integer.MAX_VALUE): Group? {
-        return mSearchHelper?.createVirtualGroupWithSearchResult(this, searchQuery, max)
+        return mLock.read {
+            mSearchHelper?.createVirtualGroupWithSearchResult(this, searchQuery, max)
+        }
     }
 
     fun createVirtualGroupFromSearch(searchInfo: SearchInfo, max: Int = Integer.MAX_VALUE): Group? {
-        val query = (if (searchInfo.webDomain != null)
-            searchInfo.webDomain
-        else
-            searchInfo.applicationId)
-                ?: return null
-        return mSearchHelper?.createVirtualGroupWithSearchResult(this, query, max)
+        return mLock.read {
+            mSearchHelper?.createVirtualGroupWithSearchInfo(this, searchInfo, max)
+        }
+    }
+
+    fun createSearchSession(): SearchSession? {
+        return mSearchHelper?.let { SearchSession(this, it) }
     }
 
     @Throws(DatabaseOutputException::class)
     fun saveData(contentResolver: ContentResolver) {
-        try {
-            this.fileUri?.let {
-                saveData(contentResolver, it)
+        // Nodes are not modified during the output, but can be read
+        mLock.read {
+            synchronized(mSaveLock) {
+                try {
+                    this.fileUri?.let {
+                        saveData(contentResolver, it)
+                    }
+                } catch (e: Exception) {
+                    Log.e(TAG, "Unable to save database", e)
+                    // The file may not match the cache
+                    mOutputCacheKDBX.clear()
+                    throw DatabaseOutputException(e)
+                }
             }
-        } catch (e: Exception) {
-            Log.e(TAG, "Unable to save database", e)
-            throw DatabaseOutputException(e)
         }
     }
 
     @Throws(IOException::class, DatabaseOutputException::class)
     private fun saveData(contentResolver: ContentResolver, uri: Uri) {
 
+        // Nothing changed since the last save, the file is already up to date
+        if (uri == this.fileUri
+                && mDatabaseKDBX?.let {
+                    !DatabaseOutputKDBX(it, NullOutputStream(), mOutputCacheKDBX).isModifiedSinceLastOutput()
+                } == true) {
+            Log.i(TAG, "No modification since the last save")
+            return
+        }
+
         if (uri.scheme == "file") {
             uri.path?.let { filename ->
                 val tempFile = File("$filename.tmp")
@@ -433,7 +582,7 @@ class Database {
                 try {
                     fileOutputStream = FileOutputStream(tempFile)
                     val pmo = mDatabaseKDB?.let { DatabaseOutputKDB(it, fileOutputStream) }
-                            ?: mDatabaseKDBX?.let { DatabaseOutputKDBX(it, fileOutputStream) }
+                            ?: mDatabaseKDBX?.let { DatabaseOutputKDBX(it, fileOutputStream, mOutputCacheKDBX) }
                     pmo?.output()
                 } catch (e: Exception) {
                     throw IOException(e)
@@ -458,7 +607,7 @@ class Database {
                 outputStream = contentResolver.openOutputStream(uri)
                 outputStream?.let { definedOutputStream ->
                     val databaseOutput = mDatabaseKDB?.let { DatabaseOutputKDB(it, definedOutputStream) }
-                                    ?: mDatabaseKDBX?.let { DatabaseOutputKDBX(it, definedOutputStream) }
+                                    ?: mDatabaseKDBX?.let { DatabaseOutputKDBX(it, definedOutputStream, mOutputCacheKDBX) }
                     databaseOutput?.output()
                 }
             } catch (e: Exception) {
@@ -470,8 +619,40 @@ class Database {
         this.fileUri = uri
     }
 
+    /**
+     * Close the database and delete its files, with the exclusive lock to wait for the end of
+     * a save which still reads the binaries
+     */
     fun closeAndClear(filesDirectory: File? = null) {
+        mLock.write {
+            clear(filesDirectory)
+        }
+    }
+
+    /**
+     * Close the database in a background thread, to not wait for the end of a save in the main thread.
+     * The database is shown as not loaded immediately, its teardown is ignored if another database
+     * is loaded meanwhile.
+     */
+    fun closeAndClearInBackground(filesDirectory: File? = null) {
+        val databaseKDB = mDatabaseKDB
+        val databaseKDBX = mDatabaseKDBX
+        if (databaseKDB == null && databaseKDBX == null)
+            return
+        loaded = false
+        closeExecutor.execute {
+            mLock.write {
+                if (mDatabaseKDB === databaseKDB && mDatabaseKDBX === databaseKDBX) {
+                    clear(filesDirectory)
+                }
+            }
+        }
+    }
+
+    private fun clear(filesDirectory: File?) {
         drawFactory.clearCache()
+        // Don't keep the OTP secrets of the closed database
+        OtpEngine.clearCache()
         // Delete the cache of the database if present
         mDatabaseKDB?.clearCache()
         mDatabaseKDBX?.clearCache()
@@ -484,6 +665,11 @@ class Database {
 
         this.mDatabaseKDB = null
         this.mDatabaseKDBX = null
+        this.mOutputCacheKDBX.clear()
+        this.nodeWrapperCache.clear()
+        this.sortKeyCache.clear()
+        this.searchIndex.clear()
+        this.autofillIndex.clear()
         this.fileUri = null
         this.loaded = false
     }
@@ -536,10 +722,10 @@ class Database {
 
     fun getEntryById(id: NodeId<UUID>): Entry? {
         mDatabaseKDB?.getEntryById(id)?.let {
-            return Entry(it)
+            return nodeWrapperCache.getEntry(it)
         }
         mDatabaseKDBX?.getEntryById(id)?.let {
-            return Entry(it)
+            return nodeWrapperCache.getEntry(it)
         }
         return null
     }
@@ -547,23 +733,48 @@ class Database {
     fun getGroupById(id: NodeId<*>): Group? {
         if (id is NodeIdInt)
             mDatabaseKDB?.getGroupById(id)?.let {
-                return Group(it)
+                return nodeWrapperCache.getGroup(it)
             }
         else if (id is NodeIdUUID)
             mDatabaseKDBX?.getGroupById(id)?.let {
-                return Group(it)
+                return nodeWrapperCache.getGroup(it)
             }
         return null
     }
 
+    /**
+     * Handle of a node of this database
+     */
+    fun getHandle(node: Node): NodeHandle {
+        return NodeHandle(fileUri, node)
+    }
+
+    /**
+     * Handle of a node not in this database, retrieved from the registry of the drafts
+     */
+    fun registerDraft(node: Node): NodeHandle {
+        return NodeDraftRegistry.register(fileUri, node)
+    }
+
+    fun getEntryByHandle(handle: NodeHandle): Entry? {
+        if (handle.isDraft)
+            return NodeDraftRegistry.getEntry(handle)
+        if (handle.type != Type.ENTRY || handle.databaseUri != fileUri)
+            return null
+        return (handle.nodeId as? NodeIdUUID)?.let { getEntryById(it) }
+    }
+
+    fun getGroupByHandle(handle: NodeHandle): Group? {
+        if (handle.isDraft)
+            return NodeDraftRegistry.getGroup(handle)
+        if (handle.type != Type.GROUP || handle.databaseUri != fileUri)
+            return null
+        return handle.nodeId?.let { getGroupById(it) }
+    }
+
     fun addEntryTo(entry: Entry, parent: Group) {
-        entry.entryKDB?.let { entryKDB ->
-            mDatabaseKDB?.addEntryTo(entryKDB, parent.groupKDB)
-        }
-        entry.entryKDBX?.let { entryKDBX ->
-            mDatabaseKDBX?.addEntryTo(entryKDBX, parent.groupKDBX)
-        }
-        entry.afterAssignNewParent()
+        attachEntry(entry, parent)
+        notifyChange(DatabaseChange.NodeAdded(entry, parent))
     }
 
     fun updateEntry(entry: Entry) {
@@ -573,9 +784,45 @@ class Database {
         entry.entryKDBX?.let { entryKDBX ->
             mDatabaseKDBX?.updateEntry(entryKDBX)
         }
+        notifyChange(DatabaseChange.NodeUpdated(entry))
     }
 
     fun removeEntryFrom(entry: Entry, parent: Group) {
+        detachEntry(entry, parent)
+        notifyChange(DatabaseChange.NodeDeleted(entry, parent))
+    }
+
+    fun addGroupTo(group: Group, parent: Group) {
+        attachGroup(group, parent)
+        notifyChange(DatabaseChange.NodeAdded(group, parent))
+    }
+
+    fun updateGroup(group: Group) {
+        group.groupKDB?.let { entryKDB ->
+            mDatabaseKDB?.updateGroup(entryKDB)
+        }
+        group.groupKDBX?.let { entryKDBX ->
+            mDatabaseKDBX?.updateGroup(entryKDBX)
+        }
+        notifyChange(DatabaseChange.NodeUpdated(group))
+    }
+
+    fun removeGroupFrom(group: Group, parent: Group) {
+        detachGroup(group, parent)
+        notifyChange(DatabaseChange.NodeDeleted(group, parent))
+    }
+
+    private fun attachEntry(entry: Entry, parent: Group) {
+        entry.entryKDB?.let { entryKDB ->
+            mDatabaseKDB?.addEntryTo(entryKDB, parent.groupKDB)
+        }
+        entry.entryKDBX?.let { entryKDBX ->
+            mDatabaseKDBX?.addEntryTo(entryKDBX, parent.groupKDBX)
+        }
+        entry.afterAssignNewParent()
+    }
+
+    private fun detachEntry(entry: Entry, parent: Group) {
         entry.entryKDB?.let { entryKDB ->
             mDatabaseKDB?.removeEntryFrom(entryKDB, parent.groupKDB)
         }
@@ -585,7 +832,7 @@ class Database {
         entry.afterAssignNewParent()
     }
 
-    fun addGroupTo(group: Group, parent: Group) {
+    private fun attachGroup(group: Group, parent: Group) {
         group.groupKDB?.let { entryKDB ->
             mDatabaseKDB?.addGroupTo(entryKDB, parent.groupKDB)
         }
@@ -595,16 +842,7 @@ class Database {
         group.afterAssignNewParent()
     }
 
-    fun updateGroup(group: Group) {
-        group.groupKDB?.let { entryKDB ->
-            mDatabaseKDB?.updateGroup(entryKDB)
-        }
-        group.groupKDBX?.let { entryKDBX ->
-            mDatabaseKDBX?.updateGroup(entryKDBX)
-        }
-    }
-
-    fun removeGroupFrom(group: Group, parent: Group) {
+    private fun detachGroup(group: Group, parent: Group) {
         group.groupKDB?.let { entryKDB ->
             mDatabaseKDB?.removeGroupFrom(entryKDB, parent.groupKDB)
         }
@@ -629,17 +867,21 @@ class Database {
     }
 
     fun moveEntryTo(entryToMove: Entry, newParent: Group) {
-        entryToMove.parent?.let {
-            removeEntryFrom(entryToMove, it)
+        val oldParent = entryToMove.parent
+        oldParent?.let {
+            detachEntry(entryToMove, it)
         }
-        addEntryTo(entryToMove, newParent)
+        attachEntry(entryToMove, newParent)
+        notifyChange(DatabaseChange.NodeMoved(entryToMove, oldParent, newParent))
     }
 
     fun moveGroupTo(groupToMove: Group, newParent: Group) {
-        groupToMove.parent?.let {
-            removeGroupFrom(groupToMove, it)
+        val oldParent = groupToMove.parent
+        oldParent?.let {
+            detachGroup(groupToMove, it)
         }
-        addGroupTo(groupToMove, newParent)
+        attachGroup(groupToMove, newParent)
+        notifyChange(DatabaseChange.NodeMoved(groupToMove, oldParent, newParent))
     }
 
     fun deleteEntry(entry: Entry) {
@@ -673,6 +915,7 @@ class Database {
         entry.entryKDBX?.let {
             mDatabaseKDBX?.undoDeleteEntryFrom(it, parent.groupKDBX)
         }
+        notifyChange(DatabaseChange.NodeAdded(entry, parent))
     }
 
     fun undoDeleteGroup(group: Group, parent: Group) {
@@ -682,6 +925,25 @@ class Database {
         group.groupKDBX?.let {
             mDatabaseKDBX?.undoDeleteGroupFrom(it, parent.groupKDBX)
         }
+        // Each node of the group is restored, as each one was deleted
+        notifyChange(DatabaseChange.NodeAdded(group, parent))
+        group.doForEachChild(
+                object : NodeHandler<Entry>() {
+                    override fun operate(node: Entry): Boolean {
+                        node.parent?.let {
+                            notifyChange(DatabaseChange.NodeAdded(node, it))
+                        }
+                        return true
+                    }
+                },
+                object : NodeHandler<Group>() {
+                    override fun operate(node: Group): Boolean {
+                        node.parent?.let {
+                            notifyChange(DatabaseChange.NodeAdded(node, it))
+                        }
+                        return true
+                    }
+                })
     }
 
     fun canRecycle(entry: Entry): Boolean {
@@ -707,24 +969,39 @@ class Database {
     }
 
     fun recycle(entry: Entry, resources: Resources) {
+        val oldParent = entry.parent
+        val recycleBinExisted = recycleBin != null
         entry.entryKDB?.let {
             mDatabaseKDB?.recycle(it)
         }
         entry.entryKDBX?.let {
             mDatabaseKDBX?.recycle(it, resources)
         }
+        notifyRecycleBinAdded(recycleBinExisted)
+        notifyRecycled(entry, oldParent)
     }
 
     fun recycle(group: Group, resources: Resources) {
+        val oldParent = group.parent
+        val recycleBinExisted = recycleBin != null
         group.groupKDB?.let {
             mDatabaseKDB?.recycle(it)
         }
         group.groupKDBX?.let {
             mDatabaseKDBX?.recycle(it, resources)
         }
+        notifyRecycleBinAdded(recycleBinExisted)
+        notifyRecycled(group, oldParent)
+    }
+
+    private fun notifyRecycled(node: Node, oldParent: Group?) {
+        (node.parent ?: recycleBin)?.let { newParent ->
+            notifyChange(DatabaseChange.NodeMoved(node, oldParent, newParent))
+        }
     }
 
     fun undoRecycle(entry: Entry, parent: Group) {
+        val recycleBinGroup = recycleBin
         entry.entryKDB?.let { entryKDB ->
             parent.groupKDB?.let { parentKDB ->
                 mDatabaseKDB?.undoRecycle(entryKDB, parentKDB)
@@ -735,9 +1012,11 @@ class Database {
                 mDatabaseKDBX?.undoRecycle(entryKDBX, parentKDBX)
             }
         }
+        notifyChange(DatabaseChange.NodeMoved(entry, recycleBinGroup, parent))
     }
 
     fun undoRecycle(group: Group, parent: Group) {
+        val recycleBinGroup = recycleBin
         group.groupKDB?.let { groupKDB ->
             parent.groupKDB?.let { parentKDB ->
                 mDatabaseKDB?.undoRecycle(groupKDB, parentKDB)
@@ -748,6 +1027,7 @@ class Database {
                 mDatabaseKDBX?.undoRecycle(entryKDBX, parentKDBX)
             }
         }
+        notifyChange(DatabaseChange.NodeMoved(group, recycleBinGroup, parent))
     }
 
     fun startManageEntry(entry: Entry) {
@@ -762,37 +1042,72 @@ class Database {
         }
     }
 
+    /**
+     * Value of the field [key] of [entry] with its references resolved, without managing the entry,
+     * to read an entry from a background thread while the main thread manages it
+     */
+    fun decodeEntryField(entry: Entry, key: String): String {
+        entry.entryKDBX?.let { entryKDBX ->
+            val text = entryKDBX.fields[key]?.toString() ?: ""
+            return mDatabaseKDBX?.fieldReferencesEngine?.decodeField(entryKDBX, key, text) ?: text
+        }
+        return when (key) {
+            EntryKDBX.STR_TITLE -> entry.title
+            EntryKDBX.STR_USERNAME -> entry.username
+            EntryKDBX.STR_URL -> entry.url
+            EntryKDBX.STR_NOTES -> entry.notes
+            else -> ""
+        }
+    }
+
     /**
      * Remove oldest history for each entry if more than max items or max memory
      */
     fun removeOldestHistoryForEachEntry() {
-        rootGroup?.doForEachChildAndForIt(
-                object : NodeHandler<Entry>() {
-                    override fun operate(node: Entry): Boolean {
-                        removeOldestEntryHistory(node)
-                        return true
-                    }
-                },
-                object : NodeHandler<Group>() {
-                    override fun operate(node: Group): Boolean {
-                        return true
-                    }
-                })
+        mLock.write {
+            rootGroup?.doForEachChildAndForIt(
+                    object : NodeHandler<Entry>() {
+                        override fun operate(node: Entry): Boolean {
+                            removeOldestEntryHistory(node)
+                            return true
+                        }
+                    },
+                    object : NodeHandler<Group>() {
+                        override fun operate(node: Group): Boolean {
+                            return true
+                        }
+                    })
+        }
     }
 
     fun removeEachEntryHistory() {
-        rootGroup?.doForEachChildAndForIt(
-                object : NodeHandler<Entry>() {
-                    override fun operate(node: Entry): Boolean {
-                        node.removeAllHistory()
-                        return true
-                    }
-                },
-                object : NodeHandler<Group>() {
-                    override fun operate(node: Group): Boolean {
-                        return true
-                    }
-                })
+        mLock.write {
+            rootGroup?.doForEachChildAndForIt(
+                    object : NodeHandler<Entry>() {
+                        override fun operate(node: Entry): Boolean {
+                            if (node.getHistory().isNotEmpty()) {
+                                node.removeAllHistory()
+                                notifyChange(DatabaseChange.HistoryChanged(node))
+                            }
+                            return true
+                        }
+                    },
+                    object : NodeHandler<Group>() {
+                        override fun operate(node: Group): Boolean {
+                            return true
+                        }
+                    })
+        }
+    }
+
+    fun addEntryToHistory(entry: Entry, entryHistory: Entry) {
+        entry.addEntryToHistory(entryHistory)
+        notifyChange(DatabaseChange.HistoryChanged(entry))
+    }
+
+    fun removeEntryFromHistory(entry: Entry, entryHistoryPosition: Int) {
+        entry.removeEntryFromHistory(entryHistoryPosition)
+        notifyChange(DatabaseChange.HistoryChanged(entry))
     }
 
     /**
@@ -800,6 +1115,7 @@ class Database {
      */
     fun removeOldestEntryHistory(entry: Entry) {
         mDatabaseKDBX?.let {
+            val historySizeBefore = entry.getHistory().size
 
             val maxItems = historyMaxItems
             if (maxItems >= 0) {
@@ -823,11 +1139,18 @@ class Database {
                     }
                 }
             }
+
+            if (entry.getHistory().size != historySizeBefore)
+                notifyChange(DatabaseChange.HistoryChanged(entry))
         }
     }
 
     companion object : SingletonHolder<Database>(::Database) {
 
         private val TAG = Database::class.java.name
+
+        private val closeExecutor = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, TAG).apply { isDaemon = true }
+        }
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.element
+
+import com.kunzisoft.keepass.database.element.node.Node
+
+/**
+ * Change applied to the database by one of its mutation methods,
+ * published to the [DatabaseChangeListener]s after the change is done.
+ *
+ * A change concerns a single node, a group is moved with all its children,
+ * but each child of a deleted or restored group is published in its own change.
+ */
+sealed class DatabaseChange {
+
+    class NodeAdded(val node: Node, val parent: Group) : DatabaseChange()
+
+    class NodeUpdated(val node: Node) : DatabaseChange()
+
+    class NodeMoved(val node: Node, val oldParent: Group?, val newParent: Group) : DatabaseChange()
+
+    class NodeDeleted(val node: Node, val parent: Group?) : DatabaseChange()
+
+    class HistoryChanged(val entry: Entry) : DatabaseChange()
+
+    object MetadataChanged : DatabaseChange()
+}
+
+interface DatabaseChangeListener {
+    /**
+     * Called in the thread of the mutation, before the mutation method returns
+     */
+    fun onDatabaseChanged(change: DatabaseChange)
+}
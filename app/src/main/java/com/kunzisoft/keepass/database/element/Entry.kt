@@ -124,10 +124,10 @@ class Entry : Node, EntryVersionedInterface<Group> {
     override var parent: Group?
         get() {
             entryKDB?.parent?.let {
-                return Group(it)
+                return Database.getInstance().nodeWrapperCache.getGroup(it)
             }
             entryKDBX?.parent?.let {
-                return Group(it)
+                return Database.getInstance().nodeWrapperCache.getGroup(it)
             }
             return null
         }
@@ -391,6 +391,13 @@ class Entry : Node, EntryVersionedInterface<Group> {
      * Remove parameter fields and add auto generated elements in auto custom fields
      */
     fun getEntryInfo(database: Database?, raw: Boolean = false): EntryInfo {
+        // Read with the shared lock, the references may be resolved with other entries
+        return database?.doWithReadLock {
+            buildEntryInfo(database, raw)
+        } ?: buildEntryInfo(null, raw)
+    }
+
+    private fun buildEntryInfo(database: Database?, raw: Boolean): EntryInfo {
         val entryInfo = EntryInfo()
         if (raw)
             database?.stopManageEntry(this)
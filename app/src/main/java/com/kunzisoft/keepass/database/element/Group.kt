@@ -29,6 +29,7 @@ import com.kunzisoft.keepass.database.element.icon.IconImage
 import com.kunzisoft.keepass.database.element.icon.IconImageStandard
 import com.kunzisoft.keepass.database.element.node.*
 import com.kunzisoft.keepass.model.EntryInfo
+import com.kunzisoft.keepass.settings.PreferencesSnapshot
 import com.kunzisoft.keepass.settings.PreferencesUtil
 import java.util.*
 import kotlin.collections.ArrayList
@@ -84,12 +85,21 @@ class Group : Node, GroupVersionedInterface<Group, Entry> {
 
         companion object {
             fun getDefaults(context: Context): Array<ChildFilter> {
-                return if (PreferencesUtil.showExpiredEntries(context)) {
+                return getDefaults(PreferencesUtil.getSnapshot(context))
+            }
+
+            fun getDefaults(preferences: PreferencesSnapshot): Array<ChildFilter> {
+                return if (preferences.showExpiredEntries) {
                     arrayOf(META_STREAM)
                 } else {
                     arrayOf(META_STREAM, EXPIRED)
                 }
             }
+
+            fun isEntryAccepted(entry: Entry, filters: Array<ChildFilter>): Boolean {
+                return (!filters.contains(META_STREAM) || !entry.isMetaStream)
+                        && (!filters.contains(EXPIRED) || !entry.isCurrentlyExpires)
+            }
         }
     }
 
@@ -132,13 +142,16 @@ class Group : Node, GroupVersionedInterface<Group, Entry> {
     override val type: Type
         get() = Type.GROUP
 
+    private val wrapperCache: NodeWrapperCache
+        get() = Database.getInstance().nodeWrapperCache
+
     override var parent: Group?
         get() {
             groupKDB?.parent?.let {
-                return Group(it)
+                return wrapperCache.getGroup(it)
             }
             groupKDBX?.parent?.let {
-                return Group(it)
+                return wrapperCache.getGroup(it)
             }
             return null
         }
@@ -232,54 +245,93 @@ class Group : Node, GroupVersionedInterface<Group, Entry> {
     override val isCurrentlyExpires: Boolean
         get() = groupKDB?.isCurrentlyExpires ?: groupKDBX?.isCurrentlyExpires ?: false
 
+    private fun addChildGroupsTo(children: MutableList<in Group>) {
+        groupKDB?.getChildGroups()?.forEach {
+            children.add(wrapperCache.getGroup(it))
+        }
+        groupKDBX?.getChildGroups()?.forEach {
+            children.add(wrapperCache.getGroup(it))
+        }
+    }
+
+    private fun addChildEntriesTo(children: MutableList<in Entry>) {
+        groupKDB?.getChildEntries()?.forEach {
+            children.add(wrapperCache.getEntry(it))
+        }
+        groupKDBX?.getChildEntries()?.forEach {
+            children.add(wrapperCache.getEntry(it))
+        }
+    }
+
     override fun getChildGroups(): List<Group> {
-        return groupKDB?.getChildGroups()?.map {
-            Group(it)
-        } ?:
-        groupKDBX?.getChildGroups()?.map {
-            Group(it)
-        } ?:
-        ArrayList()
+        val childGroups = ArrayList<Group>(getNumberOfChildGroups())
+        addChildGroupsTo(childGroups)
+        return childGroups
     }
 
     override fun getChildEntries(): List<Entry> {
-        return groupKDB?.getChildEntries()?.map {
-            Entry(it)
-        } ?:
-        groupKDBX?.getChildEntries()?.map {
-            Entry(it)
-        } ?:
-        ArrayList()
+        val childEntries = ArrayList<Entry>(numberOfAllChildEntries)
+        addChildEntriesTo(childEntries)
+        return childEntries
     }
 
     fun getChildEntriesInfo(database: Database): List<EntryInfo> {
-        val entriesInfo = ArrayList<EntryInfo>()
-        getChildEntries().forEach { entry ->
-            entriesInfo.add(entry.getEntryInfo(database))
+        return database.doWithReadLock {
+            val entriesInfo = ArrayList<EntryInfo>()
+            getChildEntries().forEach { entry ->
+                entriesInfo.add(entry.getEntryInfo(database))
+            }
+            entriesInfo
         }
-        return entriesInfo
     }
 
-    fun getFilteredChildEntries(vararg filter: ChildFilter): List<Entry> {
+    private fun addFilteredChildEntriesTo(children: MutableList<in Entry>, filter: Array<out ChildFilter>) {
         val withoutMetaStream = filter.contains(ChildFilter.META_STREAM)
         val showExpiredEntries = !filter.contains(ChildFilter.EXPIRED)
 
-        return groupKDB?.getChildEntries()?.filter {
-            (!withoutMetaStream || (withoutMetaStream && !it.isMetaStream))
-                    && (!it.isCurrentlyExpires or showExpiredEntries)
-        }?.map {
-            Entry(it)
-        } ?:
-        groupKDBX?.getChildEntries()?.filter {
-            !it.isCurrentlyExpires or showExpiredEntries
-        }?.map {
-            Entry(it)
-        } ?:
-        ArrayList()
+        groupKDB?.getChildEntries()?.forEach {
+            if ((!withoutMetaStream || !it.isMetaStream)
+                    && (!it.isCurrentlyExpires || showExpiredEntries))
+                children.add(wrapperCache.getEntry(it))
+        }
+        groupKDBX?.getChildEntries()?.forEach {
+            if (!it.isCurrentlyExpires || showExpiredEntries)
+                children.add(wrapperCache.getEntry(it))
+        }
+    }
+
+    fun getFilteredChildEntries(vararg filter: ChildFilter): List<Entry> {
+        val childEntries = ArrayList<Entry>(numberOfAllChildEntries)
+        addFilteredChildEntriesTo(childEntries, filter)
+        return childEntries
+    }
+
+    private val numberOfAllChildEntries: Int
+        get() = groupKDB?.getChildEntries()?.size
+                ?: groupKDBX?.getChildEntries()?.size
+                ?: 0
+
+    fun getNumberOfChildGroups(): Int {
+        return groupKDB?.getChildGroups()?.size
+                ?: groupKDBX?.getChildGroups()?.size
+                ?: 0
     }
 
+    /**
+     * Count the entries accepted by the [filter] without building the list
+     */
     fun getNumberOfChildEntries(vararg filter: ChildFilter): Int {
-        return getFilteredChildEntries(*filter).size
+        val withoutMetaStream = filter.contains(ChildFilter.META_STREAM)
+        val showExpiredEntries = !filter.contains(ChildFilter.EXPIRED)
+
+        return groupKDB?.getChildEntries()?.count {
+            (!withoutMetaStream || !it.isMetaStream)
+                    && (!it.isCurrentlyExpires || showExpiredEntries)
+        } ?:
+        groupKDBX?.getChildEntries()?.count {
+            !it.isCurrentlyExpires || showExpiredEntries
+        } ?:
+        0
     }
 
     /**
@@ -287,11 +339,17 @@ class Group : Node, GroupVersionedInterface<Group, Entry> {
      * @return List of direct children (one level below) as NodeVersioned
      */
     fun getChildren(): List<Node> {
-        return getChildGroups() + getChildEntries()
+        val children = ArrayList<Node>(getNumberOfChildGroups() + numberOfAllChildEntries)
+        addChildGroupsTo(children)
+        addChildEntriesTo(children)
+        return children
     }
 
     fun getFilteredChildren(vararg filter: ChildFilter): List<Node> {
-        return getChildGroups() + getFilteredChildEntries(*filter)
+        val children = ArrayList<Node>(getNumberOfChildGroups() + numberOfAllChildEntries)
+        addChildGroupsTo(children)
+        addFilteredChildEntriesTo(children, filter)
+        return children
     }
 
     override fun addChildGroup(group: Group) {
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.element
+
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.element.node.Node
+import com.kunzisoft.keepass.database.element.node.NodeId
+import com.kunzisoft.keepass.database.element.node.NodeVersionedInterface
+import com.kunzisoft.keepass.database.element.node.Type
+import java.text.CollationKey
+import java.text.Collator
+import java.util.*
+
+/**
+ * Cache of the values used to sort the nodes, the texts are kept as collation keys of the current locale
+ * to be compared without reading and decoding the fields at each comparison.
+ *
+ * A key is removed when the node is modified in the database, and computed again
+ * if the modification or the access time of the node changed.
+ */
+class NodeSortKeyCache : DatabaseChangeListener {
+
+    class SortKey(val title: CollationKey,
+                  val username: CollationKey,
+                  val creationTime: Long,
+                  val lastModificationTime: Long,
+                  val lastAccessTime: Long)
+
+    private val sortKeys = HashMap<NodeId<*>, SortKey>()
+    private var locale: Locale? = null
+    private var collator: Collator? = null
+
+    @Synchronized
+    fun getSortKey(node: NodeVersionedInterface<*>): SortKey {
+        // Before any lookup, the keys of a previous locale are removed
+        val currentCollator = getCollator()
+        val nodeId = (node as? Node)?.nodeId
+        nodeId?.let {
+            sortKeys[it]?.let { sortKey ->
+                if (sortKey.lastModificationTime == node.lastModificationTime.date.time
+                        && sortKey.lastAccessTime == node.lastAccessTime.date.time)
+                    return sortKey
+            }
+        }
+        val sortKey = buildSortKey(node, currentCollator)
+        nodeId?.let {
+            sortKeys[it] = sortKey
+        }
+        return sortKey
+    }
+
+    @Synchronized
+    fun remove(node: Node) {
+        node.nodeId?.let {
+            sortKeys.remove(it)
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        sortKeys.clear()
+    }
+
+    override fun onDatabaseChanged(change: DatabaseChange) {
+        when (change) {
+            is DatabaseChange.NodeUpdated -> remove(change.node)
+            is DatabaseChange.NodeMoved -> remove(change.node)
+            is DatabaseChange.NodeDeleted -> remove(change.node)
+            else -> {}
+        }
+    }
+
+    private fun buildSortKey(node: NodeVersionedInterface<*>, currentCollator: Collator): SortKey {
+        var title = node.title
+        var username = ""
+        if (node.type == Type.ENTRY && node is Entry) {
+            // To get the fields if they are refs, without managing the entry bound in the main thread
+            val database = Database.getInstance()
+            title = database.decodeEntryField(node, EntryKDBX.STR_TITLE)
+            username = database.decodeEntryField(node, EntryKDBX.STR_USERNAME)
+        }
+        return SortKey(currentCollator.getCollationKey(title),
+                currentCollator.getCollationKey(username),
+                node.creationTime.date.time,
+                node.lastModificationTime.date.time,
+                node.lastAccessTime.date.time)
+    }
+
+    private fun getCollator(): Collator {
+        val currentLocale = Locale.getDefault()
+        val currentCollator = collator
+        if (currentCollator != null && currentLocale == locale)
+            return currentCollator
+        // Keys of another locale can't be compared
+        sortKeys.clear()
+        locale = currentLocale
+        return Collator.getInstance(currentLocale).apply {
+            // Ignore case, as the previous comparison of the titles
+            strength = Collator.SECONDARY
+        }.also { collator = it }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.element
+
+import com.kunzisoft.keepass.database.element.entry.EntryKDB
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.element.group.GroupKDB
+import com.kunzisoft.keepass.database.element.group.GroupKDBX
+import com.kunzisoft.keepass.database.element.node.NodeId
+
+/**
+ * Keep a single [Group] and [Entry] wrapper by node id,
+ * to not allocate a new wrapper each time a node of the tree is retrieved.
+ *
+ * A cached wrapper is only returned if it wraps the same instance of the node,
+ * copies of a node with the same id get their own wrapper.
+ * The wrapper of a deleted node is released, a moved node keeps its wrapper.
+ */
+class NodeWrapperCache : DatabaseChangeListener {
+
+    private val groups = HashMap<NodeId<*>, Group>()
+    private val entries = HashMap<NodeId<*>, Entry>()
+
+    @Synchronized
+    fun getGroup(group: GroupKDB): Group {
+        val cachedGroup = groups[group.nodeId]
+        if (cachedGroup?.groupKDB === group)
+            return cachedGroup
+        return Group(group).also { groups[group.nodeId] = it }
+    }
+
+    @Synchronized
+    fun getGroup(group: GroupKDBX): Group {
+        val cachedGroup = groups[group.nodeId]
+        if (cachedGroup?.groupKDBX === group)
+            return cachedGroup
+        return Group(group).also { groups[group.nodeId] = it }
+    }
+
+    @Synchronized
+    fun getEntry(entry: EntryKDB): Entry {
+        val cachedEntry = entries[entry.nodeId]
+        if (cachedEntry?.entryKDB === entry)
+            return cachedEntry
+        return Entry(entry).also { entries[entry.nodeId] = it }
+    }
+
+    @Synchronized
+    fun getEntry(entry: EntryKDBX): Entry {
+        val cachedEntry = entries[entry.nodeId]
+        if (cachedEntry?.entryKDBX === entry)
+            return cachedEntry
+        return Entry(entry).also { entries[entry.nodeId] = it }
+    }
+
+    @Synchronized
+    fun removeGroup(group: Group) {
+        group.nodeId?.let { groups.remove(it) }
+    }
+
+    @Synchronized
+    fun removeEntry(entry: Entry) {
+        entries.remove(entry.nodeId)
+    }
+
+    @Synchronized
+    fun clear() {
+        groups.clear()
+        entries.clear()
+    }
+
+    override fun onDatabaseChanged(change: DatabaseChange) {
+        if (change is DatabaseChange.NodeDeleted) {
+            when (val node = change.node) {
+                is Group -> removeGroup(node)
+                is Entry -> removeEntry(node)
+            }
+        }
+    }
+}
@@ -55,6 +55,24 @@ enum class SortNodeEnum {
 
         abstract fun compareBySpecificOrder(object1: T, object2: T): Int
 
+        /**
+         * Keys of the node, read in the cache of the database
+         */
+        protected fun sortKeyOf(node: T): NodeSortKeyCache.SortKey {
+            return database.sortKeyCache.getSortKey(node)
+        }
+
+        /**
+         * Natural order to separate equal nodes, always ascending
+         */
+        protected fun compareByNaturalOrderIfEquals(comparison: Int, object1: T, object2: T): Int {
+            if (comparison != 0)
+                return comparison
+            val naturalOrderComp = object1.nodeIndexInParentForNaturalOrder()
+                    .compareTo(object2.nodeIndexInParentForNaturalOrder())
+            return if (sortNodeParameters.ascending) naturalOrderComp else -naturalOrderComp
+        }
+
         private fun specificOrderOrHashIfEquals(object1: T, object2: T): Int {
             val specificOrderComp = compareBySpecificOrder(object1, object2)
             return when {
@@ -73,10 +91,11 @@ enum class SortNodeEnum {
                     when (object2.type) {
                         Type.GROUP -> {
                             // RecycleBin at end of groups
-                            if (database.isRecycleBinEnabled && sortNodeParameters.recycleBinBottom) {
-                                if (database.recycleBin == object1)
+                            if (sortNodeParameters.recycleBinBottom && database.isRecycleBinEnabled) {
+                                val recycleBin = database.recycleBin
+                                if (recycleBin == object1)
                                     return 1
-                                if (database.recycleBin == object2)
+                                if (recycleBin == object2)
                                     return -1
                             }
                             return specificOrderOrHashIfEquals(object1, object2)
@@ -127,12 +146,9 @@ enum class SortNodeEnum {
         : NodeComparator<G, T>(sortNodeParameters) {
 
         override fun compareBySpecificOrder(object1: T, object2: T): Int {
-            val titleCompare = object1.title.compareTo(object2.title, ignoreCase = true)
-            return if (titleCompare == 0)
-                NodeNaturalComparator<G, T>(sortNodeParameters)
-                        .compare(object1, object2)
-            else
-                titleCompare
+            return compareByNaturalOrderIfEquals(
+                    sortKeyOf(object1).title.compareTo(sortKeyOf(object2).title),
+                    object1, object2)
         }
     }
 
@@ -144,20 +160,15 @@ enum class SortNodeEnum {
         : NodeComparator<G, T>(sortNodeParameters) {
 
         override fun compareBySpecificOrder(object1: T, object2: T): Int {
-            return if (object1.type == Type.ENTRY && object2.type == Type.ENTRY) {
-                // To get username if it's a ref
-                val usernameCompare = (object1 as Entry).getEntryInfo(database).username
-                        .compareTo((object2 as Entry).getEntryInfo(database).username,
-                                ignoreCase = true)
-                if (usernameCompare == 0)
-                    NodeTitleComparator<G, T>(sortNodeParameters)
-                            .compare(object1, object2)
-                else
-                    usernameCompare
-            } else {
-                NodeTitleComparator<G, T>(sortNodeParameters)
-                        .compare(object1, object2)
+            val sortKey1 = sortKeyOf(object1)
+            val sortKey2 = sortKeyOf(object2)
+            var usernameCompare = 0
+            if (object1.type == Type.ENTRY && object2.type == Type.ENTRY) {
+                usernameCompare = sortKey1.username.compareTo(sortKey2.username)
             }
+            if (usernameCompare == 0)
+                usernameCompare = sortKey1.title.compareTo(sortKey2.title)
+            return compareByNaturalOrderIfEquals(usernameCompare, object1, object2)
         }
     }
 
@@ -169,13 +180,9 @@ enum class SortNodeEnum {
         : NodeComparator<G, T>(sortNodeParameters) {
 
         override fun compareBySpecificOrder(object1: T, object2: T): Int {
-            val creationCompare = object1.creationTime.date
-                    .compareTo(object2.creationTime.date)
-            return if (creationCompare == 0)
-                NodeNaturalComparator<G, T>(sortNodeParameters)
-                        .compare(object1, object2)
-            else
-                creationCompare
+            return compareByNaturalOrderIfEquals(
+                    sortKeyOf(object1).creationTime.compareTo(sortKeyOf(object2).creationTime),
+                    object1, object2)
         }
     }
 
@@ -187,13 +194,9 @@ enum class SortNodeEnum {
         : NodeComparator<G, T>(sortNodeParameters) {
 
         override fun compareBySpecificOrder(object1: T, object2: T): Int {
-            val lastModificationCompare = object1.lastModificationTime.date
-                    .compareTo(object2.lastModificationTime.date)
-            return if (lastModificationCompare == 0)
-                NodeNaturalComparator<G, T>(sortNodeParameters)
-                        .compare(object1, object2)
-            else
-                lastModificationCompare
+            return compareByNaturalOrderIfEquals(
+                    sortKeyOf(object1).lastModificationTime.compareTo(sortKeyOf(object2).lastModificationTime),
+                    object1, object2)
         }
     }
 
@@ -205,13 +208,9 @@ enum class SortNodeEnum {
         : NodeComparator<G, T>(sortNodeParameters) {
 
         override fun compareBySpecificOrder(object1: T, object2: T): Int {
-            val lastAccessCompare = object1.lastAccessTime.date
-                    .compareTo(object2.lastAccessTime.date)
-            return if (lastAccessCompare == 0)
-                NodeNaturalComparator<G, T>(sortNodeParameters)
-                        .compare(object1, object2)
-            else
-                lastAccessCompare
+            return compareByNaturalOrderIfEquals(
+                    sortKeyOf(object1).lastAccessTime.compareTo(sortKeyOf(object2).lastAccessTime),
+                    object1, object2)
         }
     }
 }
@@ -33,10 +33,12 @@ import com.kunzisoft.keepass.database.element.DateInstant
 import com.kunzisoft.keepass.database.element.DeletedObject
 import com.kunzisoft.keepass.database.element.database.DatabaseKDB.Companion.BACKUP_FOLDER_TITLE
 import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.element.entry.FieldReferencesEngine
 import com.kunzisoft.keepass.database.element.group.GroupKDBX
 import com.kunzisoft.keepass.database.element.icon.IconImageCustom
 import com.kunzisoft.keepass.database.element.node.NodeIdUUID
 import com.kunzisoft.keepass.database.element.node.NodeVersioned
+import com.kunzisoft.keepass.database.element.security.BinaryAttachment
 import com.kunzisoft.keepass.database.element.security.EncryptionAlgorithm
 import com.kunzisoft.keepass.database.element.security.MemoryProtectionConfig
 import com.kunzisoft.keepass.database.exception.UnknownKDF
@@ -45,6 +47,7 @@ import com.kunzisoft.keepass.database.file.DatabaseHeaderKDBX.Companion.FILE_VER
 import com.kunzisoft.keepass.utils.VariantDictionary
 import org.w3c.dom.Node
 import org.w3c.dom.Text
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
 import java.security.MessageDigest
@@ -105,6 +108,8 @@ class DatabaseKDBX : DatabaseVersioned<UUID, UUID, GroupKDBX, EntryKDBX> {
 
     var binaryPool = BinaryPool()
 
+    val fieldReferencesEngine = FieldReferencesEngine(this)
+
     var localizedAppName = "KeePassDX"
 
     init {
@@ -170,8 +175,13 @@ class DatabaseKDBX : DatabaseVersioned<UUID, UUID, GroupKDBX, EntryKDBX> {
             return list
         }
 
-    fun changeBinaryCompression(oldCompression: CompressionAlgorithm,
-                                newCompression: CompressionAlgorithm) {
+    /**
+     * Write the binaries with the [newCompression] in temp files, without modifying the binaries,
+     * the files are then applied with [applyBinaryCompression]
+     */
+    fun prepareBinaryCompression(oldCompression: CompressionAlgorithm,
+                                 newCompression: CompressionAlgorithm): Map<BinaryAttachment, File> {
+        val preparedFiles = IdentityHashMap<BinaryAttachment, File>()
         binaryPool.doForEachBinary { key, binary ->
 
             try {
@@ -182,7 +192,9 @@ class DatabaseKDBX : DatabaseVersioned<UUID, UUID, GroupKDBX, EntryKDBX> {
                             }
                             CompressionAlgorithm.GZip -> {
                                 // To compress, create a new binary with file
-                                binary.compress(BUFFER_SIZE_BYTES)
+                                binary.prepareCompression(BUFFER_SIZE_BYTES)?.let {
+                                    preparedFiles[binary] = it
+                                }
                             }
                         }
                     }
@@ -190,7 +202,9 @@ class DatabaseKDBX : DatabaseVersioned<UUID, UUID, GroupKDBX, EntryKDBX> {
                         when (newCompression) {
                             CompressionAlgorithm.None -> {
                                 // To decompress, create a new binary with file
-                                binary.decompress(BUFFER_SIZE_BYTES)
+                                binary.prepareDecompression(BUFFER_SIZE_BYTES)?.let {
+                                    preparedFiles[binary] = it
+                                }
                             }
                             CompressionAlgorithm.GZip -> {
                             }
@@ -201,6 +215,14 @@ class DatabaseKDBX : DatabaseVersioned<UUID, UUID, GroupKDBX, EntryKDBX> {
                 Log.e(TAG, "Unable to change compression for $key")
             }
         }
+        return preparedFiles
+    }
+
+    fun applyBinaryCompression(preparedFiles: Map<BinaryAttachment, File>,
+                               newCompression: CompressionAlgorithm) {
+        preparedFiles.forEach { (binary, preparedFile) ->
+            binary.applyPreparedFile(preparedFile, newCompression == CompressionAlgorithm.GZip)
+        }
     }
 
     override val availableEncryptionAlgorithms: List<EncryptionAlgorithm>
@@ -542,10 +564,26 @@ class DatabaseKDBX : DatabaseVersioned<UUID, UUID, GroupKDBX, EntryKDBX> {
         return super.validatePasswordEncoding(password, containsKeyFile)
     }
 
+    override fun addEntryIndex(entry: EntryKDBX) {
+        super.addEntryIndex(entry)
+        fieldReferencesEngine.invalidate(entry)
+    }
+
+    override fun updateEntryIndex(entry: EntryKDBX) {
+        super.updateEntryIndex(entry)
+        fieldReferencesEngine.invalidate(entry)
+    }
+
+    override fun removeEntryIndex(entry: EntryKDBX) {
+        super.removeEntryIndex(entry)
+        fieldReferencesEngine.invalidate(entry)
+    }
+
     override fun clearCache() {
         try {
             super.clearCache()
             binaryPool.clear()
+            fieldReferencesEngine.clear()
         } catch (e: Exception) {
             Log.e(TAG, "Unable to clear cache", e)
         }
@@ -293,7 +293,7 @@ abstract class DatabaseVersioned<
         return this.entryIndexes[id]
     }
 
-    fun addEntryIndex(entry: Entry) {
+    open fun addEntryIndex(entry: Entry) {
         val entryId = entry.nodeId
         if (entryIndexes.containsKey(entryId)) {
             if (changeDuplicateId) {
@@ -309,14 +309,14 @@ abstract class DatabaseVersioned<
         }
     }
 
-    fun updateEntryIndex(entry: Entry) {
+    open fun updateEntryIndex(entry: Entry) {
         val entryId = entry.nodeId
         if (entryIndexes.containsKey(entryId)) {
             entryIndexes[entryId] = entry
         }
     }
 
-    fun removeEntryIndex(entry: Entry) {
+    open fun removeEntryIndex(entry: Entry) {
         this.entryIndexes.remove(entry.nodeId)
     }
 
@@ -344,16 +344,22 @@ abstract class DatabaseVersioned<
         parent?.addChildGroup(newGroup)
         newGroup.parent = parent
         addGroupIndex(newGroup)
+        // Structure changed, both nodes must be saved again
+        newGroup.markAsModified()
+        parent?.markAsModified()
     }
 
     fun updateGroup(group: Group) {
         updateGroupIndex(group)
+        group.markAsModified()
     }
 
     fun removeGroupFrom(groupToRemove: Group, parent: Group?) {
         // Remove tree from parent tree
         parent?.removeChildGroup(groupToRemove)
         removeGroupIndex(groupToRemove)
+        groupToRemove.markAsModified()
+        parent?.markAsModified()
     }
 
     fun addEntryTo(newEntry: Entry, parent: Group?) {
@@ -361,16 +367,21 @@ abstract class DatabaseVersioned<
         parent?.addChildEntry(newEntry)
         newEntry.parent = parent
         addEntryIndex(newEntry)
+        newEntry.markAsModified()
+        parent?.markAsModified()
     }
 
     fun updateEntry(entry: Entry) {
         updateEntryIndex(entry)
+        entry.markAsModified()
     }
 
     open fun removeEntryFrom(entryToRemove: Entry, parent: Group?) {
         // Remove entry from parent
         parent?.removeChildEntry(entryToRemove)
         removeEntryIndex(entryToRemove)
+        entryToRemove.markAsModified()
+        parent?.markAsModified()
     }
 
     // TODO Delete group
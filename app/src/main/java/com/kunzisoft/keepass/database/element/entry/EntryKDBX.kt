@@ -200,7 +200,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
     private fun decodeRefKey(decodeRef: Boolean, key: String): String {
         return fields[key]?.toString()?.let { text ->
             return if (decodeRef) {
-                if (mDatabase == null) text else FieldReferencesEngine().compile(text, this, mDatabase!!)
+                mDatabase?.fieldReferencesEngine?.decodeField(this, key, text) ?: text
             } else text
         } ?: ""
     }
@@ -210,6 +210,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
         set(value) {
             val protect = mDatabase != null && mDatabase!!.memoryProtection.protectTitle
             fields[STR_TITLE] = ProtectedString(protect, value)
+            markAsModified()
         }
 
     override val type: Type
@@ -220,6 +221,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
         set(value) {
             val protect = mDatabase != null && mDatabase!!.memoryProtection.protectUserName
             fields[STR_USERNAME] = ProtectedString(protect, value)
+            markAsModified()
         }
 
     override var password: String
@@ -227,6 +229,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
         set(value) {
             val protect = mDatabase != null && mDatabase!!.memoryProtection.protectPassword
             fields[STR_PASSWORD] = ProtectedString(protect, value)
+            markAsModified()
         }
 
     override var url
@@ -234,6 +237,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
         set(value) {
             val protect = mDatabase != null && mDatabase!!.memoryProtection.protectUrl
             fields[STR_URL] = ProtectedString(protect, value)
+            markAsModified()
         }
 
     override var notes: String
@@ -241,6 +245,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
         set(value) {
             val protect = mDatabase != null && mDatabase!!.memoryProtection.protectNotes
             fields[STR_NOTES] = ProtectedString(protect, value)
+            markAsModified()
         }
 
     override var usageCount: Long = 0
@@ -249,6 +254,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
 
     fun afterChangeParent() {
         locationChanged = DateInstant()
+        markAsModified()
     }
 
     private fun isStandardField(key: String): Boolean {
@@ -278,14 +284,17 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
 
     fun removeAllFields() {
         fields.clear()
+        markAsModified()
     }
 
     fun putExtraField(label: String, value: ProtectedString) {
         fields[label] = value
+        markAsModified()
     }
 
     fun putProtectedBinary(key: String, value: BinaryAttachment) {
         binaries[key] = value
+        markAsModified()
     }
 
     fun sizeOfHistory(): Int {
@@ -294,6 +303,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
 
     override fun putCustomData(key: String, value: String) {
         customData[key] = value
+        markAsModified()
     }
 
     override fun containsCustomData(): Boolean {
@@ -302,14 +312,17 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
 
     fun addEntryToHistory(entry: EntryKDBX) {
         history.add(entry)
+        markAsModified()
     }
 
     fun removeEntryFromHistory(position: Int) {
         history.removeAt(position)
+        markAsModified()
     }
 
     fun removeAllHistory() {
         history.clear()
+        markAsModified()
     }
 
     fun removeOldestEntryFromHistory() {
@@ -327,6 +340,7 @@ class EntryKDBX : EntryVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
 
         if (index != -1) {
             history.removeAt(index)
+            markAsModified()
         }
     }
 
@@ -19,37 +19,128 @@
  */
 package com.kunzisoft.keepass.database.element.entry
 
+import com.kunzisoft.keepass.database.action.node.NodeHandler
 import com.kunzisoft.keepass.database.element.database.DatabaseKDBX
 import com.kunzisoft.keepass.database.element.group.GroupKDBX
+import com.kunzisoft.keepass.database.element.node.NodeId
+import com.kunzisoft.keepass.database.element.node.NodeIdUUID
 import com.kunzisoft.keepass.database.search.EntryKDBXSearchHandler
+import com.kunzisoft.keepass.database.search.ParallelSearch
 import com.kunzisoft.keepass.database.search.SearchParametersKDBX
+import com.kunzisoft.keepass.database.search.SearchQueryPlanner
+import com.kunzisoft.keepass.database.search.UuidUtil
 import com.kunzisoft.keepass.utils.StringUtil
 import java.util.*
 
-class FieldReferencesEngine {
+/**
+ * Resolve the field references {REF:X@Y:value} of the entries of a database.
+ *
+ * The target of a reference by UUID is retrieved in an index, the target of a reference by title
+ * is searched once for each title and kept until an entry is modified,
+ * other references are searched in the entries of the database.
+ * Resolved fields are kept for each entry, and invalidated when the entry, or an entry
+ * it references, is modified.
+ */
+class FieldReferencesEngine(private val mDatabase: DatabaseKDBX) {
 
     inner class TargetResult(var entry: EntryKDBX?, var wanted: Char)
 
     private inner class SprContextV4 {
 
-        var databaseV4: DatabaseKDBX? = null
         var entry: EntryKDBX
         var refsCache: MutableMap<String, String> = HashMap()
+        var dependencies = Dependencies()
 
-        internal constructor(db: DatabaseKDBX, entry: EntryKDBX) {
-            this.databaseV4 = db
+        internal constructor(entry: EntryKDBX) {
             this.entry = entry
         }
 
         internal constructor(source: SprContextV4) {
-            this.databaseV4 = source.databaseV4
             this.entry = source.entry
             this.refsCache = source.refsCache
+            this.dependencies = source.dependencies
         }
     }
 
-    fun compile(text: String, entry: EntryKDBX, database: DatabaseKDBX): String {
-        return compileInternal(text, SprContextV4(database, entry), 0)
+    /**
+     * Entries read to resolve the references of a field, and if a target was searched in all the entries
+     */
+    private class Dependencies {
+        val targets = HashSet<NodeId<UUID>>()
+        var targetSearched = false
+    }
+
+    /**
+     * Value of a field with the raw [text] and its resolved [value]
+     */
+    private class ResolvedField(val text: String, val value: String)
+
+    private val resolvedFields = HashMap<NodeId<UUID>, HashMap<String, ResolvedField>>()
+    // Entries to invalidate when an entry is modified
+    private val dependentEntries = HashMap<NodeId<UUID>, HashSet<NodeId<UUID>>>()
+    // Entries to invalidate when any entry is modified, because their targets were searched
+    private val searchDependentEntries = HashSet<NodeId<UUID>>()
+    // Target of each title searched, the first entry in tree order whose title contains it
+    private val titleTargets = HashMap<String, EntryKDBX?>()
+
+    /**
+     * Resolve the field [key] of [entry] with the raw value [text]
+     */
+    @Synchronized
+    fun decodeField(entry: EntryKDBX, key: String, text: String): String {
+        if (!text.contains(STR_REF_START, true))
+            return text
+
+        val entryFields = resolvedFields.getOrPut(entry.nodeId) { HashMap() }
+        entryFields[key]?.let { resolvedField ->
+            if (resolvedField.text == text)
+                return resolvedField.value
+        }
+
+        val context = SprContextV4(entry)
+        val value = compileInternal(text, context, 0)
+        for (target in context.dependencies.targets) {
+            dependentEntries.getOrPut(target) { HashSet() }.add(entry.nodeId)
+        }
+        if (context.dependencies.targetSearched)
+            searchDependentEntries.add(entry.nodeId)
+        entryFields[key] = ResolvedField(text, value)
+        return value
+    }
+
+    /**
+     * Forget the fields resolved with the values of [entry]
+     */
+    @Synchronized
+    fun invalidate(entry: EntryKDBX) {
+        titleTargets.clear()
+        if (searchDependentEntries.isNotEmpty()) {
+            val entriesToInvalidate = ArrayList(searchDependentEntries)
+            searchDependentEntries.clear()
+            entriesToInvalidate.forEach { invalidateEntry(it) }
+        }
+        invalidateEntry(entry.nodeId)
+    }
+
+    @Synchronized
+    fun clear() {
+        resolvedFields.clear()
+        dependentEntries.clear()
+        searchDependentEntries.clear()
+        titleTargets.clear()
+    }
+
+    private fun invalidateEntry(nodeId: NodeId<UUID>) {
+        val entriesToInvalidate = Stack<NodeId<UUID>>()
+        entriesToInvalidate.push(nodeId)
+        while (entriesToInvalidate.isNotEmpty()) {
+            val currentNodeId = entriesToInvalidate.pop()
+            resolvedFields.remove(currentNodeId)
+            // Dependent entries are registered again when they are resolved
+            dependentEntries.remove(currentNodeId)?.forEach {
+                entriesToInvalidate.push(it)
+            }
+        }
     }
 
     private fun compileInternal(text: String?, sprContextV4: SprContextV4?, recursionLevel: Int): String {
@@ -68,10 +159,6 @@ class FieldReferencesEngine {
     private fun fillRefPlaceholders(textReference: String, contextV4: SprContextV4, recursionLevel: Int): String {
         var text = textReference
 
-        if (contextV4.databaseV4 == null) {
-            return text
-        }
-
         var offset = 0
         for (i in 0..19) {
             text = fillRefsUsingCache(text, contextV4)
@@ -85,25 +172,25 @@ class FieldReferencesEngine {
                 break
             }
 
-            val fullRef = text.substring(start, end - start + 1)
+            val fullRef = text.substring(start, end + 1)
             val result = findRefTarget(fullRef, contextV4)
 
             if (result != null) {
                 val found = result.entry
-                found?.stopToManageFieldReferences()
                 val wanted = result.wanted
 
                 var data: String? = null
                 when (wanted) {
-                    'T' -> data = found?.title
-                    'U' -> data = found?.username
-                    'A' -> data = found?.url
-                    'P' -> data = found?.password
-                    'N' -> data = found?.notes
+                    'T' -> data = found?.fields?.get(EntryKDBX.STR_TITLE)?.toString()
+                    'U' -> data = found?.fields?.get(EntryKDBX.STR_USERNAME)?.toString()
+                    'A' -> data = found?.fields?.get(EntryKDBX.STR_URL)?.toString()
+                    'P' -> data = found?.fields?.get(EntryKDBX.STR_PASSWORD)?.toString()
+                    'N' -> data = found?.fields?.get(EntryKDBX.STR_NOTES)?.toString()
                     'I' -> data = found?.nodeId.toString()
                 }
 
                 if (data != null && found != null) {
+                    contextV4.dependencies.targets.add(found.nodeId)
                     val subCtx = SprContextV4(contextV4)
                     subCtx.entry = found
 
@@ -113,6 +200,8 @@ class FieldReferencesEngine {
                 } else {
                     offset = start + 1
                 }
+            } else {
+                offset = start + 1
             }
 
         }
@@ -128,7 +217,7 @@ class FieldReferencesEngine {
             return null
         }
 
-        val ref = fullRef.substring(STR_REF_START.length, fullRef.length - STR_REF_START.length - STR_REF_END.length)
+        val ref = fullRef.substring(STR_REF_START.length, fullRef.length - STR_REF_END.length)
         if (ref.length <= 4) {
             return null
         }
@@ -141,11 +230,42 @@ class FieldReferencesEngine {
 
         val scan = Character.toUpperCase(ref[2])
         val wanted = Character.toUpperCase(ref[0])
+        val searchString = ref.substring(4)
 
+        // Retrieve the target in the indexes
+        when (scan) {
+            'I' -> {
+                UuidUtil.fromHexString(searchString)?.let { uuid ->
+                    mDatabase.getEntryById(NodeIdUUID(uuid))?.let {
+                        return TargetResult(it, wanted)
+                    }
+                }
+            }
+            'T' -> {
+                // An entry added or renamed can become the first entry of the title
+                contextV4.dependencies.targetSearched = true
+                val target = if (titleTargets.containsKey(searchString)) {
+                    titleTargets[searchString]
+                } else {
+                    searchRefTarget(scan, searchString).also { titleTargets[searchString] = it }
+                }
+                return target?.let { TargetResult(it, wanted) }
+            }
+        }
+        // Any entry added or modified can be the target of a reference not found in the indexes
+        contextV4.dependencies.targetSearched = true
+
+        return searchRefTarget(scan, searchString)?.let { TargetResult(it, wanted) }
+    }
+
+    /**
+     * First entry in tree order with the field [scan] which contains [searchString]
+     */
+    private fun searchRefTarget(scan: Char, searchString: String): EntryKDBX? {
         val searchParametersV4 = SearchParametersKDBX()
         searchParametersV4.setupNone()
 
-        searchParametersV4.searchString = ref.substring(4)
+        searchParametersV4.searchString = searchString
         when (scan) {
             'T' -> searchParametersV4.searchInTitles = true
             'U' -> searchParametersV4.searchInUserNames = true
@@ -159,12 +279,9 @@ class FieldReferencesEngine {
 
         val list = ArrayList<EntryKDBX>()
         // TODO type parameter
-        searchEntries(contextV4.databaseV4!!.rootGroup, searchParametersV4, list)
-
-        return if (list.size > 0) {
-            TargetResult(list[0], wanted)
-        } else null
+        searchEntries(mDatabase.rootGroup, searchParametersV4, list)
 
+        return list.firstOrNull()
     }
 
     private fun addRefsToCache(ref: String?, value: String?, ctx: SprContextV4?) {
@@ -186,7 +303,7 @@ class FieldReferencesEngine {
     private fun fillRefsUsingCache(text: String, sprContextV4: SprContextV4): String {
         var newText = text
         for ((key, value) in sprContextV4.refsCache) {
-            newText = StringUtil.replaceAllIgnoresCase(text, key, value, Locale.ENGLISH)
+            newText = StringUtil.replaceAllIgnoresCase(newText, key, value, Locale.ENGLISH)
         }
         return newText
     }
@@ -199,51 +316,52 @@ class FieldReferencesEngine {
             return
         }
 
+        if (searchParametersV4.regularExpression) {
+            // Evaluate the pattern on all the entries in parallel
+            val entries = getEntries(root!!)
+            val searchHandler = EntryKDBXSearchHandler(searchParametersV4, listStorage)
+            listStorage.addAll(ParallelSearch.filter(entries) { searchHandler.matches(it) })
+            return
+        }
+
         val terms = StringUtil.splitStringTerms(searchParametersV4.searchString)
-        if (terms.size <= 1 || searchParametersV4.regularExpression) {
+        if (terms.size <= 1) {
             root!!.doForEachChild(EntryKDBXSearchHandler(searchParametersV4, listStorage), null)
             return
         }
 
-        // Search longest term first
-        val stringLengthComparator = Comparator<String> { lhs, rhs -> lhs.length - rhs.length }
-        Collections.sort(terms, stringLengthComparator)
+        // Evaluate all the terms on the same list of entries
+        val entries = getEntries(root!!)
 
-        val fullSearch = searchParametersV4.searchString
-        var childEntries: List<EntryKDBX>? = root!!.getChildEntries()
-        for (i in terms.indices) {
-            val pgNew = ArrayList<EntryKDBX>()
-
-            searchParametersV4.searchString = terms[i]
-
-            var negate = false
-            if (searchParametersV4.searchString.startsWith("-")) {
-                searchParametersV4.searchString = searchParametersV4.searchString.substring(1)
-                negate = searchParametersV4.searchString.isNotEmpty()
-            }
-
-            if (!root.doForEachChild(EntryKDBXSearchHandler(searchParametersV4, pgNew), null)) {
-                childEntries = null
-                break
+        val predicates = terms.map { term ->
+            val negate = term.length > 1 && term.startsWith("-")
+            val termParameters = SearchParametersKDBX(searchParametersV4).apply {
+                searchString = if (negate) term.substring(1) else term
             }
-
-            val complement = ArrayList<EntryKDBX>()
-            if (negate) {
-                for (entry in childEntries!!) {
-                    if (!pgNew.contains(entry)) {
-                        complement.add(entry)
-                    }
-                }
-                childEntries = complement
-            } else {
-                childEntries = pgNew
+            val searchHandler = EntryKDBXSearchHandler(termParameters, ArrayList())
+            // Longest terms are considered the most selective
+            SearchQueryPlanner.Predicate<EntryKDBX>(negate, entries.size / termParameters.searchString.length) {
+                searchHandler.matches(it)
             }
         }
 
-        if (childEntries != null) {
-            listStorage.addAll(childEntries)
+        val selection = SearchQueryPlanner.evaluate(entries, predicates)
+        var index = selection.nextSetBit(0)
+        while (index >= 0) {
+            listStorage.add(entries[index])
+            index = selection.nextSetBit(index + 1)
         }
-        searchParametersV4.searchString = fullSearch
+    }
+
+    private fun getEntries(root: GroupKDBX): List<EntryKDBX> {
+        val entries = ArrayList<EntryKDBX>()
+        root.doForEachChild(object : NodeHandler<EntryKDBX>() {
+            override fun operate(node: EntryKDBX): Boolean {
+                entries.add(node)
+                return true
+            }
+        }, null)
+        return entries
     }
 
     companion object {
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.element.group
+
+import java.util.IdentityHashMap
+
+/**
+ * Children of a group in insertion order, stored in an array with an index by key,
+ * to add, remove and check the membership of a node in O(1).
+ *
+ * A child is identified by the key given by [keyOf] (the node id for the nodes of a database),
+ * adding a node with the key of a child replaces this child.
+ * A removed node only leaves an empty slot, slots are compacted at the next positional access.
+ */
+class ChildNodeList<Node>(private val keyOf: (Node) -> Any = { it as Any }) : AbstractList<Node>() {
+
+    private var slots = ArrayList<Node?>()
+    private val slotIndexes = HashMap<Any, Int>()
+    // Key of each child when it was added, the key of a node can change after
+    private val childKeys = IdentityHashMap<Node, Any>()
+    private var numberOfEmptySlots = 0
+
+    override val size: Int
+        get() = slotIndexes.size
+
+    override fun get(index: Int): Node {
+        compact()
+        return slots[index]!!
+    }
+
+    override fun contains(element: Node): Boolean {
+        return slotIndexOf(element) != null
+    }
+
+    override fun indexOf(element: Node): Int {
+        compact()
+        return slotIndexOf(element) ?: -1
+    }
+
+    override fun lastIndexOf(element: Node): Int {
+        return indexOf(element)
+    }
+
+    private fun keyOfChild(node: Node): Any {
+        return childKeys[node] ?: keyOf(node)
+    }
+
+    private fun slotIndexOf(node: Node): Int? {
+        return slotIndexes[keyOfChild(node)]
+    }
+
+    /**
+     * Append the [node] at the end, a node already present is moved at the end
+     */
+    fun add(node: Node) {
+        remove(node)
+        val key = keyOf(node)
+        slotIndexes[key] = slots.size
+        childKeys[node] = key
+        slots.add(node)
+    }
+
+    fun addAll(nodes: Collection<Node>) {
+        slots.ensureCapacity(slots.size + nodes.size)
+        for (node in nodes) {
+            add(node)
+        }
+    }
+
+    /**
+     * Remove the [node], or the child with the same key
+     * @return true if the node was present
+     */
+    fun remove(node: Node): Boolean {
+        val slotIndex = slotIndexes.remove(keyOfChild(node)) ?: return false
+        slots[slotIndex]?.let { childKeys.remove(it) }
+        slots[slotIndex] = null
+        numberOfEmptySlots++
+        // Last slot can be dropped without moving the others
+        if (slotIndex == slots.size - 1) {
+            slots.removeAt(slotIndex)
+            numberOfEmptySlots--
+        }
+        return true
+    }
+
+    fun clear() {
+        slots = ArrayList()
+        slotIndexes.clear()
+        childKeys.clear()
+        numberOfEmptySlots = 0
+    }
+
+    private fun compact() {
+        if (numberOfEmptySlots == 0)
+            return
+        val compactedSlots = ArrayList<Node?>(slotIndexes.size)
+        for (node in slots) {
+            if (node != null) {
+                slotIndexes[keyOfChild(node)] = compactedSlots.size
+                compactedSlots.add(node)
+            }
+        }
+        slots = compactedSlots
+        numberOfEmptySlots = 0
+    }
+}
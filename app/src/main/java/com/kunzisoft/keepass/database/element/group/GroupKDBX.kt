@@ -136,10 +136,12 @@ class GroupKDBX : GroupVersioned<UUID, UUID, GroupKDBX, EntryKDBX>, NodeKDBXInte
 
     override fun afterAssignNewParent() {
         locationChanged = DateInstant()
+        markAsModified()
     }
 
     override fun putCustomData(key: String, value: String) {
         customData[key] = value
+        markAsModified()
     }
 
     override fun containsCustomData(): Boolean {
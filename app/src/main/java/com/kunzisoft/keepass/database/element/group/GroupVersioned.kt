@@ -22,7 +22,6 @@ package com.kunzisoft.keepass.database.element.group
 import android.os.Parcel
 import com.kunzisoft.keepass.database.element.entry.EntryVersioned
 import com.kunzisoft.keepass.database.element.node.NodeVersioned
-import java.util.*
 
 abstract class GroupVersioned
         <
@@ -35,9 +34,9 @@ abstract class GroupVersioned
 
     private var titleGroup = ""
     @Transient
-    private val childGroups = LinkedList<Group>()
+    private val childGroups = ChildNodeList<Group> { it.nodeId }
     @Transient
-    private val childEntries = LinkedList<Entry>()
+    private val childEntries = ChildNodeList<Entry> { it.nodeId }
     private var positionIndexChildren = 0
 
     constructor() : super()
@@ -72,16 +71,13 @@ abstract class GroupVersioned
     }
 
     override fun addChildGroup(group: Group) {
-        if (childGroups.contains(group))
-            removeChildGroup(group)
+        // Already present children are moved at the end
         positionIndexChildren++
         group.nodeIndexInParentForNaturalOrder = positionIndexChildren
         this.childGroups.add(group)
     }
 
     override fun addChildEntry(entry: Entry) {
-        if (childEntries.contains(entry))
-            removeChildEntry(entry)
         positionIndexChildren++
         entry.nodeIndexInParentForNaturalOrder = positionIndexChildren
         this.childEntries.add(entry)
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.element.node
+
+import android.net.Uri
+import com.kunzisoft.keepass.database.element.Entry
+import com.kunzisoft.keepass.database.element.Group
+
+/**
+ * Nodes of the process not in the database, as the entries in edition or the groups of a search,
+ * retrieved with a [NodeHandle] to not write the whole node in a parcel.
+ *
+ * The oldest drafts are dropped if too many are not removed by their owner.
+ */
+object NodeDraftRegistry {
+
+    private const val MAX_DRAFTS = 32
+
+    private var lastDraftId = NodeHandle.NO_DRAFT_ID
+    private val drafts = object : LinkedHashMap<Long, Node>(MAX_DRAFTS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Node>?): Boolean {
+            return size > MAX_DRAFTS
+        }
+    }
+
+    @Synchronized
+    fun register(databaseUri: Uri?, node: Node): NodeHandle {
+        lastDraftId++
+        drafts[lastDraftId] = node
+        return NodeHandle(databaseUri, node, lastDraftId)
+    }
+
+    @Synchronized
+    fun getEntry(handle: NodeHandle): Entry? {
+        return drafts[handle.draftId] as? Entry
+    }
+
+    @Synchronized
+    fun getGroup(handle: NodeHandle): Group? {
+        return drafts[handle.draftId] as? Group
+    }
+
+    @Synchronized
+    fun remove(handle: NodeHandle) {
+        drafts.remove(handle.draftId)
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.element.node
+
+import android.net.Uri
+import android.os.Parcel
+import android.os.Parcelable
+
+/**
+ * Light reference to a node, passed in the intents and the bundles instead of the node itself.
+ *
+ * A handle retrieves the node of the database [databaseUri] with its [nodeId],
+ * or a draft of the [NodeDraftRegistry] (node not yet added or updated in the database,
+ * virtual group of a search) with its [draftId]. A draft is only known by the process which registered it.
+ */
+class NodeHandle : Parcelable {
+
+    val databaseUri: Uri?
+    val nodeId: NodeId<*>?
+    val type: Type
+    val draftId: Long
+
+    val isDraft: Boolean
+        get() = draftId != NO_DRAFT_ID
+
+    constructor(databaseUri: Uri?, node: Node, draftId: Long = NO_DRAFT_ID) {
+        this.databaseUri = databaseUri
+        this.nodeId = node.nodeId
+        this.type = node.type
+        this.draftId = draftId
+    }
+
+    constructor(parcel: Parcel) {
+        databaseUri = parcel.readParcelable(Uri::class.java.classLoader)
+        nodeId = parcel.readParcelable(NodeId::class.java.classLoader)
+        type = Type.values()[parcel.readInt()]
+        draftId = parcel.readLong()
+    }
+
+    override fun writeToParcel(dest: Parcel, flags: Int) {
+        dest.writeParcelable(databaseUri, flags)
+        dest.writeParcelable(nodeId, flags)
+        dest.writeInt(type.ordinal)
+        dest.writeLong(draftId)
+    }
+
+    override fun describeContents(): Int {
+        return 0
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is NodeHandle) return false
+
+        if (databaseUri != other.databaseUri) return false
+        if (nodeId != other.nodeId) return false
+        if (type != other.type) return false
+        if (draftId != other.draftId) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        var result = databaseUri?.hashCode() ?: 0
+        result = 31 * result + (nodeId?.hashCode() ?: 0)
+        result = 31 * result + type.hashCode()
+        result = 31 * result + draftId.hashCode()
+        return result
+    }
+
+    companion object {
+        const val NO_DRAFT_ID = -1L
+
+        @JvmField
+        val CREATOR: Parcelable.Creator<NodeHandle> = object : Parcelable.Creator<NodeHandle> {
+            override fun createFromParcel(parcel: Parcel): NodeHandle {
+                return NodeHandle(parcel)
+            }
+
+            override fun newArray(size: Int): Array<NodeHandle?> {
+                return arrayOfNulls(size)
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.kunzisoft.keepass.database.element.group.GroupVersionedInterface
 import com.kunzisoft.keepass.database.element.icon.IconImage
 import com.kunzisoft.keepass.database.element.icon.IconImageStandard
 import org.joda.time.LocalDateTime
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * Abstract class who manage Groups and Entries
@@ -42,6 +43,26 @@ abstract class NodeVersioned<IdType, Parent : GroupVersionedInterface<Parent, En
 
     var nodeIndexInParentForNaturalOrder = -1
 
+    /**
+     * Counter of the modifications, incremented without lock by [touch] during a save,
+     * the save only marks the node as saved with the count read before its serialization
+     */
+    @Transient
+    private val mModificationCount = AtomicLong()
+    @Volatile
+    @Transient
+    private var mSavedModificationCount = -1L
+
+    val modificationCount: Long
+        get() = mModificationCount.get()
+
+    /**
+     * To know if the node was changed since the last save,
+     * a node not yet saved is always considered as modified
+     */
+    val isModifiedSinceLastSave: Boolean
+        get() = mModificationCount.get() != mSavedModificationCount
+
     protected constructor()
 
     protected constructor(parcel: Parcel) {
@@ -79,6 +100,7 @@ abstract class NodeVersioned<IdType, Parent : GroupVersionedInterface<Parent, En
         this.lastAccessTime = DateInstant(source.lastAccessTime)
         this.expiryTime = DateInstant(source.expiryTime)
         this.expires = source.expires
+        markAsModified()
     }
 
     protected abstract fun initNodeId(): NodeId<IdType>
@@ -111,6 +133,21 @@ abstract class NodeVersioned<IdType, Parent : GroupVersionedInterface<Parent, En
 
     override fun afterAssignNewParent() {}
 
+    /**
+     * Indicate that the node must be serialized again at the next save
+     */
+    fun markAsModified() {
+        mModificationCount.incrementAndGet()
+    }
+
+    /**
+     * Called by the database output when the node is written as it is in the file,
+     * the node stays modified if [modificationCount] changed since the read of [savedModificationCount]
+     */
+    fun markAsSaved(savedModificationCount: Long) {
+        mSavedModificationCount = savedModificationCount
+    }
+
     override fun isContainedIn(container: Parent): Boolean {
         if (this == container)
             return true
@@ -131,6 +168,7 @@ abstract class NodeVersioned<IdType, Parent : GroupVersionedInterface<Parent, En
         if (modified) {
             lastModificationTime = now
         }
+        markAsModified()
 
         if (touchParents) {
             parent?.touch(modified, true)
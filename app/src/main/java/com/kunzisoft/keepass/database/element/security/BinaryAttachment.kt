@@ -74,60 +74,73 @@ class BinaryAttachment : Parcelable {
         }
     }
 
+    /**
+     * Write the compressed data in a temp file, without modifying the binary,
+     * the file is then applied with [applyPreparedFile]
+     * @return the temp file or null if the data are already compressed
+     */
     @Throws(IOException::class)
-    fun compress(bufferSize: Int = DEFAULT_BUFFER_SIZE) {
+    fun prepareCompression(bufferSize: Int = DEFAULT_BUFFER_SIZE): File? {
         dataFile?.let { concreteDataFile ->
             // To compress, create a new binary with file
             if (isCompressed != true) {
                 val fileBinaryCompress = File(concreteDataFile.parent, concreteDataFile.name + "_temp")
-                var outputStream: GZIPOutputStream? = null
-                var inputStream: InputStream? = null
                 try {
-                    outputStream = GZIPOutputStream(FileOutputStream(fileBinaryCompress))
-                    inputStream = getInputDataStream()
-                    inputStream.readBytes(bufferSize) { buffer ->
-                        outputStream.write(buffer)
-                    }
-                } finally {
-                    inputStream?.close()
-                    outputStream?.close()
-
-                    // Remove unGzip file
-                    if (concreteDataFile.delete()) {
-                        if (fileBinaryCompress.renameTo(concreteDataFile)) {
-                            // Harmonize with database compression
-                            isCompressed = true
+                    GZIPOutputStream(FileOutputStream(fileBinaryCompress)).use { outputStream ->
+                        getInputDataStream().use { inputStream ->
+                            inputStream.readBytes(bufferSize) { buffer ->
+                                outputStream.write(buffer)
+                            }
                         }
                     }
+                } catch (e: IOException) {
+                    fileBinaryCompress.delete()
+                    throw e
                 }
+                return fileBinaryCompress
             }
         }
+        return null
     }
 
+    /**
+     * Write the decompressed data in a temp file, without modifying the binary,
+     * the file is then applied with [applyPreparedFile]
+     * @return the temp file or null if the data are already decompressed
+     */
     @Throws(IOException::class)
-    fun decompress(bufferSize: Int = DEFAULT_BUFFER_SIZE) {
+    fun prepareDecompression(bufferSize: Int = DEFAULT_BUFFER_SIZE): File? {
         dataFile?.let { concreteDataFile ->
             if (isCompressed != false) {
                 val fileBinaryDecompress = File(concreteDataFile.parent, concreteDataFile.name + "_temp")
-                var outputStream: FileOutputStream? = null
-                var inputStream: GZIPInputStream? = null
                 try {
-                    outputStream = FileOutputStream(fileBinaryDecompress)
-                    inputStream = GZIPInputStream(getInputDataStream())
-                    inputStream.readBytes(bufferSize) { buffer ->
-                        outputStream.write(buffer)
-                    }
-                } finally {
-                    inputStream?.close()
-                    outputStream?.close()
-
-                    // Remove gzip file
-                    if (concreteDataFile.delete()) {
-                        if (fileBinaryDecompress.renameTo(concreteDataFile)) {
-                            // Harmonize with database compression
-                            isCompressed = false
+                    FileOutputStream(fileBinaryDecompress).use { outputStream ->
+                        GZIPInputStream(getInputDataStream()).use { inputStream ->
+                            inputStream.readBytes(bufferSize) { buffer ->
+                                outputStream.write(buffer)
+                            }
                         }
                     }
+                } catch (e: IOException) {
+                    fileBinaryDecompress.delete()
+                    throw e
+                }
+                return fileBinaryDecompress
+            }
+        }
+        return null
+    }
+
+    /**
+     * Replace the data by the temp file of [prepareCompression] or [prepareDecompression]
+     */
+    fun applyPreparedFile(preparedFile: File, compressed: Boolean) {
+        dataFile?.let { concreteDataFile ->
+            // Remove the previous file
+            if (concreteDataFile.delete()) {
+                if (preparedFile.renameTo(concreteDataFile)) {
+                    // Harmonize with database compression
+                    isCompressed = compressed
                 }
             }
         }
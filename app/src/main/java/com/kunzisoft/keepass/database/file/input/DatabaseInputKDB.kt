@@ -20,12 +20,12 @@
 
 package com.kunzisoft.keepass.database.file.input
 
+import android.util.SparseArray
 import com.kunzisoft.keepass.R
 import com.kunzisoft.keepass.crypto.CipherFactory
 import com.kunzisoft.keepass.database.element.database.DatabaseKDB
 import com.kunzisoft.keepass.database.element.entry.EntryKDB
 import com.kunzisoft.keepass.database.element.group.GroupKDB
-import com.kunzisoft.keepass.database.element.node.NodeIdInt
 import com.kunzisoft.keepass.database.element.node.NodeIdUUID
 import com.kunzisoft.keepass.database.element.security.BinaryAttachment
 import com.kunzisoft.keepass.database.element.security.EncryptionAlgorithm
@@ -53,6 +53,14 @@ class DatabaseInputKDB(cacheDirectory: File,
 
     private lateinit var mDatabaseToOpen: DatabaseKDB
 
+    // Ancestors of the last group read, the tree is built while reading the records
+    private val mGroupStack = Stack<GroupKDB>()
+    // Groups by their id in the file, the first group read wins for duplicate ids,
+    // the next groups with the same id are kept in the tree with a new id
+    private val mGroupsByFileId = SparseArray<GroupKDB>()
+    // Entries read before their parent group, only in malformed files
+    private val mPendingEntries = ArrayList<Pair<EntryKDB, Int>>()
+
     @Throws(LoadDatabaseException::class)
     override fun openDatabase(databaseInputStream: InputStream,
                               password: String?,
@@ -174,10 +182,15 @@ class DatabaseInputKDB(cacheDirectory: File,
             val newRoot = mDatabaseToOpen.createGroup()
             newRoot.level = -1
             mDatabaseToOpen.rootGroup = newRoot
+            mGroupStack.clear()
+            mGroupStack.push(newRoot)
+            mGroupsByFileId.clear()
+            mPendingEntries.clear()
 
             // Import all nodes
             var newGroup: GroupKDB? = null
             var newEntry: EntryKDB? = null
+            var newEntryGroupId = 0
             var currentGroupNumber = 0
             var currentEntryNumber = 0
             while (currentGroupNumber < header.numGroups
@@ -212,10 +225,9 @@ class DatabaseInputKDB(cacheDirectory: File,
                         newGroup?.let { group ->
                             group.title = cipherInputStream.readBytesToString(fieldSize)
                         } ?:
-                        newEntry?.let { entry ->
-                            val groupKDB = mDatabaseToOpen.createGroup()
-                            groupKDB.nodeId = NodeIdInt(cipherInputStream.readBytes4ToInt())
-                            entry.parent = groupKDB
+                        newEntry?.let {
+                            // Only the parent id is known, attached at the end of the record
+                            newEntryGroupId = cipherInputStream.readBytes4ToInt()
                         }
                     }
                     0x0003 -> {
@@ -318,14 +330,23 @@ class DatabaseInputKDB(cacheDirectory: File,
                     0xFFFF -> {
                         // End record.  Save node and count it.
                         newGroup?.let { group ->
+                            val fileGroupId = group.id
+                            // A duplicate id would replace the first group in the children of its parent
+                            if (mGroupsByFileId[fileGroupId] != null
+                                    || mDatabaseToOpen.isGroupIdUsed(group.nodeId)) {
+                                group.nodeId = mDatabaseToOpen.newGroupId()
+                            }
                             mDatabaseToOpen.addGroupIndex(group)
+                            addGroupToTree(group, fileGroupId)
                             currentGroupNumber++
                             newGroup = null
                         }
                         newEntry?.let { entry ->
                             mDatabaseToOpen.addEntryIndex(entry)
+                            addEntryToTree(entry, newEntryGroupId, false)
                             currentEntryNumber++
                             newEntry = null
+                            newEntryGroupId = 0
                         }
                         cipherInputStream.readBytesLength(fieldSize)
                     }
@@ -338,7 +359,11 @@ class DatabaseInputKDB(cacheDirectory: File,
             if (!Arrays.equals(messageDigest.digest(), header.contentsHash)) {
                 throw InvalidCredentialsDatabaseException()
             }
-            constructTreeFromIndex()
+            // Entries read before their group or without group
+            for ((entry, groupId) in mPendingEntries) {
+                addEntryToTree(entry, groupId, true)
+            }
+            mPendingEntries.clear()
 
         } catch (e: LoadDatabaseException) {
             mDatabaseToOpen.clearCache()
@@ -357,48 +382,40 @@ class DatabaseInputKDB(cacheDirectory: File,
         return mDatabaseToOpen
     }
 
-    private fun buildTreeGroups(previousGroup: GroupKDB, currentGroup: GroupKDB, groupIterator: Iterator<GroupKDB>) {
-
-        if (currentGroup.parent == null && (previousGroup.level + 1) == currentGroup.level) {
-            // Current group has an increment level compare to the previous, current group is a child
-            previousGroup.addChildGroup(currentGroup)
-            currentGroup.parent = previousGroup
-        } else if (previousGroup.parent != null && previousGroup.level == currentGroup.level) {
-            // In the same level, previous parent is the same as previous group
-            previousGroup.parent!!.addChildGroup(currentGroup)
-            currentGroup.parent = previousGroup.parent
-        } else if (previousGroup.parent != null) {
-            // Previous group has a higher level than the current group, check it's parent
-            buildTreeGroups(previousGroup.parent!!, currentGroup, groupIterator)
+    /**
+     * Attach the [group] in the tree from its level, groups are stored in pre-order in the file,
+     * so the parent is the last group read with a lower level
+     */
+    private fun addGroupToTree(group: GroupKDB, fileGroupId: Int) {
+        // Previous groups with the same or a higher level are not ancestors
+        while (mGroupStack.size > 1 && mGroupStack.peek().level >= group.level) {
+            mGroupStack.pop()
         }
-
-        // Next current group
-        if (groupIterator.hasNext()){
-            buildTreeGroups(currentGroup, groupIterator.next(), groupIterator)
+        val parent = mGroupStack.peek()
+        // Repair an orphan group with a level gap, attached to the closest ancestor
+        if (group.level != parent.level + 1) {
+            group.level = parent.level + 1
         }
-    }
+        parent.addChildGroup(group)
+        group.parent = parent
+        mGroupStack.push(group)
 
-    private fun constructTreeFromIndex() {
-        mDatabaseToOpen.rootGroup?.let {
-
-            // add each group
-            val groupIterator = mDatabaseToOpen.getGroupIndexes().iterator()
-            if (groupIterator.hasNext())
-                buildTreeGroups(it, groupIterator.next(), groupIterator)
-
-            // add each child
-            for (currentEntry in mDatabaseToOpen.getEntryIndexes()) {
-                if (currentEntry.parent != null) {
-                    // Only the parent id is known so complete the info
-                    val parentGroupRetrieve = mDatabaseToOpen.getGroupById(currentEntry.parent!!.nodeId)
-                    parentGroupRetrieve?.addChildEntry(currentEntry)
-                    currentEntry.parent = parentGroupRetrieve
-                }
-            }
-        }
+        if (mGroupsByFileId[fileGroupId] == null)
+            mGroupsByFileId.put(fileGroupId, group)
     }
 
-    companion object {
-        private val TAG = DatabaseInputKDB::class.java.name
+    /**
+     * Attach the [entry] to the group of id [groupId],
+     * if [repairOrphan], an entry without known group is attached to the first root group
+     */
+    private fun addEntryToTree(entry: EntryKDB, groupId: Int, repairOrphan: Boolean) {
+        val parent = mGroupsByFileId[groupId]
+                ?: if (repairOrphan) mDatabaseToOpen.rootGroup?.getChildGroups()?.firstOrNull() else null
+        if (parent != null) {
+            parent.addChildEntry(entry)
+            entry.parent = parent
+        } else if (!repairOrphan) {
+            mPendingEntries.add(Pair(entry, groupId))
+        }
     }
 }
@@ -509,7 +509,7 @@ class DatabaseInputKDBX(cacheDirectory: File,
                 ctxGroup = mDatabase.createGroup()
                 val groupPeek = ctxGroups.peek()
                 ctxGroup?.let {
-                    groupPeek.addChildGroup(it)
+                    // Added in the children of its parent at the end of the element, once its UUID is known
                     it.parent = groupPeek
                     ctxGroups.push(it)
                 }
@@ -518,7 +518,7 @@ class DatabaseInputKDBX(cacheDirectory: File,
             } else if (name.equals(DatabaseKDBXXML.ElemEntry, ignoreCase = true)) {
                 ctxEntry = mDatabase.createEntry()
                 ctxEntry?.let {
-                    ctxGroup?.addChildEntry(it)
+                    // Added in the children of its parent at the end of the element, once its UUID is known
                     it.parent = ctxGroup
                 }
 
@@ -713,6 +713,10 @@ class DatabaseInputKDBX(cacheDirectory: File,
                 ctxGroup?.nodeId = mDatabase.newGroupId()
                 mDatabase.addGroupIndex(ctxGroup!!)
             }
+            // Children are keyed by node id, so only added with their final UUID
+            ctxGroup?.let { group ->
+                group.parent?.addChildGroup(group)
+            }
 
             ctxGroups.pop()
 
@@ -747,8 +751,11 @@ class DatabaseInputKDBX(cacheDirectory: File,
                 return KdbContext.EntryHistory
             }
             else if (ctxEntry != null) {
-                // Add entry to the index only when close the XML element
+                // Add entry to the index and to its parent only when close the XML element
                 mDatabase.addEntryIndex(ctxEntry!!)
+                ctxEntry?.let { entry ->
+                    entry.parent?.addChildEntry(entry)
+                }
             }
 
             return KdbContext.Group
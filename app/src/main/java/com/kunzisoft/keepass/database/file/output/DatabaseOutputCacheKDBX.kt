@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.file.output
+
+import com.kunzisoft.keepass.database.element.node.NodeId
+import com.kunzisoft.keepass.database.element.security.BinaryAttachment
+import com.kunzisoft.keepass.database.element.security.ProtectedString
+import java.util.*
+
+/**
+ * Keep the XML of each group and entry between two saves of a KDBX database,
+ * only nodes modified since the last save are serialized again.
+ *
+ * Fragments contain plain XML, protected values and binaries are not written in the fragment,
+ * only their position and a reference to the value are kept, the inner random stream
+ * is applied when fragments are spliced in the final output.
+ */
+class DatabaseOutputCacheKDBX {
+
+    /**
+     * Serialized part of the XML document
+     * @param data UTF-8 XML without the protected values and the binaries
+     * @param placeholders Values to insert in the data, in the document order
+     */
+    class Fragment(val data: ByteArray,
+                   val placeholders: List<Placeholder>)
+
+    /**
+     * Value written only in the final output, [position] is the offset in the fragment data,
+     * a protected string is encrypted with the inner random stream, a binary is streamed from its file,
+     * the header hash is only known after the output of the header
+     */
+    class Placeholder(val position: Int,
+                      val protectedString: ProtectedString? = null,
+                      val binary: BinaryAttachment? = null,
+                      val headerHash: Boolean = false)
+
+    // Parameters used to build the fragments, if changed, all fragments are invalid
+    internal var formatSignature: String? = null
+    internal var groupFragments = HashMap<NodeId<UUID>, Fragment>()
+    internal var entryFragments = HashMap<NodeId<UUID>, Fragment>()
+    // Digest of all the elements not stored in fragments during the last save
+    internal var databaseSignature: ByteArray? = null
+
+    internal fun replaceBy(formatSignature: String,
+                           groupFragments: HashMap<NodeId<UUID>, Fragment>,
+                           entryFragments: HashMap<NodeId<UUID>, Fragment>,
+                           databaseSignature: ByteArray) {
+        this.formatSignature = formatSignature
+        this.groupFragments = groupFragments
+        this.entryFragments = entryFragments
+        this.databaseSignature = databaseSignature
+    }
+
+    fun clear() {
+        formatSignature = null
+        groupFragments.clear()
+        entryFragments.clear()
+        databaseSignature = null
+    }
+}
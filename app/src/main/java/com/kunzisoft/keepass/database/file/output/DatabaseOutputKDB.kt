@@ -28,6 +28,7 @@ import com.kunzisoft.keepass.database.file.DatabaseHeader
 import com.kunzisoft.keepass.database.file.DatabaseHeaderKDB
 import com.kunzisoft.keepass.stream.LittleEndianDataOutputStream
 import com.kunzisoft.keepass.stream.NullOutputStream
+import com.kunzisoft.keepass.stream.SpooledOutputStream
 import java.io.BufferedOutputStream
 import java.io.ByteArrayOutputStream
 import java.io.IOException
@@ -44,6 +45,10 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
     : DatabaseOutput<DatabaseHeaderKDB>(outputStream) {
 
     private var headerHashBlock: ByteArray? = null
+    // Groups in tree order, retrieved before the output
+    private var mGroupsForOutput: List<GroupKDB> = ArrayList()
+    // Content serialized once, already encrypted, written after the header
+    private var mEncryptedContent: SpooledOutputStream? = null
 
     @Throws(DatabaseOutputException::class)
     fun getFinalKey(header: DatabaseHeader): ByteArray? {
@@ -62,8 +67,21 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
         // and remove any orphaned nodes that are no longer part of the tree hierarchy
         sortGroupsForOutput()
 
-        val header = outputHeader(mOS)
+        try {
+            // Header contains the hash of the content, so the content is encrypted in the same pass
+            outputHeader(mOS)
+
+            mEncryptedContent?.writeTo(mOS)
+        } catch (e: IOException) {
+            throw DatabaseOutputException("Failed to output final encrypted part.", e)
+        } finally {
+            mEncryptedContent?.release()
+            mEncryptedContent = null
+        }
+    }
 
+    @Throws(DatabaseOutputException::class)
+    private fun getCipher(header: DatabaseHeaderKDB): Cipher {
         val finalKey = getFinalKey(header)
 
         val cipher: Cipher
@@ -84,20 +102,12 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
             cipher.init(Cipher.ENCRYPT_MODE,
                     SecretKeySpec(finalKey, "AES"),
                     IvParameterSpec(header.encryptionIV))
-            val cos = CipherOutputStream(mOS, cipher)
-            val bos = BufferedOutputStream(cos)
-            outputPlanGroupAndEntries(bos)
-            bos.flush()
-            bos.close()
-
         } catch (e: InvalidKeyException) {
             throw DatabaseOutputException("Invalid key", e)
         } catch (e: InvalidAlgorithmParameterException) {
             throw DatabaseOutputException("Invalid algorithm parameter.", e)
-        } catch (e: IOException) {
-            throw DatabaseOutputException("Failed to output final encrypted part.", e)
         }
-
+        return cipher
     }
 
     @Throws(DatabaseOutputException::class)
@@ -126,7 +136,7 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
         }
 
         header.version = DatabaseHeaderKDB.DBVER_DW
-        header.numGroups = mDatabaseKDB.numberOfGroups()
+        header.numGroups = mGroupsForOutput.size
         header.numEntries = mDatabaseKDB.numberOfEntries()
         header.numKeyEncRounds = mDatabaseKDB.numberKeyEncryptionRounds.toInt() // TODO Signed Long - Unsigned Int
 
@@ -148,7 +158,7 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
             throw DatabaseOutputException("SHA-256 not implemented here.", e)
         }
 
-        var nos = NullOutputStream()
+        val nos = NullOutputStream()
         val headerDos = DigestOutputStream(nos, headerDigest)
 
         // Output header for the purpose of calculating the header checksum
@@ -164,9 +174,11 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
         val headerHash = headerDigest.digest()
         headerHashBlock = getHeaderHashBuffer(headerHash)
 
-        // Output database for the purpose of calculating the content checksum
-        nos = NullOutputStream()
-        val dos = DigestOutputStream(nos, messageDigest)
+        // Output database only once, to calculate the content checksum and to encrypt it
+        val encryptedContent = SpooledOutputStream()
+        mEncryptedContent = encryptedContent
+        val cos = CipherOutputStream(encryptedContent, getCipher(header))
+        val dos = DigestOutputStream(cos, messageDigest)
         val bos = BufferedOutputStream(dos)
         try {
             outputPlanGroupAndEntries(bos)
@@ -181,12 +193,7 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
         // Output header for real output, containing content hash
         pho = DatabaseHeaderOutputKDB(header, outputStream)
         try {
-            pho.outputStart()
-            dos.on(false)
-            pho.outputContentHash()
-            dos.on(true)
-            pho.outputEnd()
-            dos.flush()
+            pho.output()
         } catch (e: IOException) {
             throw DatabaseOutputException(e)
         }
@@ -211,7 +218,7 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
         }
 
         // Groups
-        mDatabaseKDB.doForEachGroupInIndex { group ->
+        for (group in mGroupsForOutput) {
             val pgo = GroupOutputKDB(group, os)
             try {
                 pgo.output()
@@ -230,22 +237,20 @@ class DatabaseOutputKDB(private val mDatabaseKDB: DatabaseKDB,
     }
 
     private fun sortGroupsForOutput() {
-        val groupList = ArrayList<GroupKDB>()
-        // Rebuild list according to coalation sorting order removing any orphaned groups
-        for (rootGroup in mDatabaseKDB.rootGroups) {
-            sortGroup(rootGroup, groupList)
+        val groupList = ArrayList<GroupKDB>(mDatabaseKDB.numberOfGroups())
+        // Pre-order walk of the tree, with a stack to visit the children in their natural order
+        val groupStack = Stack<GroupKDB>()
+        mDatabaseKDB.rootGroups.asReversed().forEach { groupStack.push(it) }
+        while (groupStack.isNotEmpty()) {
+            val group = groupStack.pop()
+            groupList.add(group)
+            group.getChildGroups().asReversed().forEach { groupStack.push(it) }
         }
-        mDatabaseKDB.setGroupIndexes(groupList)
-    }
-
-    private fun sortGroup(group: GroupKDB, groupList: MutableList<GroupKDB>) {
-        // Add current tree
-        groupList.add(group)
-
-        // Recurse over children
-        for (childGroup in group.getChildGroups()) {
-            sortGroup(childGroup, groupList)
+        // Rebuild the index only if orphaned groups are present
+        if (groupList.size != mDatabaseKDB.numberOfGroups()) {
+            mDatabaseKDB.setGroupIndexes(groupList)
         }
+        mGroupsForOutput = groupList
     }
 
     private fun getHeaderHashBuffer(headerDigest: ByteArray): ByteArray? {
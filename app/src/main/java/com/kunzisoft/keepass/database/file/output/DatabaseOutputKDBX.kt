@@ -37,7 +37,9 @@ import com.kunzisoft.keepass.database.element.entry.AutoType
 import com.kunzisoft.keepass.database.element.entry.EntryKDBX
 import com.kunzisoft.keepass.database.element.group.GroupKDBX
 import com.kunzisoft.keepass.database.element.icon.IconImageCustom
+import com.kunzisoft.keepass.database.element.node.NodeId
 import com.kunzisoft.keepass.database.element.node.NodeKDBXInterface
+import com.kunzisoft.keepass.database.element.node.NodeVersioned
 import com.kunzisoft.keepass.database.element.security.BinaryAttachment
 import com.kunzisoft.keepass.database.element.security.MemoryProtectionConfig
 import com.kunzisoft.keepass.database.element.security.ProtectedString
@@ -46,12 +48,17 @@ import com.kunzisoft.keepass.database.exception.UnknownKDF
 import com.kunzisoft.keepass.database.file.DatabaseHeaderKDBX
 import com.kunzisoft.keepass.database.file.DatabaseKDBXXML
 import com.kunzisoft.keepass.database.file.DateKDBXUtil
+import com.kunzisoft.keepass.database.file.output.DatabaseOutputCacheKDBX.Fragment
+import com.kunzisoft.keepass.database.file.output.DatabaseOutputCacheKDBX.Placeholder
 import com.kunzisoft.keepass.stream.*
 import org.joda.time.DateTime
 import org.spongycastle.crypto.StreamCipher
 import org.xmlpull.v1.XmlSerializer
+import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
 import java.security.SecureRandom
 import java.util.*
@@ -62,7 +69,8 @@ import javax.crypto.CipherOutputStream
 
 
 class DatabaseOutputKDBX(private val mDatabaseKDBX: DatabaseKDBX,
-                         outputStream: OutputStream)
+                         outputStream: OutputStream,
+                         private val mOutputCache: DatabaseOutputCacheKDBX = DatabaseOutputCacheKDBX())
     : DatabaseOutput<DatabaseHeaderKDBX>(outputStream) {
 
     private var randomStream: StreamCipher? = null
@@ -72,10 +80,61 @@ class DatabaseOutputKDBX(private val mDatabaseKDBX: DatabaseKDBX,
     private var headerHmac: ByteArray? = null
     private var engine: CipherEngine? = null
 
+    // Each part of the XML is first serialized in a fragment
+    private val mFragmentStream = ByteArrayOutputStream()
+    private val mFragmentWriter = OutputStreamWriter(mFragmentStream, "UTF-8")
+    private var mPlaceholders = ArrayList<Placeholder>()
+    // Serialized to build the database signature, then written as is in the output
+    private var mMetaFragment: Fragment? = null
+    private var mDeletedObjectsFragment: Fragment? = null
+
+    /**
+     * Compare the database with the state of the last output done with the same cache
+     * @return true if the database must be written, false if the file is already up to date
+     */
+    @Throws(DatabaseOutputException::class)
+    fun isModifiedSinceLastOutput(): Boolean {
+        val lastSignature = mOutputCache.databaseSignature ?: return true
+        var nodeModified = false
+        mDatabaseKDBX.rootGroup?.doForEachChildAndForIt(
+                object : NodeHandler<EntryKDBX>() {
+                    override fun operate(node: EntryKDBX): Boolean {
+                        nodeModified = nodeModified || node.isModifiedSinceLastSave
+                        return !nodeModified
+                    }
+                },
+                object : NodeHandler<GroupKDBX>() {
+                    override fun operate(node: GroupKDBX): Boolean {
+                        nodeModified = nodeModified || node.isModifiedSinceLastSave
+                        return !nodeModified
+                    }
+                })
+        if (nodeModified)
+            return true
+        try {
+            return !MessageDigest.isEqual(lastSignature, buildDatabaseSignature())
+        } catch (e: IOException) {
+            throw DatabaseOutputException(e)
+        } catch (e: IllegalArgumentException) {
+            throw DatabaseOutputException(e)
+        } catch (e: IllegalStateException) {
+            throw DatabaseOutputException(e)
+        }
+    }
+
     @Throws(DatabaseOutputException::class)
     override fun output() {
 
         try {
+            // Must be computed before the header output
+            val databaseSignature = try {
+                buildDatabaseSignature()
+            } catch (e: IllegalArgumentException) {
+                throw DatabaseOutputException(e)
+            } catch (e: IllegalStateException) {
+                throw DatabaseOutputException(e)
+            }
+
             try {
                 engine = CipherFactory.getInstance(mDatabaseKDBX.dataCipher)
             } catch (e: NoSuchAlgorithmException) {
@@ -110,7 +169,7 @@ class DatabaseOutputKDBX(private val mDatabaseKDBX: DatabaseKDBX,
                     ihOut.output()
                 }
 
-                outputDatabase(osXml)
+                outputDatabase(osXml, databaseSignature)
                 osXml.close()
             } catch (e: IllegalArgumentException) {
                 throw DatabaseOutputException(e)
@@ -123,74 +182,208 @@ class DatabaseOutputKDBX(private val mDatabaseKDBX: DatabaseKDBX,
         }
     }
 
-    @Throws(IllegalArgumentException::class, IllegalStateException::class, IOException::class)
-    private fun outputDatabase(outputStream: OutputStream) {
+    /**
+     * Parameters which change the serialization of each node
+     */
+    private fun buildFormatSignature(): String {
+        val memoryProtection = mDatabaseKDBX.memoryProtection
+        return "${header!!.version}" +
+                ":${mDatabaseKDBX.compressionAlgorithm.name}" +
+                ":${mDatabaseKDBX.binaryPool.findUnusedKey()}" +
+                ":${memoryProtection.protectTitle}" +
+                ":${memoryProtection.protectUserName}" +
+                ":${memoryProtection.protectPassword}" +
+                ":${memoryProtection.protectUrl}" +
+                ":${memoryProtection.protectNotes}"
+    }
 
+    /**
+     * Digest of the elements which are not cached in fragments (header parameters, meta and deleted objects)
+     */
+    @Throws(IllegalArgumentException::class, IllegalStateException::class, IOException::class)
+    private fun buildDatabaseSignature(): ByteArray {
+        val messageDigest: MessageDigest
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256")
+        } catch (e: NoSuchAlgorithmException) {
+            throw IOException("SHA-256 not supported")
+        }
+        // Header not yet randomized, only used to retrieve the version
+        header = DatabaseHeaderKDBX(mDatabaseKDBX)
         xml = Xml.newSerializer()
+        messageDigest.update(buildFormatSignature().toByteArray())
+        messageDigest.update(mDatabaseKDBX.masterKey)
+        messageDigest.update(uuidTo16Bytes(mDatabaseKDBX.dataCipher))
+        mDatabaseKDBX.kdfParameters?.let {
+            messageDigest.update(uuidTo16Bytes(it.uuid))
+        }
+        messageDigest.update(longTo8Bytes(mDatabaseKDBX.numberKeyEncryptionRounds))
+        messageDigest.update(longTo8Bytes(mDatabaseKDBX.memoryUsage))
+        messageDigest.update(longTo8Bytes(mDatabaseKDBX.parallelism.toLong()))
+        val metaFragment = buildFragment { writeMeta() }
+        val deletedObjectsFragment = buildFragment { writeDeletedObjects(mDatabaseKDBX.deletedObjects) }
+        messageDigest.update(metaFragment.data)
+        messageDigest.update(deletedObjectsFragment.data)
+        mMetaFragment = metaFragment
+        mDeletedObjectsFragment = deletedObjectsFragment
+        return messageDigest.digest()
+    }
 
-        xml.setOutput(outputStream, "UTF-8")
-        xml.startDocument("UTF-8", true)
+    @Throws(IllegalArgumentException::class, IllegalStateException::class, IOException::class)
+    private fun outputDatabase(outputStream: OutputStream, databaseSignature: ByteArray) {
 
-        xml.startTag(null, DatabaseKDBXXML.ElemDocNode)
+        xml = Xml.newSerializer()
 
-        writeMeta()
+        val formatSignature = buildFormatSignature()
+        val reuseFragments = formatSignature == mOutputCache.formatSignature
+        val groupFragments = HashMap<NodeId<UUID>, Fragment>()
+        val entryFragments = HashMap<NodeId<UUID>, Fragment>()
+        // Modification count of each node read before its serialization
+        val nodesSaved = ArrayList<Pair<NodeVersioned<UUID, GroupKDBX, EntryKDBX>, Long>>()
+
+        outputFragment(buildFragment {
+            xml.startDocument("UTF-8", true)
+            xml.startTag(null, DatabaseKDBXXML.ElemDocNode)
+        }, outputStream)
+        // Meta and deleted objects were serialized with the database signature
+        outputFragment(mMetaFragment!!, outputStream)
+        outputFragment(buildFragment {
+            xml.startTag(null, DatabaseKDBXXML.ElemRoot)
+        }, outputStream)
 
         mDatabaseKDBX.rootGroup?.let { root ->
-            xml.startTag(null, DatabaseKDBXXML.ElemRoot)
-            startGroup(root)
-            val groupStack = Stack<GroupKDBX>()
-            groupStack.push(root)
-
-            if (!root.doForEachChild(
-                            object : NodeHandler<EntryKDBX>() {
-                                override fun operate(node: EntryKDBX): Boolean {
-                                    try {
-                                        writeEntry(node, false)
-                                    } catch (ex: IOException) {
-                                        throw RuntimeException(ex)
-                                    }
-
-                                    return true
-                                }
-                            },
-                            object : NodeHandler<GroupKDBX>() {
-                                override fun operate(node: GroupKDBX): Boolean {
-                                    while (true) {
-                                        try {
-                                            if (node.parent === groupStack.peek()) {
-                                                groupStack.push(node)
-                                                startGroup(node)
-                                                break
-                                            } else {
-                                                groupStack.pop()
-                                                if (groupStack.size <= 0) return false
-                                                endGroup()
-                                            }
-                                        } catch (e: IOException) {
-                                            throw RuntimeException(e)
-                                        }
-
-                                    }
-                                    return true
-                                }
-                            })
-            )
-                throw RuntimeException("Writing groups failed")
+            outputGroup(root, outputStream) { node, writeNode ->
+                val previousFragments = if (node is GroupKDBX)
+                    mOutputCache.groupFragments else mOutputCache.entryFragments
+                val newFragments = if (node is GroupKDBX)
+                    groupFragments else entryFragments
+                val modificationCount = node.modificationCount
+                // Only serialize the node again if modified
+                val fragment = (if (reuseFragments && !node.isModifiedSinceLastSave)
+                    previousFragments[node.nodeId] else null)
+                        ?: buildFragment(writeNode)
+                newFragments[node.nodeId] = fragment
+                nodesSaved.add(Pair(node, modificationCount))
+                fragment
+            }
+        }
+
+        outputFragment(mDeletedObjectsFragment!!, outputStream)
+        outputStream.write(("</" + DatabaseKDBXXML.ElemRoot + ">"
+                + "</" + DatabaseKDBXXML.ElemDocNode + ">").toByteArray())
+        outputStream.flush()
+
+        // Output completed, the cache represents the file
+        mOutputCache.replaceBy(formatSignature, groupFragments, entryFragments, databaseSignature)
+        for ((node, modificationCount) in nodesSaved) {
+            node.markAsSaved(modificationCount)
+        }
+    }
+
+    @Throws(IllegalArgumentException::class, IllegalStateException::class, IOException::class)
+    private fun outputGroup(group: GroupKDBX,
+                            outputStream: OutputStream,
+                            retrieveFragment: (node: NodeVersioned<UUID, GroupKDBX, EntryKDBX>,
+                                               writeNode: () -> Unit) -> Fragment) {
+        outputFragment(retrieveFragment(group) { startGroup(group) }, outputStream)
+        for (entry in group.getChildEntries()) {
+            outputFragment(retrieveFragment(entry) { writeEntry(entry, false) }, outputStream)
+        }
+        for (childGroup in group.getChildGroups()) {
+            outputGroup(childGroup, outputStream, retrieveFragment)
+        }
+        outputStream.write(("</" + DatabaseKDBXXML.ElemGroup + ">").toByteArray())
+    }
 
-            while (groupStack.size > 1) {
-                xml.endTag(null, DatabaseKDBXXML.ElemGroup)
-                groupStack.pop()
+    /**
+     * Serialize an XML part with the [write] function, the serializer is reset for each fragment
+     */
+    @Throws(IllegalArgumentException::class, IllegalStateException::class, IOException::class)
+    private fun buildFragment(write: () -> Unit): Fragment {
+        mFragmentStream.reset()
+        mPlaceholders = ArrayList()
+        xml.setOutput(mFragmentWriter)
+        write()
+        xml.flush()
+        return Fragment(mFragmentStream.toByteArray(), mPlaceholders)
+    }
+
+    /**
+     * Retain the value at the current position of the fragment, to write it in the final output
+     */
+    @Throws(IllegalArgumentException::class, IllegalStateException::class, IOException::class)
+    private fun addPlaceholder(protectedString: ProtectedString? = null,
+                               binary: BinaryAttachment? = null,
+                               headerHash: Boolean = false) {
+        // Close the pending start tag
+        xml.flush()
+        mPlaceholders.add(Placeholder(mFragmentStream.size(), protectedString, binary, headerHash))
+    }
+
+    /**
+     * Write the fragment and its placeholders, protected values are encrypted in the document order
+     */
+    @Throws(IOException::class)
+    private fun outputFragment(fragment: Fragment, outputStream: OutputStream) {
+        var position = 0
+        for (placeholder in fragment.placeholders) {
+            outputStream.write(fragment.data, position, placeholder.position - position)
+            placeholder.protectedString?.let {
+                outputProtectedString(it, outputStream)
+            }
+            placeholder.binary?.let {
+                outputBinary(it, outputStream)
+            }
+            if (placeholder.headerHash) {
+                hashOfHeader?.let {
+                    outputHeaderHash(it, outputStream)
+                }
             }
+            position = placeholder.position
         }
+        outputStream.write(fragment.data, position, fragment.data.size - position)
+    }
+
+    @Throws(IOException::class)
+    private fun outputProtectedString(value: ProtectedString, outputStream: OutputStream) {
+        val data = value.toString().toByteArray(charset("UTF-8"))
+        val valLength = data.size
 
-        endGroup()
+        if (valLength > 0) {
+            val encoded = ByteArray(valLength)
+            randomStream!!.processBytes(data, 0, valLength, encoded, 0)
+            outputStream.write(Base64.encode(encoded, BASE_64_FLAG))
+        }
+    }
 
-        writeDeletedObjects(mDatabaseKDBX.deletedObjects)
+    @Throws(IOException::class)
+    private fun outputHeaderHash(hashOfHeader: ByteArray, outputStream: OutputStream) {
+        outputStream.write(("<" + DatabaseKDBXXML.ElemHeaderHash + ">"
+                + String(Base64.encode(hashOfHeader, BASE_64_FLAG))
+                + "</" + DatabaseKDBXXML.ElemHeaderHash + ">").toByteArray())
+    }
 
-        xml.endTag(null, DatabaseKDBXXML.ElemRoot)
+    @Throws(IOException::class)
+    private fun outputBinary(binary: BinaryAttachment, outputStream: OutputStream) {
+        if (binary.isProtected) {
+            binary.getInputDataStream().readBytes(BUFFER_SIZE_BYTES) { buffer ->
+                val encoded = ByteArray(buffer.size)
+                randomStream!!.processBytes(buffer, 0, encoded.size, encoded, 0)
+                outputStream.write(Base64.encode(encoded, BASE_64_FLAG))
+            }
+        } else {
+            // Force decompression in this specific case
+            val binaryInputStream = if (mDatabaseKDBX.compressionAlgorithm == CompressionAlgorithm.None
+                    && binary.isCompressed == true) {
+                GZIPInputStream(binary.getInputDataStream())
+            } else {
+                binary.getInputDataStream()
+            }
 
-        xml.endTag(null, DatabaseKDBXXML.ElemDocNode)
-        xml.endDocument()
+            binaryInputStream.readBytes(BUFFER_SIZE_BYTES) { buffer ->
+                outputStream.write(Base64.encode(buffer, BASE_64_FLAG))
+            }
+        }
     }
 
     @Throws(IllegalArgumentException::class, IllegalStateException::class, IOException::class)
@@ -199,9 +392,8 @@ class DatabaseOutputKDBX(private val mDatabaseKDBX: DatabaseKDBX,
 
         writeObject(DatabaseKDBXXML.ElemGenerator, mDatabaseKDBX.localizedAppName)
 
-        if (hashOfHeader != null) {
-            writeObject(DatabaseKDBXXML.ElemHeaderHash, String(Base64.encode(hashOfHeader!!, BASE_64_FLAG)))
-        }
+        // Hash of the header written after, the meta is serialized before the header output
+        addPlaceholder(headerHash = true)
 
         writeObject(DatabaseKDBXXML.ElemDbName, mDatabaseKDBX.name, true)
         writeObject(DatabaseKDBXXML.ElemDbNameChanged, mDatabaseKDBX.nameChanged.date)
@@ -425,33 +617,14 @@ class DatabaseOutputKDBX(private val mDatabaseKDBX: DatabaseKDBX,
 
             if (binary.isProtected) {
                 xml.attribute(null, DatabaseKDBXXML.AttrProtected, DatabaseKDBXXML.ValTrue)
-
-                binary.getInputDataStream().readBytes(BUFFER_SIZE_BYTES) { buffer ->
-                    val encoded = ByteArray(buffer.size)
-                    randomStream!!.processBytes(buffer, 0, encoded.size, encoded, 0)
-                    val charArray = String(Base64.encode(encoded, BASE_64_FLAG)).toCharArray()
-                    xml.text(charArray, 0, charArray.size)
-                }
             } else {
                 // Force binary compression from database (compression was harmonized during import)
                 if (mDatabaseKDBX.compressionAlgorithm === CompressionAlgorithm.GZip) {
                     xml.attribute(null, DatabaseKDBXXML.AttrCompressed, DatabaseKDBXXML.ValTrue)
                 }
-
-                // Force decompression in this specific case
-                val binaryInputStream = if (mDatabaseKDBX.compressionAlgorithm == CompressionAlgorithm.None
-                                && binary.isCompressed == true) {
-                    GZIPInputStream(binary.getInputDataStream())
-                } else {
-                    binary.getInputDataStream()
-                }
-
-                // Write the XML
-                binaryInputStream.readBytes(BUFFER_SIZE_BYTES) { buffer ->
-                    val charArray = String(Base64.encode(buffer, BASE_64_FLAG)).toCharArray()
-                    xml.text(charArray, 0, charArray.size)
-                }
             }
+            // Content streamed in the final output
+            addPlaceholder(binary = binary)
         }
     }
 
@@ -531,15 +704,8 @@ class DatabaseOutputKDBX(private val mDatabaseKDBX: DatabaseKDBX,
 
         if (protect) {
             xml.attribute(null, DatabaseKDBXXML.AttrProtected, DatabaseKDBXXML.ValTrue)
-
-            val data = value.toString().toByteArray(charset("UTF-8"))
-            val valLength = data.size
-
-            if (valLength > 0) {
-                val encoded = ByteArray(valLength)
-                randomStream!!.processBytes(data, 0, valLength, encoded, 0)
-                xml.text(String(Base64.encode(encoded, BASE_64_FLAG)))
-            }
+            // Encrypted with the inner random stream in the final output
+            addPlaceholder(protectedString = value)
         } else {
             xml.text(safeXmlString(value.toString()))
         }
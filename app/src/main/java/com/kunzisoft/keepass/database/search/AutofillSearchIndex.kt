@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import android.util.Log
+import com.kunzisoft.keepass.BuildConfig
+import com.kunzisoft.keepass.database.action.node.NodeHandler
+import com.kunzisoft.keepass.database.element.Database
+import com.kunzisoft.keepass.database.element.DatabaseChange
+import com.kunzisoft.keepass.database.element.DatabaseChangeListener
+import com.kunzisoft.keepass.database.element.Entry
+import com.kunzisoft.keepass.database.element.Group
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.element.node.NodeId
+import com.kunzisoft.keepass.model.SearchInfo
+import java.net.URI
+import java.net.URISyntaxException
+import java.util.*
+
+/**
+ * Index of the entries by registrable domain of their URLs and by Android application id,
+ * to retrieve the entries of an autofill request without searching the text of each entry.
+ *
+ * The domain of "https://accounts.example.co.uk/login" is "example.co.uk",
+ * application ids are read in the "androidapp://" URLs and in the "AndroidApp" fields.
+ *
+ * The index is built in background after the database is loaded, then updated by the
+ * changes of entries published by the database, [isReady] is false before the end of the build.
+ */
+class AutofillSearchIndex : DatabaseChangeListener {
+
+    private val entriesByDomain = HashMap<String, LinkedHashSet<Entry>>()
+    private val entriesByApplicationId = HashMap<String, LinkedHashSet<Entry>>()
+    // Keys of each indexed entry, to remove the entry without reading its old fields
+    private val domainsByEntry = HashMap<NodeId<UUID>, Set<String>>()
+    private val applicationIdsByEntry = HashMap<NodeId<UUID>, Set<String>>()
+
+    @Volatile
+    var isReady = false
+        private set
+    // Incremented by each clear, a build only publishes the index of its own generation
+    @Volatile
+    private var buildGeneration = 0
+
+    /**
+     * Build the index with all the entries of [rootGroup] in a background thread
+     */
+    fun buildInBackground(rootGroup: Group?) {
+        clear()
+        val generation = buildGeneration
+        Thread({
+            val startTime = System.currentTimeMillis()
+            // Nodes are not modified during the build
+            Database.getInstance().doWithReadLock {
+                synchronized(this) {
+                    if (generation != buildGeneration)
+                        return@synchronized
+                    rootGroup?.doForEachChild(
+                            object : NodeHandler<Entry>() {
+                                override fun operate(node: Entry): Boolean {
+                                    if (generation != buildGeneration)
+                                        return false
+                                    indexEntry(node)
+                                    return true
+                                }
+                            },
+                            null)
+                    isReady = generation == buildGeneration
+                }
+            }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Autofill index built in " + (System.currentTimeMillis() - startTime) + " ms")
+        }, TAG).start()
+    }
+
+    @Synchronized
+    fun addEntry(entry: Entry) {
+        indexEntry(entry)
+    }
+
+    @Synchronized
+    fun updateEntry(entry: Entry) {
+        indexEntry(entry)
+    }
+
+    @Synchronized
+    fun removeEntry(entry: Entry) {
+        unindexEntry(entry.nodeId)
+    }
+
+    override fun onDatabaseChanged(change: DatabaseChange) {
+        when (change) {
+            is DatabaseChange.NodeAdded -> (change.node as? Entry)?.let { addEntry(it) }
+            is DatabaseChange.NodeUpdated -> (change.node as? Entry)?.let { updateEntry(it) }
+            is DatabaseChange.NodeDeleted -> (change.node as? Entry)?.let { removeEntry(it) }
+            else -> {}
+        }
+    }
+
+    fun clear() {
+        buildGeneration++
+        synchronized(this) {
+            isReady = false
+            entriesByDomain.clear()
+            entriesByApplicationId.clear()
+            domainsByEntry.clear()
+            applicationIdsByEntry.clear()
+        }
+    }
+
+    /**
+     * Retrieve the entries of the web domain of [searchInfo], or of its application id if there is no web domain
+     * @param accept Additional condition of the search
+     * @param max Maximum number of entries to retrieve
+     */
+    @Synchronized
+    fun search(searchInfo: SearchInfo,
+               max: Int = Int.MAX_VALUE,
+               accept: ((Entry) -> Boolean)? = null): List<Entry> {
+        val webDomain = searchInfo.webDomain
+        val indexedEntries = if (webDomain != null) {
+            entriesByDomain[PublicSuffixTrie.registrableDomain(webDomain)]
+        } else {
+            searchInfo.applicationId?.let {
+                entriesByApplicationId[it.toLowerCase(Locale.ROOT)]
+            }
+        }
+        val entries = ArrayList<Entry>()
+        indexedEntries?.let {
+            for (entry in it) {
+                if (entries.size >= max)
+                    break
+                if (accept == null || accept.invoke(entry))
+                    entries.add(entry)
+            }
+        }
+        return entries
+    }
+
+    private fun indexEntry(entry: Entry) {
+        val nodeId = entry.nodeId
+        unindexEntry(nodeId)
+
+        val domains = HashSet<String>()
+        val applicationIds = HashSet<String>()
+        for (url in urlsOf(entry)) {
+            val trimmedUrl = url.trim()
+            if (trimmedUrl.startsWith(ANDROID_APP_SCHEME, true)) {
+                addApplicationId(applicationIds, trimmedUrl.substring(ANDROID_APP_SCHEME.length))
+            } else {
+                hostOf(trimmedUrl)?.let { domains.add(PublicSuffixTrie.registrableDomain(it)) }
+            }
+        }
+        entry.entryKDBX?.fields?.forEach { (key, value) ->
+            if (key.startsWith(ANDROID_APP_FIELD_PREFIX, true))
+                addApplicationId(applicationIds, value.toString())
+        }
+
+        for (domain in domains) {
+            entriesByDomain.getOrPut(domain) { LinkedHashSet() }.add(entry)
+        }
+        for (applicationId in applicationIds) {
+            entriesByApplicationId.getOrPut(applicationId) { LinkedHashSet() }.add(entry)
+        }
+        if (domains.isNotEmpty())
+            domainsByEntry[nodeId] = domains
+        if (applicationIds.isNotEmpty())
+            applicationIdsByEntry[nodeId] = applicationIds
+    }
+
+    private fun unindexEntry(nodeId: NodeId<UUID>) {
+        domainsByEntry.remove(nodeId)?.let { removeFrom(entriesByDomain, it, nodeId) }
+        applicationIdsByEntry.remove(nodeId)?.let { removeFrom(entriesByApplicationId, it, nodeId) }
+    }
+
+    private fun removeFrom(entriesByKey: HashMap<String, LinkedHashSet<Entry>>,
+                           keys: Set<String>,
+                           nodeId: NodeId<UUID>) {
+        for (key in keys) {
+            entriesByKey[key]?.let { entries ->
+                entries.removeAll { it.nodeId == nodeId }
+                if (entries.isEmpty())
+                    entriesByKey.remove(key)
+            }
+        }
+    }
+
+    companion object {
+        private val TAG = AutofillSearchIndex::class.java.name
+
+        private const val ANDROID_APP_SCHEME = "androidapp://"
+        private const val ANDROID_APP_FIELD_PREFIX = "AndroidApp"
+        private const val URL_FIELD_PREFIX = "KP2A_URL"
+
+        private fun addApplicationId(applicationIds: MutableSet<String>, value: String) {
+            val applicationId = value.trim().removePrefix(ANDROID_APP_SCHEME).toLowerCase(Locale.ROOT)
+            if (applicationId.isNotEmpty())
+                applicationIds.add(applicationId)
+        }
+
+        /**
+         * Main URL of the entry and additional URLs of the fields "KP2A_URL"
+         */
+        private fun urlsOf(entry: Entry): List<String> {
+            val urls = ArrayList<String>()
+            entry.entryKDB?.let { urls.add(it.url) }
+            entry.entryKDBX?.fields?.forEach { (key, value) ->
+                if (key == EntryKDBX.STR_URL || key.startsWith(URL_FIELD_PREFIX))
+                    urls.add(value.toString())
+            }
+            return urls.filter { it.isNotBlank() }
+        }
+
+        private fun hostOf(url: String): String? {
+            val urlWithScheme = if (url.contains("://")) url else "http://$url"
+            return try {
+                URI(urlWithScheme).host
+            } catch (e: URISyntaxException) {
+                null
+            }
+        }
+    }
+}
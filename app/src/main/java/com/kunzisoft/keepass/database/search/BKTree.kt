@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import android.util.SparseArray
+import java.util.*
+
+/**
+ * Burkhard-Keller tree of keys with the Levenshtein distance, each key is associated with a set of values,
+ * to retrieve the values of the keys near a query without computing the distance of each key.
+ *
+ * A key without value is kept to route the searches, the tree is rebuilt when
+ * too many keys are empty.
+ */
+class BKTree<V> {
+
+    private class Node<V>(val key: String) {
+        val values = HashSet<V>()
+        val children = SparseArray<Node<V>>()
+    }
+
+    private var root: Node<V>? = null
+    private var numberOfNodes = 0
+    private var numberOfEmptyNodes = 0
+
+    fun add(key: String, value: V) {
+        val currentRoot = root
+        if (currentRoot == null) {
+            root = Node<V>(key).also { it.values.add(value) }
+            numberOfNodes++
+            return
+        }
+        var node: Node<V> = currentRoot
+        while (true) {
+            val distance = levenshteinDistance(key, node.key)
+            if (distance == 0) {
+                if (node.values.isEmpty())
+                    numberOfEmptyNodes--
+                node.values.add(value)
+                return
+            }
+            val child = node.children.get(distance)
+            if (child == null) {
+                node.children.put(distance, Node<V>(key).also { it.values.add(value) })
+                numberOfNodes++
+                return
+            }
+            node = child
+        }
+    }
+
+    fun remove(key: String, value: V) {
+        var node: Node<V>? = root
+        while (node != null) {
+            val distance = levenshteinDistance(key, node.key)
+            if (distance == 0) {
+                if (node.values.remove(value) && node.values.isEmpty()) {
+                    numberOfEmptyNodes++
+                    if (numberOfNodes > MIN_NODES_TO_REBUILD && numberOfEmptyNodes * 2 > numberOfNodes)
+                        rebuild()
+                }
+                return
+            }
+            node = node.children.get(distance)
+        }
+    }
+
+    /**
+     * Values of the keys at a distance of [query] lower or equal to [maxDistance], with the smallest distance of each value
+     */
+    fun search(query: String, maxDistance: Int): Map<V, Int> {
+        val results = HashMap<V, Int>()
+        val nodesToVisit = Stack<Node<V>>()
+        root?.let { nodesToVisit.push(it) }
+        while (nodesToVisit.isNotEmpty()) {
+            val node = nodesToVisit.pop()
+            val distance = levenshteinDistance(query, node.key)
+            if (distance <= maxDistance) {
+                for (value in node.values) {
+                    val previousDistance = results[value]
+                    if (previousDistance == null || distance < previousDistance)
+                        results[value] = distance
+                }
+            }
+            // Triangle inequality, only children in [distance - max, distance + max] can be near the query
+            for (i in 0 until node.children.size()) {
+                val childDistance = node.children.keyAt(i)
+                if (childDistance >= distance - maxDistance && childDistance <= distance + maxDistance)
+                    nodesToVisit.push(node.children.valueAt(i))
+            }
+        }
+        return results
+    }
+
+    fun clear() {
+        root = null
+        numberOfNodes = 0
+        numberOfEmptyNodes = 0
+    }
+
+    private fun rebuild() {
+        val nodes = ArrayList<Node<V>>()
+        val nodesToVisit = Stack<Node<V>>()
+        root?.let { nodesToVisit.push(it) }
+        while (nodesToVisit.isNotEmpty()) {
+            val node = nodesToVisit.pop()
+            if (node.values.isNotEmpty())
+                nodes.add(node)
+            for (i in 0 until node.children.size()) {
+                nodesToVisit.push(node.children.valueAt(i))
+            }
+        }
+        clear()
+        for (node in nodes) {
+            for (value in node.values) {
+                add(node.key, value)
+            }
+        }
+    }
+
+    companion object {
+
+        private const val MIN_NODES_TO_REBUILD = 64
+
+        fun levenshteinDistance(first: String, second: String): Int {
+            if (first == second)
+                return 0
+            if (first.isEmpty())
+                return second.length
+            if (second.isEmpty())
+                return first.length
+
+            var previousRow = IntArray(second.length + 1) { it }
+            var currentRow = IntArray(second.length + 1)
+            for (i in 1..first.length) {
+                currentRow[0] = i
+                for (j in 1..second.length) {
+                    val cost = if (first[i - 1] == second[j - 1]) 0 else 1
+                    currentRow[j] = minOf(previousRow[j] + 1,
+                            currentRow[j - 1] + 1,
+                            previousRow[j - 1] + cost)
+                }
+                val row = previousRow
+                previousRow = currentRow
+                currentRow = row
+            }
+            return previousRow[second.length]
+        }
+    }
+}
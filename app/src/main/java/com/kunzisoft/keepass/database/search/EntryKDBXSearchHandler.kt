@@ -19,79 +19,97 @@
  */
 package com.kunzisoft.keepass.database.search
 
+import android.util.Log
 import com.kunzisoft.keepass.database.action.node.NodeHandler
 import com.kunzisoft.keepass.database.element.entry.EntryKDBX
 import com.kunzisoft.keepass.database.search.iterator.EntrySearchStringIteratorKDBX
 import com.kunzisoft.keepass.utils.StringUtil
 
 import java.util.Locale
+import java.util.regex.PatternSyntaxException
 
 class EntryKDBXSearchHandler(private val mSearchParametersKDBX: SearchParametersKDBX, private val mListStorage: MutableList<EntryKDBX>) : NodeHandler<EntryKDBX>() {
 
+    // Term is the same for each entry
+    private val mTerm = mSearchParametersKDBX.searchString
+    // Compiled only one time, null if the search is not a valid regular expression
+    private val mPattern: SearchPattern? = if (mSearchParametersKDBX.regularExpression) {
+        try {
+            SearchPattern.compile(mTerm, mSearchParametersKDBX.ignoreCase)
+        } catch (e: PatternSyntaxException) {
+            Log.w(TAG, "Unable to compile the search pattern", e)
+            null
+        }
+    } else null
+
     override fun operate(node: EntryKDBX): Boolean {
+        if (matches(node))
+            mListStorage.add(node)
+        return true
+    }
+
+    /**
+     * Thread-safe condition of the search, without adding the entry in the list storage
+     */
+    fun matches(node: EntryKDBX): Boolean {
 
         if (mSearchParametersKDBX.excludeExpired
                 && node.isCurrentlyExpires) {
-            return true
+            return false
         }
 
-        var term = mSearchParametersKDBX.searchString
-        if (mSearchParametersKDBX.ignoreCase) {
-            term = term.toLowerCase()
+        // An invalid regular expression matches nothing
+        if (mSearchParametersKDBX.regularExpression && mPattern == null) {
+            return false
         }
 
-        if (searchStrings(node, term)) {
-            mListStorage.add(node)
+        if (searchStrings(node)) {
             return true
         }
 
         if (mSearchParametersKDBX.searchInGroupNames) {
             val parent = node.parent
-            if (parent != null) {
-                var groupName = parent.title
-                if (mSearchParametersKDBX.ignoreCase) {
-                    groupName = groupName.toLowerCase()
-                }
-
-                if (groupName.contains(term)) {
-                    mListStorage.add(node)
-                    return true
-                }
+            if (parent != null && matchesString(parent.title)) {
+                return true
             }
         }
 
         if (searchID(node)) {
-            mListStorage.add(node)
             return true
         }
 
-        return true
+        return false
+    }
+
+    private fun matchesString(str: String): Boolean {
+        return mPattern?.matches(str)
+                ?: str.contains(mTerm, mSearchParametersKDBX.ignoreCase)
     }
 
     private fun searchID(entry: EntryKDBX): Boolean {
         if (mSearchParametersKDBX.searchInUUIDs) {
             val hex = UuidUtil.toHexString(entry.id)
+            if (mPattern != null)
+                return hex != null && mPattern.matches(hex)
             return StringUtil.indexOfIgnoreCase(hex, mSearchParametersKDBX.searchString, Locale.ENGLISH) >= 0
         }
 
         return false
     }
 
-    private fun searchStrings(entry: EntryKDBX, term: String): Boolean {
+    private fun searchStrings(entry: EntryKDBX): Boolean {
         val iterator = EntrySearchStringIteratorKDBX(entry, mSearchParametersKDBX)
         while (iterator.hasNext()) {
-            var str = iterator.next()
-            if (str.isNotEmpty()) {
-                if (mSearchParametersKDBX.ignoreCase) {
-                    str = str.toLowerCase()
-                }
-
-                if (str.contains(term)) {
-                    return true
-                }
+            val str = iterator.next()
+            if (str.isNotEmpty() && matchesString(str)) {
+                return true
             }
         }
 
         return false
     }
+
+    companion object {
+        private val TAG = EntryKDBXSearchHandler::class.java.name
+    }
 }
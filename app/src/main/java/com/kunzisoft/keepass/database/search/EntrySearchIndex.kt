@@ -0,0 +1,425 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import android.util.Log
+import com.kunzisoft.keepass.BuildConfig
+import com.kunzisoft.keepass.database.action.node.NodeHandler
+import com.kunzisoft.keepass.database.element.Database
+import com.kunzisoft.keepass.database.element.DatabaseChange
+import com.kunzisoft.keepass.database.element.DatabaseChangeListener
+import com.kunzisoft.keepass.database.element.Entry
+import com.kunzisoft.keepass.database.element.Group
+import com.kunzisoft.keepass.database.element.entry.EntryKDBX
+import com.kunzisoft.keepass.database.element.node.NodeId
+import java.net.URI
+import java.net.URISyntaxException
+import java.util.*
+
+/**
+ * Trigram inverted index of the searchable fields of the entries,
+ * a posting list of entries is kept for each trigram and each class of field.
+ *
+ * Text is lower-cased once when the entry is indexed, the trigrams of a term only select
+ * candidate entries, each candidate is verified with the indexed text.
+ * Passwords are never indexed.
+ *
+ * The index is built in background after the database is loaded, then updated by the
+ * changes of entries published by the database, [isReady] is false before the end of the build.
+ */
+class EntrySearchIndex : DatabaseChangeListener {
+
+    enum class Field {
+        TITLE, USERNAME, URL, NOTES, OTHER
+    }
+
+    /**
+     * Indexed entry with its lower-cased text by field
+     */
+    class Document(val entry: Entry, val texts: Array<String>)
+
+    private val documentIds = HashMap<NodeId<UUID>, Int>()
+    private val documents = ArrayList<Document?>()
+    private val freeDocumentIds = Stack<Int>()
+    private val postingLists = HashMap<Long, PostingList>()
+    // Words of the titles and URL hosts, for the typo-tolerant search
+    private val fuzzyTree = BKTree<Int>()
+
+    @Volatile
+    var isReady = false
+        private set
+    // Incremented by each clear, a build only publishes the index of its own generation
+    @Volatile
+    private var buildGeneration = 0
+
+    /**
+     * Incremented at each modification of the indexed entries
+     */
+    @Volatile
+    var version = 0L
+        private set
+
+    /**
+     * Build the index with all the entries of [rootGroup] in a background thread
+     */
+    fun buildInBackground(rootGroup: Group?) {
+        clear()
+        val generation = buildGeneration
+        Thread({
+            val startTime = System.currentTimeMillis()
+            // Nodes are not modified during the build
+            Database.getInstance().doWithReadLock {
+                synchronized(this) {
+                    if (generation != buildGeneration)
+                        return@synchronized
+                    rootGroup?.doForEachChild(
+                            object : NodeHandler<Entry>() {
+                                override fun operate(node: Entry): Boolean {
+                                    if (generation != buildGeneration)
+                                        return false
+                                    indexEntry(node)
+                                    return true
+                                }
+                            },
+                            null)
+                    isReady = generation == buildGeneration
+                }
+            }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Search index built in " + (System.currentTimeMillis() - startTime) + " ms")
+        }, TAG).start()
+    }
+
+    @Synchronized
+    fun addEntry(entry: Entry) {
+        indexEntry(entry)
+    }
+
+    @Synchronized
+    fun updateEntry(entry: Entry) {
+        indexEntry(entry)
+    }
+
+    @Synchronized
+    fun removeEntry(entry: Entry) {
+        unindexEntry(entry.nodeId)
+    }
+
+    override fun onDatabaseChanged(change: DatabaseChange) {
+        when (change) {
+            is DatabaseChange.NodeAdded -> (change.node as? Entry)?.let { addEntry(it) }
+            is DatabaseChange.NodeUpdated -> (change.node as? Entry)?.let { updateEntry(it) }
+            is DatabaseChange.NodeDeleted -> (change.node as? Entry)?.let { removeEntry(it) }
+            else -> {}
+        }
+    }
+
+    fun clear() {
+        buildGeneration++
+        synchronized(this) {
+            isReady = false
+            version++
+            documentIds.clear()
+            documents.clear()
+            freeDocumentIds.clear()
+            postingLists.clear()
+            fuzzyTree.clear()
+        }
+    }
+
+    /**
+     * Retrieve the entries which match all the terms of [query], in the order of the document ids
+     * @param accept Additional condition of the search, called only for entries matching the query
+     * @param max Maximum number of entries to retrieve
+     */
+    @Synchronized
+    fun search(query: SearchQuery,
+               max: Int = Int.MAX_VALUE,
+               accept: ((Entry) -> Boolean)? = null): List<Entry> {
+        val entries = ArrayList<Entry>()
+        if (query.terms.isEmpty())
+            return entries
+
+        val predicates = query.terms.map { term ->
+            if (term.scope.isIndexed) {
+                val candidates = retrieveCandidates(term.value, term.scope.fields)
+                SearchQueryPlanner.Predicate<Document>(term.negated, candidates.cardinality(), candidates) {
+                    term.matches(it.entry, it.texts)
+                }
+            } else {
+                // Not indexed, each document is tested
+                SearchQueryPlanner.Predicate<Document>(term.negated, documentIds.size) {
+                    term.matches(it.entry, it.texts)
+                }
+            }
+        }
+
+        val selection = SearchQueryPlanner.evaluate(documents, predicates)
+        var documentId = selection.nextSetBit(0)
+        while (documentId >= 0 && entries.size < max) {
+            documents[documentId]?.let { document ->
+                if (accept == null || accept.invoke(document.entry))
+                    entries.add(document.entry)
+            }
+            documentId = selection.nextSetBit(documentId + 1)
+        }
+        return entries
+    }
+
+    /**
+     * Retrieve the entries with a word of the title or the URL host near [term],
+     * sorted by distance then by last access time
+     * @param excluded Entries not to retrieve
+     */
+    @Synchronized
+    fun searchFuzzy(term: String,
+                    max: Int,
+                    excluded: Collection<Entry> = emptyList(),
+                    accept: ((Entry) -> Boolean)? = null): List<Entry> {
+        val lowerCaseTerm = term.toLowerCase(Locale.ROOT)
+        if (lowerCaseTerm.length < MIN_FUZZY_LENGTH)
+            return ArrayList()
+        val maxDistance = if (lowerCaseTerm.length <= SHORT_FUZZY_LENGTH) 1 else 2
+        val excludedEntries = HashSet(excluded)
+
+        return fuzzyTree.search(lowerCaseTerm, maxDistance).entries
+                .mapNotNull { (documentId, distance) ->
+                    documents[documentId]?.let { Pair(it.entry, distance) }
+                }
+                .filter { (entry, _) ->
+                    !excludedEntries.contains(entry) && (accept == null || accept.invoke(entry))
+                }
+                .sortedWith(compareBy<Pair<Entry, Int>> { it.second }
+                        .thenByDescending { it.first.lastAccessTime.date.time })
+                .take(max)
+                .map { it.first }
+    }
+
+    /**
+     * Documents which contain all the trigrams of the term in at least one field,
+     * all the documents if the term is too short to have a trigram
+     */
+    private fun retrieveCandidates(lowerCaseTerm: String, fields: EnumSet<Field>): BitSet {
+        val candidates = BitSet(documents.size)
+        if (lowerCaseTerm.length < TRIGRAM_LENGTH) {
+            documents.forEachIndexed { documentId, document ->
+                if (document != null)
+                    candidates.set(documentId)
+            }
+            return candidates
+        }
+
+        val trigrams = trigramsOf(lowerCaseTerm)
+        fields@ for (field in fields) {
+            val fieldPostingLists = ArrayList<PostingList>(trigrams.size)
+            for (trigram in trigrams) {
+                val postingList = postingLists[postingKey(trigram, field)]
+                if (postingList == null || postingList.size == 0)
+                    continue@fields
+                fieldPostingLists.add(postingList)
+            }
+            // Intersect from the smallest list
+            fieldPostingLists.sortBy { it.size }
+            val smallestList = fieldPostingLists[0]
+            documents@ for (index in 0 until smallestList.size) {
+                val documentId = smallestList.ids[index]
+                for (otherIndex in 1 until fieldPostingLists.size) {
+                    if (!fieldPostingLists[otherIndex].contains(documentId))
+                        continue@documents
+                }
+                candidates.set(documentId)
+            }
+        }
+        return candidates
+    }
+
+    private fun indexEntry(entry: Entry) {
+        val nodeId = entry.nodeId
+        unindexEntry(nodeId)
+
+        version++
+        val texts = textsOf(entry)
+        val documentId = if (freeDocumentIds.isEmpty()) {
+            documents.add(null)
+            documents.size - 1
+        } else {
+            freeDocumentIds.pop()
+        }
+        documents[documentId] = Document(entry, texts)
+        documentIds[nodeId] = documentId
+
+        texts.forEachIndexed { fieldIndex, text ->
+            val field = FIELDS[fieldIndex]
+            for (trigram in trigramsOf(text)) {
+                postingLists.getOrPut(postingKey(trigram, field)) { PostingList() }.add(documentId)
+            }
+        }
+        for (word in fuzzyWordsOf(texts)) {
+            fuzzyTree.add(word, documentId)
+        }
+    }
+
+    private fun unindexEntry(nodeId: NodeId<UUID>) {
+        val documentId = documentIds.remove(nodeId) ?: return
+        version++
+        documents[documentId]?.texts?.forEachIndexed { fieldIndex, text ->
+            val field = FIELDS[fieldIndex]
+            for (trigram in trigramsOf(text)) {
+                val key = postingKey(trigram, field)
+                postingLists[key]?.let { postingList ->
+                    postingList.remove(documentId)
+                    if (postingList.size == 0)
+                        postingLists.remove(key)
+                }
+            }
+        }
+        documents[documentId]?.texts?.let { texts ->
+            for (word in fuzzyWordsOf(texts)) {
+                fuzzyTree.remove(word, documentId)
+            }
+        }
+        documents[documentId] = null
+        freeDocumentIds.push(documentId)
+    }
+
+    /**
+     * Sorted set of document ids
+     */
+    private class PostingList {
+        var ids = IntArray(4)
+        var size = 0
+
+        fun contains(documentId: Int): Boolean {
+            return Arrays.binarySearch(ids, 0, size, documentId) >= 0
+        }
+
+        fun add(documentId: Int) {
+            var index = Arrays.binarySearch(ids, 0, size, documentId)
+            if (index >= 0)
+                return
+            index = -index - 1
+            if (size == ids.size)
+                ids = ids.copyOf(size * 2)
+            System.arraycopy(ids, index, ids, index + 1, size - index)
+            ids[index] = documentId
+            size++
+        }
+
+        fun remove(documentId: Int) {
+            val index = Arrays.binarySearch(ids, 0, size, documentId)
+            if (index < 0)
+                return
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1)
+            size--
+        }
+    }
+
+    companion object {
+        private val TAG = EntrySearchIndex::class.java.name
+
+        private val FIELDS = Field.values()
+        private val NON_WORD_CHARACTERS = Regex("[^\\p{L}\\p{N}]+")
+        private const val TRIGRAM_LENGTH = 3
+        private const val MIN_FUZZY_LENGTH = 3
+        private const val SHORT_FUZZY_LENGTH = 5
+        // Separate the values of the fields merged in the same class
+        private const val FIELD_SEPARATOR = '\n'
+
+        /**
+         * Lower-cased text of each class of field, passwords are not retrieved
+         */
+        fun textsOf(entry: Entry): Array<String> {
+            val others = StringBuilder()
+            var title = ""
+            var username = ""
+            var url = ""
+            var notes = ""
+            entry.entryKDB?.let {
+                title = it.title
+                username = it.username
+                url = it.url
+                notes = it.notes
+            }
+            entry.entryKDBX?.fields?.forEach { (key, value) ->
+                when (key) {
+                    EntryKDBX.STR_TITLE -> title = value.toString()
+                    EntryKDBX.STR_USERNAME -> username = value.toString()
+                    EntryKDBX.STR_PASSWORD -> {}
+                    EntryKDBX.STR_URL -> url = value.toString()
+                    EntryKDBX.STR_NOTES -> notes = value.toString()
+                    else -> {
+                        if (others.isNotEmpty())
+                            others.append(FIELD_SEPARATOR)
+                        others.append(value.toString())
+                    }
+                }
+            }
+            return arrayOf(title.toLowerCase(Locale.ROOT),
+                    username.toLowerCase(Locale.ROOT),
+                    url.toLowerCase(Locale.ROOT),
+                    notes.toLowerCase(Locale.ROOT),
+                    others.toString().toLowerCase(Locale.ROOT))
+        }
+
+        /**
+         * Words of the title and of the URL host, with the complete host
+         */
+        private fun fuzzyWordsOf(texts: Array<String>): Set<String> {
+            val words = HashSet<String>()
+            texts[Field.TITLE.ordinal].split(NON_WORD_CHARACTERS).forEach {
+                if (it.length >= MIN_FUZZY_LENGTH)
+                    words.add(it)
+            }
+            hostOf(texts[Field.URL.ordinal])?.let { host ->
+                words.add(host.removePrefix("www."))
+                host.split('.').forEach {
+                    if (it.length >= MIN_FUZZY_LENGTH && it != "www")
+                        words.add(it)
+                }
+            }
+            return words
+        }
+
+        private fun hostOf(url: String): String? {
+            if (url.isBlank())
+                return null
+            val urlWithScheme = if (url.contains("://")) url.trim() else "http://" + url.trim()
+            return try {
+                URI(urlWithScheme).host
+            } catch (e: URISyntaxException) {
+                null
+            }
+        }
+
+        private fun trigramsOf(text: String): Set<Long> {
+            val trigrams = HashSet<Long>()
+            for (i in 0..text.length - TRIGRAM_LENGTH) {
+                trigrams.add(text[i].toLong() shl 32
+                        or (text[i + 1].toLong() shl 16)
+                        or text[i + 2].toLong())
+            }
+            return trigrams
+        }
+
+        private fun postingKey(trigram: Long, field: Field): Long {
+            return trigram shl 3 or field.ordinal.toLong()
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Evaluate a costly condition, as a regular expression, on chunks of elements in parallel
+ */
+object ParallelSearch {
+
+    private const val MIN_CHUNK_SIZE = 256
+
+    private val numberOfThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1)
+
+    private val executor: ExecutorService by lazy {
+        Executors.newFixedThreadPool(numberOfThreads) { runnable ->
+            Thread(runnable, "ParallelSearch").apply {
+                isDaemon = true
+            }
+        }
+    }
+
+    /**
+     * Elements which satisfy [predicate], in the order of [elements],
+     * [predicate] must be thread-safe
+     */
+    fun <T> filter(elements: List<T>, predicate: (T) -> Boolean): List<T> {
+        if (numberOfThreads == 1 || elements.size < MIN_CHUNK_SIZE * 2) {
+            return elements.filter(predicate)
+        }
+        val chunkSize = Math.max(MIN_CHUNK_SIZE, (elements.size + numberOfThreads - 1) / numberOfThreads)
+        val futures = ArrayList<Future<List<T>>>()
+        var chunkStart = 0
+        while (chunkStart < elements.size) {
+            val chunk = elements.subList(chunkStart, Math.min(chunkStart + chunkSize, elements.size))
+            futures.add(executor.submit(Callable { chunk.filter(predicate) }))
+            chunkStart += chunkSize
+        }
+        val result = ArrayList<T>()
+        futures.forEach {
+            try {
+                result.addAll(it.get())
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+        return result
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import java.util.*
+
+/**
+ * Trie of the public suffixes, labels are read from the top-level domain,
+ * to retrieve the registrable domain of a host (the public suffix and one more label).
+ *
+ * Any top-level domain is a public suffix, only the multi-level suffixes most used
+ * are embedded, with the syntax of the Public Suffix List ("*" wildcard and "!" exception).
+ */
+object PublicSuffixTrie {
+
+    private class Node {
+        val children = HashMap<String, Node>()
+        var isSuffix = false
+        var isException = false
+    }
+
+    private const val WILDCARD = "*"
+    private const val EXCEPTION_PREFIX = "!"
+
+    private val RULES = arrayOf(
+            // Country code second-level domains
+            "ac.uk", "co.uk", "gov.uk", "ltd.uk", "me.uk", "net.uk", "nhs.uk", "org.uk", "plc.uk", "sch.uk",
+            "com.au", "edu.au", "gov.au", "net.au", "org.au", "id.au", "asn.au",
+            "co.nz", "net.nz", "org.nz", "govt.nz", "ac.nz",
+            "ac.jp", "co.jp", "go.jp", "ne.jp", "or.jp", "gr.jp", "ed.jp", "lg.jp",
+            "co.kr", "or.kr", "ne.kr", "go.kr", "ac.kr",
+            "com.cn", "net.cn", "org.cn", "gov.cn", "edu.cn",
+            "com.hk", "org.hk", "net.hk", "gov.hk", "edu.hk",
+            "com.tw", "org.tw", "net.tw", "gov.tw", "edu.tw",
+            "com.sg", "org.sg", "net.sg", "gov.sg", "edu.sg",
+            "com.my", "org.my", "net.my", "gov.my",
+            "co.id", "or.id", "ac.id", "go.id", "web.id",
+            "co.th", "or.th", "ac.th", "go.th", "in.th",
+            "com.vn", "net.vn", "org.vn", "gov.vn",
+            "com.ph", "net.ph", "org.ph", "gov.ph",
+            "co.in", "net.in", "org.in", "firm.in", "gen.in", "ind.in", "gov.in", "ac.in",
+            "com.pk", "net.pk", "org.pk", "gov.pk",
+            "co.il", "org.il", "net.il", "ac.il", "gov.il",
+            "com.tr", "net.tr", "org.tr", "gov.tr", "edu.tr",
+            "com.sa", "net.sa", "org.sa", "gov.sa",
+            "com.eg", "net.eg", "org.eg", "gov.eg",
+            "co.za", "org.za", "net.za", "gov.za", "web.za",
+            "com.br", "net.br", "org.br", "gov.br", "edu.br",
+            "com.ar", "net.ar", "org.ar", "gob.ar",
+            "com.mx", "net.mx", "org.mx", "gob.mx",
+            "com.co", "net.co", "org.co", "gov.co",
+            "com.pe", "net.pe", "org.pe", "gob.pe",
+            "co.ve", "com.ve", "net.ve", "org.ve",
+            "com.ua", "net.ua", "org.ua", "gov.ua",
+            "com.pl", "net.pl", "org.pl", "gov.pl",
+            "com.ru", "net.ru", "org.ru",
+            "co.at", "or.at", "gv.at", "ac.at",
+            "com.es", "org.es", "nom.es", "gob.es",
+            "com.pt", "org.pt", "gov.pt",
+            "com.gr", "org.gr", "net.gr", "gov.gr",
+            "*.ck", "!www.ck",
+            "*.bd", "*.kh", "*.np",
+            // Private domains hosting user sites
+            "appspot.com", "blogspot.com", "cloudfront.net", "azurewebsites.net", "herokuapp.com",
+            "firebaseapp.com", "web.app", "github.io", "gitlab.io", "netlify.app", "vercel.app",
+            "pages.dev", "workers.dev", "s3.amazonaws.com"
+    )
+
+    private val root = Node().apply {
+        for (rule in RULES) {
+            var node = this
+            val labels = rule.split('.').asReversed()
+            labels.forEachIndexed { index, label ->
+                val isException = label.startsWith(EXCEPTION_PREFIX)
+                val key = label.removePrefix(EXCEPTION_PREFIX)
+                node = node.children.getOrPut(key) { Node() }
+                if (index == labels.size - 1) {
+                    if (isException)
+                        node.isException = true
+                    else
+                        node.isSuffix = true
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of labels of the public suffix of [labels], at least the top-level domain
+     */
+    private fun publicSuffixLength(labels: List<String>): Int {
+        var suffixLength = 1
+        var node: Node? = root
+        var index = labels.size - 1
+        var depth = 1
+        while (node != null && index >= 0) {
+            val label = labels[index]
+            val child = node.children[label]
+            val wildcard = node.children[WILDCARD]
+            when {
+                child?.isException == true -> return depth - 1
+                child?.isSuffix == true -> suffixLength = depth
+                wildcard?.isSuffix == true -> suffixLength = depth
+            }
+            node = child
+            index--
+            depth++
+        }
+        return suffixLength
+    }
+
+    /**
+     * Registrable domain of [host], as "example.co.uk" for "www.example.co.uk",
+     * the host itself if it is an IP address, a single label or a public suffix
+     */
+    fun registrableDomain(host: String): String {
+        val lowerCaseHost = host.trim().trimEnd('.').toLowerCase(Locale.ROOT)
+        if (lowerCaseHost.isEmpty()
+                || lowerCaseHost.all { it.isDigit() || it == '.' || it == ':' })
+            return lowerCaseHost
+        val labels = lowerCaseHost.split('.')
+        val suffixLength = publicSuffixLength(labels)
+        if (labels.size <= suffixLength)
+            return lowerCaseHost
+        return labels.subList(labels.size - suffixLength - 1, labels.size).joinToString(".")
+    }
+}
@@ -26,39 +26,125 @@ import com.kunzisoft.keepass.database.element.Group
 import com.kunzisoft.keepass.database.search.iterator.EntrySearchStringIterator
 import com.kunzisoft.keepass.database.search.iterator.EntrySearchStringIteratorKDB
 import com.kunzisoft.keepass.database.search.iterator.EntrySearchStringIteratorKDBX
+import com.kunzisoft.keepass.model.SearchInfo
+import java.util.regex.PatternSyntaxException
 
 class SearchHelper(private val isOmitBackup: Boolean) {
 
     companion object {
         const val MAX_SEARCH_ENTRY = 6
-    }
 
-    private var incrementEntry = 0
+        /**
+         * A query between slashes is a regular expression
+         */
+        fun isRegexQuery(query: String): Boolean {
+            return query.length > 2 && query.startsWith('/') && query.endsWith('/')
+        }
+    }
 
     fun createVirtualGroupWithSearchResult(database: Database, searchQuery: String, max: Int): Group? {
 
         val searchGroup = database.createGroup()
         searchGroup?.title = "\"" + searchQuery + "\""
 
+        searchEntries(database, searchQuery, max) { entry ->
+            searchGroup?.addChildEntry(entry)
+        }
+
+        return searchGroup
+    }
+
+    /**
+     * Retrieve the entries of an autofill request, by the registrable domain of the web domain
+     * or else by the application id, in the autofill index when it is built
+     */
+    fun createVirtualGroupWithSearchInfo(database: Database, searchInfo: SearchInfo, max: Int): Group? {
+        val query = searchInfo.webDomain ?: searchInfo.applicationId ?: return null
+
+        val autofillIndex = database.autofillIndex
+        if (autofillIndex.isReady) {
+            val entries = autofillIndex.search(searchInfo, max) { entry ->
+                isEntrySearchable(database, entry)
+            }
+            // An application id can also be written in another field than the ones indexed
+            if (entries.isNotEmpty() || searchInfo.webDomain != null) {
+                val searchGroup = database.createGroup()
+                searchGroup?.title = "\"" + query + "\""
+                entries.forEach { searchGroup?.addChildEntry(it) }
+                return searchGroup
+            }
+        }
+        return createVirtualGroupWithSearchResult(database, query, max)
+    }
+
+    /**
+     * Search the entries which contain [searchQuery], [onEntryFound] is called for each entry found
+     * @param isCancelled Called during the search, stop the search if true
+     * @return true if the entries found are all the entries containing the query,
+     * false if [max] or the cancellation stopped the search, or if entries near the query were added
+     */
+    fun searchEntries(database: Database,
+                      searchQuery: String,
+                      max: Int,
+                      isCancelled: () -> Boolean = { false },
+                      onEntryFound: (Entry) -> Unit): Boolean {
+
+        if (isRegexQuery(searchQuery))
+            return searchEntriesWithPattern(database, searchQuery, max, isCancelled, onEntryFound)
+
+        val query = SearchQuery.parse(searchQuery)
+
+        // Search in the index when it is built
+        val searchIndex = database.searchIndex
+        if (searchIndex.isReady) {
+            val entries = searchIndex.search(query, max) { entry ->
+                isEntrySearchable(database, entry)
+            }
+            entries.forEach(onEntryFound)
+            // Complete with the entries near a single term, to tolerate typos
+            if (entries.size < max && query.isSingleTerm) {
+                val nearEntries = searchIndex.searchFuzzy(query.terms[0].value,
+                        max - entries.size,
+                        entries) { entry ->
+                    isEntrySearchable(database, entry)
+                }
+                nearEntries.forEach(onEntryFound)
+                // Near entries don't contain the term, they can't be refined
+                if (nearEntries.isNotEmpty())
+                    return false
+            }
+            return entries.size < max
+        }
+
         // Search all entries
-        incrementEntry = 0
+        var numberOfEntries = 0
+        var searchComplete = true
         database.rootGroup?.doForEachChild(
                 object : NodeHandler<Entry>() {
                     override fun operate(node: Entry): Boolean {
-                        if (incrementEntry >= max)
+                        // Stop searching when we have max entries
+                        if (numberOfEntries >= max || isCancelled()) {
+                            searchComplete = false
                             return false
-                        if (entryContainsString(node, searchQuery)) {
-                            searchGroup?.addChildEntry(node)
-                            incrementEntry++
                         }
-                        // Stop searching when we have max entries
-                        return incrementEntry < max
+                        val matches = if (query.isSingleTerm)
+                            entryContainsString(node, query.terms[0].value)
+                        else
+                            query.matches(node)
+                        if (matches) {
+                            onEntryFound(node)
+                            numberOfEntries++
+                        }
+                        return true
                     }
                 },
                 object : NodeHandler<Group>() {
                     override fun operate(node: Group): Boolean {
                         return when {
-                            incrementEntry >= max -> false
+                            numberOfEntries >= max || isCancelled() -> {
+                                searchComplete = false
+                                false
+                            }
                             database.isGroupSearchable(node, isOmitBackup) -> true
                             else -> false
                         }
@@ -66,15 +152,60 @@ class SearchHelper(private val isOmitBackup: Boolean) {
                 },
                 false)
 
-        return searchGroup
+        return searchComplete
+    }
+
+    private fun searchEntriesWithPattern(database: Database,
+                                         regexQuery: String,
+                                         max: Int,
+                                         isCancelled: () -> Boolean,
+                                         onEntryFound: (Entry) -> Unit): Boolean {
+        val pattern = try {
+            SearchPattern.compile(regexQuery.substring(1, regexQuery.length - 1), true)
+        } catch (e: PatternSyntaxException) {
+            // Nothing to find with an invalid pattern
+            return true
+        }
+
+        // Retrieve the searchable entries, then evaluate the pattern in parallel
+        val searchableEntries = ArrayList<Entry>()
+        database.rootGroup?.doForEachChild(
+                object : NodeHandler<Entry>() {
+                    override fun operate(node: Entry): Boolean {
+                        searchableEntries.add(node)
+                        return true
+                    }
+                },
+                object : NodeHandler<Group>() {
+                    override fun operate(node: Group): Boolean {
+                        return database.isGroupSearchable(node, isOmitBackup)
+                    }
+                },
+                false)
+        val entriesFound = ParallelSearch.filter(searchableEntries) { entry ->
+            !isCancelled() && entryMatches(entry) { pattern.matches(it) }
+        }
+        if (isCancelled())
+            return false
+
+        entriesFound.take(max).forEach(onEntryFound)
+        return entriesFound.size <= max
+    }
+
+    private fun isEntrySearchable(database: Database, entry: Entry): Boolean {
+        return entry.parent?.let { database.isGroupSearchable(it, isOmitBackup) } ?: false
     }
 
-    private fun entryContainsString(entry: Entry, searchString: String): Boolean {
+    fun entryContainsString(entry: Entry, searchString: String): Boolean {
 
         // Entry don't contains string if the search string is empty
         if (searchString.isEmpty())
             return false
 
+        return entryMatches(entry) { it.contains(searchString, true) }
+    }
+
+    private fun entryMatches(entry: Entry, condition: (String) -> Boolean): Boolean {
         // Search all strings in the entry
         var iterator: EntrySearchStringIterator? = null
         entry.entryKDB?.let {
@@ -88,7 +219,7 @@ class SearchHelper(private val isOmitBackup: Boolean) {
             while (it.hasNext()) {
                 val currentString = it.next()
                 if (currentString.isNotEmpty()
-                        && currentString.contains(searchString, true)) {
+                        && condition(currentString)) {
                         return true
                 }
             }
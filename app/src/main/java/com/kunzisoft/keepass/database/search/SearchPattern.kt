@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Compiled regular expression of a search, with the literal text that any match must contain,
+ * to skip the strings which cannot match without running the regular expression.
+ */
+class SearchPattern private constructor(private val pattern: Pattern,
+                                        private val requiredLiteral: String,
+                                        private val ignoreCase: Boolean) {
+
+    /**
+     * Thread-safe, a new matcher is created for each call
+     */
+    fun matches(text: String): Boolean {
+        if (requiredLiteral.isNotEmpty()
+                && !text.contains(requiredLiteral, ignoreCase))
+            return false
+        return pattern.matcher(text).find()
+    }
+
+    companion object {
+
+        private const val MAX_PATTERNS = 32
+        private const val META_CHARACTERS = "\\^$.|?*+()[]{}"
+
+        // Last compiled patterns, in access order
+        private val patterns = object : LinkedHashMap<String, SearchPattern>(MAX_PATTERNS, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, SearchPattern>?): Boolean {
+                return size > MAX_PATTERNS
+            }
+        }
+
+        /**
+         * Retrieve the compiled pattern of [regex] from the cache, or compile it
+         */
+        @Throws(PatternSyntaxException::class)
+        fun compile(regex: String, ignoreCase: Boolean): SearchPattern {
+            val key = (if (ignoreCase) "i" else "s") + regex
+            synchronized(patterns) {
+                patterns[key]?.let { return it }
+            }
+            val flags = if (ignoreCase) Pattern.CASE_INSENSITIVE or Pattern.UNICODE_CASE else 0
+            val searchPattern = SearchPattern(Pattern.compile(regex, flags),
+                    requiredLiteralOf(regex),
+                    ignoreCase)
+            synchronized(patterns) {
+                patterns[key] = searchPattern
+            }
+            return searchPattern
+        }
+
+        /**
+         * Literal characters at the start of [regex], empty if an alternation can avoid them
+         */
+        fun requiredLiteralOf(regex: String): String {
+            if (regex.contains('|'))
+                return ""
+            var start = 0
+            if (regex.startsWith("^"))
+                start = 1
+            var end = start
+            while (end < regex.length && !META_CHARACTERS.contains(regex[end])) {
+                end++
+            }
+            // A quantifier makes the last character optional
+            if (end < regex.length && (regex[end] == '?' || regex[end] == '*' || regex[end] == '{'))
+                end--
+            return if (end > start) regex.substring(start, end) else ""
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import com.kunzisoft.keepass.database.element.Entry
+import com.kunzisoft.keepass.utils.StringUtil
+import java.util.*
+
+/**
+ * Query of the main search, terms are separated by spaces and must all match,
+ * a term can be restricted to a field with a prefix (title:, user:, url:, notes:, tag:, group:, expired:),
+ * negated with a leading '-' and quoted to contain spaces.
+ *
+ * Example: url:example.com -group:"old accounts" expired:no
+ */
+class SearchQuery private constructor(val terms: List<Term>) {
+
+    enum class Scope(val prefix: String?, val fields: EnumSet<EntrySearchIndex.Field>) {
+        DEFAULT(null, EnumSet.allOf(EntrySearchIndex.Field::class.java)),
+        TITLE("title:", EnumSet.of(EntrySearchIndex.Field.TITLE)),
+        USER("user:", EnumSet.of(EntrySearchIndex.Field.USERNAME)),
+        URL("url:", EnumSet.of(EntrySearchIndex.Field.URL)),
+        NOTES("notes:", EnumSet.of(EntrySearchIndex.Field.NOTES)),
+        TAG("tag:", EnumSet.noneOf(EntrySearchIndex.Field::class.java)),
+        GROUP("group:", EnumSet.noneOf(EntrySearchIndex.Field::class.java)),
+        EXPIRED("expired:", EnumSet.noneOf(EntrySearchIndex.Field::class.java));
+
+        /**
+         * True if the scope is searched in the indexed text of the entries
+         */
+        val isIndexed: Boolean
+            get() = fields.isNotEmpty()
+    }
+
+    /**
+     * Condition of the query on an entry
+     * @param value Lower-cased value to search
+     */
+    class Term(val scope: Scope, val value: String, val negated: Boolean) {
+
+        /**
+         * Test the term without its negation
+         * @param texts Lower-cased texts of the entry, as retrieved by [EntrySearchIndex.textsOf]
+         */
+        fun matches(entry: Entry, texts: Array<String>): Boolean {
+            return when (scope) {
+                Scope.TAG -> entry.entryKDBX?.tags?.contains(value, true) ?: false
+                Scope.GROUP -> entry.parent?.title?.contains(value, true) ?: false
+                Scope.EXPIRED -> entry.isCurrentlyExpires == (value !in FALSE_VALUES)
+                else -> scope.fields.any { texts[it.ordinal].contains(value) }
+            }
+        }
+    }
+
+    /**
+     * True if the query is a single text to search in the default fields
+     */
+    val isSingleTerm: Boolean
+        get() = terms.size == 1
+                && terms[0].scope == Scope.DEFAULT
+                && !terms[0].negated
+
+    /**
+     * Test all the terms on [entry], without index
+     */
+    fun matches(entry: Entry): Boolean {
+        if (terms.isEmpty())
+            return false
+        val texts = EntrySearchIndex.textsOf(entry)
+        return terms.all { it.matches(entry, texts) != it.negated }
+    }
+
+    companion object {
+
+        private val FALSE_VALUES = arrayOf("no", "false", "0")
+
+        fun parse(query: String): SearchQuery {
+            val terms = ArrayList<Term>()
+            for (token in StringUtil.splitStringTerms(query)) {
+                var text = token
+                var negated = false
+                if (text.length > 1 && text.startsWith("-")) {
+                    negated = true
+                    text = text.substring(1)
+                }
+                val scope = Scope.values().firstOrNull {
+                    it.prefix != null && text.startsWith(it.prefix, true)
+                } ?: Scope.DEFAULT
+                scope.prefix?.let {
+                    text = text.substring(it.length)
+                }
+                if (text.isNotEmpty())
+                    terms.add(Term(scope, text.toLowerCase(Locale.ROOT), negated))
+            }
+            return SearchQuery(terms)
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import java.util.*
+
+/**
+ * Combine the conditions of a query on a list of elements with bitsets of element positions.
+ *
+ * Positive conditions are evaluated first, from the most selective one,
+ * so that each next condition is only tested on the elements still selected,
+ * negated conditions then remove their matches from the selection.
+ */
+object SearchQueryPlanner {
+
+    /**
+     * @param estimatedMatches Estimation of the number of elements matching, to order the evaluation
+     * @param candidates Positions of the only elements which can match, null if all elements can
+     * @param matches Test an element, without the negation
+     */
+    class Predicate<T>(val negated: Boolean,
+                       val estimatedMatches: Int,
+                       val candidates: BitSet? = null,
+                       val matches: (T) -> Boolean)
+
+    /**
+     * @return Positions of the non null elements matching all the predicates
+     */
+    fun <T> evaluate(elements: List<T?>, predicates: List<Predicate<T>>): BitSet {
+        val selection = BitSet(elements.size)
+        elements.forEachIndexed { index, element ->
+            if (element != null)
+                selection.set(index)
+        }
+
+        val orderedPredicates = predicates.sortedWith(compareBy<Predicate<T>> { it.negated }
+                .thenBy { if (it.negated) -it.estimatedMatches else it.estimatedMatches })
+
+        for (predicate in orderedPredicates) {
+            if (selection.isEmpty)
+                break
+            // Only test the selected elements which can match
+            val tested = selection.clone() as BitSet
+            predicate.candidates?.let { tested.and(it) }
+
+            val matching = BitSet(elements.size)
+            var index = tested.nextSetBit(0)
+            while (index >= 0) {
+                elements[index]?.let {
+                    if (predicate.matches(it))
+                        matching.set(index)
+                }
+                index = tested.nextSetBit(index + 1)
+            }
+
+            if (predicate.negated)
+                selection.andNot(matching)
+            else
+                selection.and(matching)
+        }
+        return selection
+    }
+}
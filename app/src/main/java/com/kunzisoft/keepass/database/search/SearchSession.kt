@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.database.search
+
+import com.kunzisoft.keepass.database.element.Database
+import com.kunzisoft.keepass.database.element.Entry
+
+/**
+ * Successive searches of a search-as-you-type field.
+ *
+ * A search is cancelled as soon as a newer query is declared with [updateQuery],
+ * a query which contains the previous one only filters the previous results
+ * if the database was not modified in the meantime.
+ */
+class SearchSession(private val database: Database,
+                    private val searchHelper: SearchHelper) {
+
+    @Volatile
+    private var latestQuery: String? = null
+
+    private var previousQuery: String? = null
+    // All the entries found for the previous query, null if the search was not complete
+    private var previousEntries: List<Entry>? = null
+    private var previousIndexVersion = -1L
+
+    /**
+     * Declare the last query typed, the search of any other query is cancelled
+     */
+    fun updateQuery(query: String) {
+        latestQuery = query
+    }
+
+    fun isLatestQuery(query: String): Boolean {
+        val latest = latestQuery
+        return latest == null || latest == query
+    }
+
+    /**
+     * Search the entries which contain [query]
+     * @param max Maximum number of entries to retrieve
+     * @param filter Condition to retrieve an entry found
+     * @param onFirstEntries Called with the first [max] entries before the end of the search
+     * @return The first [max] entries, or null if the search was cancelled by a newer query
+     */
+    @Synchronized
+    fun search(query: String,
+               max: Int,
+               filter: (Entry) -> Boolean = { true },
+               onFirstEntries: ((List<Entry>) -> Unit)? = null): List<Entry>? {
+        return database.doWithReadLock {
+            searchEntries(query, max, filter, onFirstEntries)
+        }
+    }
+
+    private fun searchEntries(query: String,
+                              max: Int,
+                              filter: (Entry) -> Boolean,
+                              onFirstEntries: ((List<Entry>) -> Unit)?): List<Entry>? {
+        val indexVersion = database.searchIndex.version
+        val foundEntries = ArrayList<Entry>()
+        val firstEntries = ArrayList<Entry>()
+        val isCancelled = { !isLatestQuery(query) }
+
+        val refinedText = refinedTextOf(query)
+        val lastEntries = previousEntries
+        val searchComplete = if (refinedText != null
+                && lastEntries != null
+                && indexVersion == previousIndexVersion) {
+            // Each entry containing the text also contains the previous text
+            for (entry in lastEntries) {
+                if (isCancelled())
+                    return null
+                if (searchHelper.entryContainsString(entry, refinedText)) {
+                    foundEntries.add(entry)
+                    if (firstEntries.size < max && filter(entry))
+                        firstEntries.add(entry)
+                }
+            }
+            true
+        } else {
+            // Entries over the limit are kept to refine the next query
+            searchHelper.searchEntries(database, query, MAX_REFINED_ENTRIES, isCancelled) { entry ->
+                foundEntries.add(entry)
+                if (firstEntries.size < max && filter(entry)) {
+                    firstEntries.add(entry)
+                    if (firstEntries.size == max)
+                        onFirstEntries?.invoke(ArrayList(firstEntries))
+                }
+            }
+        }
+
+        if (isCancelled())
+            return null
+
+        previousQuery = query
+        previousEntries = if (searchComplete) foundEntries else null
+        previousIndexVersion = indexVersion
+        return firstEntries
+    }
+
+    /**
+     * Text to search in the previous entries if [query] and the previous query
+     * are single texts and the previous text is contained in the new one, null otherwise
+     */
+    private fun refinedTextOf(query: String): String? {
+        val lastQuery = previousQuery ?: return null
+        if (SearchHelper.isRegexQuery(lastQuery) || SearchHelper.isRegexQuery(query))
+            return null
+        val lastSearchQuery = SearchQuery.parse(lastQuery)
+        val searchQuery = SearchQuery.parse(query)
+        if (!lastSearchQuery.isSingleTerm || !searchQuery.isSingleTerm)
+            return null
+        val text = searchQuery.terms[0].value
+        return if (text.contains(lastSearchQuery.terms[0].value)) text else null
+    }
+
+    companion object {
+        private const val MAX_REFINED_ENTRIES = 1000
+    }
+}
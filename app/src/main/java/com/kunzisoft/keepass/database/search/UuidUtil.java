@@ -21,6 +21,7 @@ package com.kunzisoft.keepass.database.search;
 
 import java.util.UUID;
 
+import static com.kunzisoft.keepass.stream.StreamBytesUtilsKt.bytes16ToUuid;
 import static com.kunzisoft.keepass.stream.StreamBytesUtilsKt.uuidTo16Bytes;
 
 public class UuidUtil {
@@ -48,6 +49,24 @@ public class UuidUtil {
         return sb.toString();
     }
 
+    /**
+     * Retrieve the UUID of an hexadecimal string built by {@link #toHexString(UUID)}
+     * @return The UUID, or null if the string is not 32 hexadecimal characters
+     */
+    public static UUID fromHexString(String hex) {
+        if (hex == null || hex.length() != 32) { return null; }
+
+        byte[] buf = new byte[16];
+        for (int i = 0; i < buf.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) { return null; }
+            buf[i] = (byte) ((high << 4) | low);
+        }
+
+        return bytes16ToUuid(buf);
+    }
+
     // Use short to represent unsigned byte
     private static char byteToChar(char bt) {
         if (bt >= 10) {
@@ -19,6 +19,7 @@
  */
 package com.kunzisoft.keepass.icons
 
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.content.res.ColorStateList
 import android.content.res.Resources
@@ -26,35 +27,60 @@ import android.graphics.*
 import android.graphics.drawable.BitmapDrawable
 import android.graphics.drawable.ColorDrawable
 import android.graphics.drawable.Drawable
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
+import android.util.LruCache
 import android.widget.ImageView
 import android.widget.RemoteViews
 import androidx.core.content.res.ResourcesCompat
-import androidx.core.graphics.drawable.toBitmap
 import androidx.core.widget.ImageViewCompat
 import com.kunzisoft.keepass.R
 import com.kunzisoft.keepass.database.element.icon.IconImage
 import com.kunzisoft.keepass.database.element.icon.IconImageCustom
 import com.kunzisoft.keepass.database.element.icon.IconImageStandard
-import org.apache.commons.collections.map.AbstractReferenceMap
-import org.apache.commons.collections.map.ReferenceMap
+import java.util.*
+import java.util.concurrent.Executors
 
 /**
  * Factory class who build database icons dynamically, can assign an icon of IconPack, or a custom icon to an ImageView with a tint
  */
 class IconDrawableFactory {
 
-    /** customIconMap
-     * Cache for icon drawable.
-     * Keys: UUID, Values: Drawables
+    /** customIconCache
+     * Cache for the decoded and resized bitmaps of the custom icons, bounded by the bytes of the bitmaps.
+     * Keys: CustomIconKey, Values: Bitmaps
      */
-    private val customIconMap = ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.WEAK)
+    private val customIconCache = object : LruCache<CustomIconKey, Bitmap>(MAX_ICON_BYTES) {
+        override fun sizeOf(key: CustomIconKey, value: Bitmap): Int {
+            return value.byteCount
+        }
+    }
 
-    /** standardIconMap
-     * Cache for icon drawable.
-     * Keys: Integer, Values: Drawables
+    /** standardIconCache
+     * Cache for the drawables of the icon pack, bounded by the bytes of their drawing.
+     * Keys: CacheKey, Values: Drawables
      */
-    private val standardIconMap = ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.WEAK)
+    private val standardIconCache = object : LruCache<CacheKey, Drawable>(MAX_ICON_BYTES) {
+        override fun sizeOf(key: CacheKey, value: Drawable): Int {
+            return drawableByteCount(value)
+        }
+    }
+
+    // Custom icons in decoding, with the views waiting for them, only used in the main thread
+    private val pendingCustomIcons = HashMap<CustomIconKey, MutableList<ImageView>>()
+    private val customIconKeyByView = WeakHashMap<ImageView, CustomIconKey>()
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /** remoteViewsBitmapCache
+     * Cache for the sized and tinted bitmaps of the remote views, bounded by the bytes of the bitmaps.
+     * Keys: RemoteViewsBitmapKey, Values: Bitmaps
+     */
+    private val remoteViewsBitmapCache = object : LruCache<RemoteViewsBitmapKey, Bitmap>(MAX_REMOTE_VIEWS_BITMAP_BYTES) {
+        override fun sizeOf(key: RemoteViewsBitmapKey, value: Bitmap): Int {
+            return value.byteCount
+        }
+    }
 
     /**
      * Utility method to assign a drawable to an ImageView and tint it
@@ -77,14 +103,82 @@ class IconDrawableFactory {
                                     remoteViews: RemoteViews,
                                     imageId: Int,
                                     tintColor: Int = Color.BLACK) {
-        val bitmap = superDrawable.drawable.toBitmap()
-        // Tint bitmap if it's not a custom icon
-        if (!superDrawable.custom) {
-            Canvas(bitmap).drawBitmap(bitmap, 0.0F, 0.0F, Paint().apply {
-                colorFilter = PorterDuffColorFilter(tintColor, PorterDuff.Mode.SRC_IN)
-            })
+        val drawable = superDrawable.drawable
+        remoteViews.setImageViewBitmap(imageId, createBitmap(superDrawable,
+                drawable.intrinsicWidth,
+                drawable.intrinsicHeight,
+                tintColor))
+    }
+
+    /**
+     * Utility method to assign a database [icon] to a RemoteView, the bitmap is retrieved from the cache
+     * or drawn and added to the cache if not exists yet
+     */
+    fun assignIconToRemoteViews(context: Context,
+                                icon: IconImage,
+                                remoteViews: RemoteViews,
+                                imageId: Int,
+                                tintColor: Int = Color.BLACK) {
+        remoteViews.setImageViewBitmap(imageId, getRemoteViewsBitmap(context, icon, tintColor))
+    }
+
+    /**
+     * Number of bitmaps of remote views kept by the cache
+     */
+    fun getRemoteViewsBitmapCapacity(context: Context): Int {
+        val size = context.resources.getDimensionPixelSize(R.dimen.icon_size).coerceAtLeast(1)
+        return MAX_REMOTE_VIEWS_BITMAP_BYTES / (size * size * 4)
+    }
+
+    /**
+     * Draw in background the bitmaps of the remote views of the [icons] not in the cache yet
+     */
+    fun preloadRemoteViewsBitmaps(context: Context, icons: Collection<IconImage>, tintColor: Int) {
+        val appContext = context.applicationContext
+        Thread({
+            for (icon in icons) {
+                getRemoteViewsBitmap(appContext, icon, tintColor)
+            }
+        }, TAG).start()
+    }
+
+    private fun getRemoteViewsBitmap(context: Context, icon: IconImage, tintColor: Int): Bitmap {
+        val size = context.resources.getDimensionPixelSize(R.dimen.icon_size)
+        val iconKey: Any = when (icon) {
+            is IconImageStandard -> IconPackChooser.getSelectedIconPack(context)?.iconToResId(icon.iconId)
+                    ?: R.drawable.ic_blank_32dp
+            is IconImageCustom -> icon.uuid
+            else -> R.drawable.ic_blank_32dp
+        }
+        val key = RemoteViewsBitmapKey(iconKey, size, if (icon is IconImageCustom) null else tintColor)
+        remoteViewsBitmapCache.get(key)?.let {
+            return it
         }
-        remoteViews.setImageViewBitmap(imageId, bitmap)
+        val bitmap = createBitmap(getIconSuperDrawable(context, icon, size, true, tintColor),
+                size,
+                size,
+                tintColor)
+        remoteViewsBitmapCache.put(key, bitmap)
+        return bitmap
+    }
+
+    /**
+     * Draw [superDrawable] in a new bitmap, tinted with [tintColor] if it's not a custom icon
+     */
+    private fun createBitmap(superDrawable: SuperDrawable, width: Int, height: Int, tintColor: Int): Bitmap {
+        // Drawables are shared by the cache and drawn by the views, a copy is drawn
+        val drawable = superDrawable.drawable.constantState?.newDrawable()?.mutate()
+                ?: superDrawable.drawable
+        val bitmap = Bitmap.createBitmap(if (width > 0) width else 1,
+                if (height > 0) height else 1,
+                Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(bitmap)
+        drawable.setBounds(0, 0, bitmap.width, bitmap.height)
+        // Tint bitmap if it's not a custom icon
+        if (!superDrawable.custom)
+            drawable.colorFilter = PorterDuffColorFilter(tintColor, PorterDuff.Mode.SRC_IN)
+        drawable.draw(canvas)
+        return bitmap
     }
 
     /**
@@ -113,6 +207,16 @@ class IconDrawableFactory {
         return SuperDrawable(getIconDrawable(context.resources, iconId, width, tint, tintColor))
     }
 
+    /**
+     * Key class to retrieve a bitmap of a custom icon in the cache, custom icons are never tinted
+     */
+    private data class CustomIconKey(val uuid: UUID, val size: Int)
+
+    /**
+     * Key class to retrieve a bitmap of the remote views in the cache
+     */
+    private data class RemoteViewsBitmapKey(val icon: Any, val size: Int, val tintColor: Int?)
+
     /**
      * Key class to retrieve a Drawable in the cache if it's tinted or not
      */
@@ -143,25 +247,89 @@ class IconDrawableFactory {
     }
 
     /**
-     * Build a custom [Drawable] from custom [icon]
+     * Build a custom [Drawable] from custom [icon], decoded in the calling thread if it's not in the cache
      */
     private fun getIconDrawable(resources: Resources, icon: IconImageCustom): Drawable {
         val patternIcon = PatternIcon(resources)
+        val key = CustomIconKey(icon.uuid, patternIcon.width)
+        val bitmap = customIconCache.get(key) ?: decodeCustomIcon(icon, key)
+        // Could not understand custom icon
+        return bitmap?.let { BitmapDrawable(resources, it) } ?: patternIcon.blankDrawable
+    }
 
-        var draw: Drawable? = customIconMap[icon.uuid] as Drawable?
-        if (draw == null) {
-            var bitmap: Bitmap? = BitmapFactory.decodeByteArray(icon.imageData, 0, icon.imageData.size)
-            // Could not understand custom icon
-            bitmap?.let { bitmapIcon ->
-                bitmap = resize(bitmapIcon, patternIcon)
-                draw = BitmapDrawable(resources, bitmap)
-                customIconMap[icon.uuid] = draw
-                return draw!!
+    /**
+     * Decode the image of the custom [icon] downsampled to the size of [key], and add it to the cache
+     */
+    private fun decodeCustomIcon(icon: IconImageCustom, key: CustomIconKey): Bitmap? {
+        val imageData = icon.imageData
+        val options = BitmapFactory.Options().apply {
+            inJustDecodeBounds = true
+        }
+        BitmapFactory.decodeByteArray(imageData, 0, imageData.size, options)
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, key.size)
+        options.inJustDecodeBounds = false
+        return BitmapFactory.decodeByteArray(imageData, 0, imageData.size, options)?.let { bitmapIcon ->
+            resize(bitmapIcon, key.size).also {
+                customIconCache.put(key, it)
             }
+        }
+    }
+
+    /**
+     * Assign the custom [icon] to [imageView], with a placeholder while the icon is decoded in background
+     */
+    private fun assignCustomIconToImageView(icon: IconImageCustom, imageView: ImageView) {
+        val resources = imageView.resources
+        val patternIcon = PatternIcon(resources)
+        val key = CustomIconKey(icon.uuid, patternIcon.width)
+        customIconCache.get(key)?.let { bitmap ->
+            customIconKeyByView.remove(imageView)
+            assignDrawableToImageView(SuperDrawable(BitmapDrawable(resources, bitmap), true),
+                    imageView, false, Color.WHITE)
+            return
+        }
+        // Placeholder until the end of the decoding, the view may be recycled before
+        customIconKeyByView[imageView] = key
+        assignDrawableToImageView(SuperDrawable(patternIcon.blankDrawable, true),
+                imageView, false, Color.WHITE)
+        val waitingViews = pendingCustomIcons[key]
+        if (waitingViews != null) {
+            waitingViews.add(imageView)
+            return
+        }
+        pendingCustomIcons[key] = mutableListOf(imageView)
+        decodeExecutor.execute {
+            val bitmap = try {
+                decodeCustomIcon(icon, key)
+            } catch (e: Exception) {
+                Log.e(TAG, "Unable to decode the custom icon", e)
+                null
+            }
+            mainHandler.post {
+                pendingCustomIcons.remove(key)?.forEach { view ->
+                    if (customIconKeyByView[view] == key) {
+                        customIconKeyByView.remove(view)
+                        if (bitmap != null) {
+                            assignDrawableToImageView(SuperDrawable(BitmapDrawable(view.resources, bitmap), true),
+                                    view, false, Color.WHITE)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign the database [icon] to [imageView], custom icons not in the cache are decoded in background
+     */
+    fun assignIconToImageView(icon: IconImage, imageView: ImageView, tint: Boolean, tintColor: Int) {
+        if (icon is IconImageCustom) {
+            assignCustomIconToImageView(icon, imageView)
         } else {
-            return draw!!
+            customIconKeyByView.remove(imageView)
+            assignDrawableToImageView(getIconSuperDrawable(imageView.context, icon, imageView.width, true, tintColor),
+                    imageView, tint, tintColor)
         }
-        return patternIcon.blankDrawable
     }
 
     /**
@@ -171,7 +339,7 @@ class IconDrawableFactory {
     private fun getIconDrawable(resources: Resources, iconId: Int, width: Int, tint: Boolean, tintColor: Int): Drawable {
         val newCacheKey = CacheKey(iconId, width, tint, tintColor)
 
-        var draw: Drawable? = standardIconMap[newCacheKey] as Drawable?
+        var draw: Drawable? = standardIconCache.get(newCacheKey)
         if (draw == null) {
             try {
                 draw = ResourcesCompat.getDrawable(resources, iconId, null)
@@ -180,7 +348,7 @@ class IconDrawableFactory {
             }
 
             if (draw != null) {
-                standardIconMap[newCacheKey] = draw
+                standardIconCache.put(newCacheKey, draw)
             }
         }
 
@@ -196,15 +364,16 @@ class IconDrawableFactory {
      * Resize the custom icon to match the built in icons
      *
      * @param bitmap Bitmap to resize
+     * @param size Width and height of the built in icons
      * @return Bitmap resized
      */
-    private fun resize(bitmap: Bitmap, dimensionPattern: PatternIcon): Bitmap {
+    private fun resize(bitmap: Bitmap, size: Int): Bitmap {
         val width = bitmap.width
         val height = bitmap.height
 
-        return if (width == dimensionPattern.width && height == dimensionPattern.height) {
+        return if (width == size && height == size) {
             bitmap
-        } else Bitmap.createScaledBitmap(bitmap, dimensionPattern.width, dimensionPattern.height, true)
+        } else Bitmap.createScaledBitmap(bitmap, size, size, true)
 
     }
 
@@ -212,8 +381,23 @@ class IconDrawableFactory {
      * Clear the cache of icons
      */
     fun clearCache() {
-        standardIconMap.clear()
-        customIconMap.clear()
+        standardIconCache.evictAll()
+        customIconCache.evictAll()
+        remoteViewsBitmapCache.evictAll()
+    }
+
+    /**
+     * Release the icons according to the [level] of memory needed by the system
+     */
+    fun onTrimMemory(level: Int) {
+        when {
+            level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE -> clearCache()
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> {
+                standardIconCache.trimToSize(standardIconCache.maxSize() / 2)
+                customIconCache.trimToSize(customIconCache.maxSize() / 2)
+                remoteViewsBitmapCache.trimToSize(remoteViewsBitmapCache.maxSize() / 2)
+            }
+        }
     }
 
     private class PatternIcon
@@ -241,6 +425,38 @@ class IconDrawableFactory {
     companion object {
 
         private val TAG = IconDrawableFactory::class.java.name
+
+        private const val MAX_REMOTE_VIEWS_BITMAP_BYTES = 2 * 1024 * 1024
+        // Limit of each cache of icons, a part of the memory of the app
+        private val MAX_ICON_BYTES = (Runtime.getRuntime().maxMemory() / 32)
+                .coerceIn(1024L * 1024L, 8L * 1024L * 1024L).toInt()
+
+        private val decodeExecutor = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, TAG).apply { isDaemon = true }
+        }
+
+        /**
+         * Largest power of 2 to downsample an image of [width] x [height] without going under [size]
+         */
+        private fun sampleSize(width: Int, height: Int, size: Int): Int {
+            var sampleSize = 1
+            if (size > 0) {
+                while (width / (sampleSize * 2) >= size && height / (sampleSize * 2) >= size) {
+                    sampleSize *= 2
+                }
+            }
+            return sampleSize
+        }
+
+        /**
+         * Bytes of the bitmap of [drawable], or of its drawing at its intrinsic size
+         */
+        private fun drawableByteCount(drawable: Drawable): Int {
+            if (drawable is BitmapDrawable) {
+                drawable.bitmap?.let { return it.byteCount }
+            }
+            return (drawable.intrinsicWidth.coerceAtLeast(1) * drawable.intrinsicHeight.coerceAtLeast(1) * 4)
+        }
     }
 
 }
@@ -269,15 +485,10 @@ fun ImageView.assignDatabaseIcon(iconFactory: IconDrawableFactory,
                                  icon: IconImage,
                                  tintColor: Int = Color.WHITE) {
     IconPackChooser.getSelectedIconPack(context)?.let { selectedIconPack ->
-        iconFactory.assignDrawableToImageView(
-                iconFactory.getIconSuperDrawable(context,
-                        icon,
-                        width,
-                        true,
-                        tintColor),
-                    this,
-                    selectedIconPack.tintable(),
-                    tintColor)
+        iconFactory.assignIconToImageView(icon,
+                this,
+                selectedIconPack.tintable(),
+                tintColor)
     }
 }
 
@@ -286,12 +497,8 @@ fun RemoteViews.assignDatabaseIcon(context: Context,
                                    iconFactory: IconDrawableFactory,
                                    icon: IconImage,
                                    tintColor: Int = Color.BLACK) {
-        iconFactory.assignDrawableToRemoteViews(
-                iconFactory.getIconSuperDrawable(context,
-                        icon,
-                        24,
-                        true,
-                        tintColor),
+        iconFactory.assignIconToRemoteViews(context,
+                icon,
                 this,
                 imageId,
                 tintColor)
@@ -45,9 +45,12 @@ class IconPack
  * @param packageName Context of the app to retrieve the resources
  * @param resourceId String Id of the pack (ex : com.kunzisoft.keepass.icon.classic.R.string.resource_id)
  */
-internal constructor(packageName: String, resources: Resources, resourceId: Int) {
+internal constructor(private val packageName: String, private val resources: Resources, resourceId: Int) {
 
-    private val icons: SparseIntArray = SparseIntArray()
+    /**
+     * Resource ids of the icons, retrieved by name at the first use of an icon of the pack
+     */
+    private val icons: SparseIntArray by lazy { buildIcons() }
     /**
      * Get the id of the IconPack
      *
@@ -79,17 +82,6 @@ internal constructor(packageName: String, resources: Resources, resourceId: Int)
                 id = idRes.substring(0, idRes.length - 1)
         }
 
-        // Build the list of icons
-        var num = 0
-        while (num <= NB_ICONS) {
-            // To construct the id with name_ic_XX_32dp (ex : classic_ic_08_32dp )
-            val resId = resources.getIdentifier(
-                    id + "_" + DecimalFormat("00").format(num.toLong()) + "_32dp",
-                    "drawable",
-                    packageName)
-            icons.put(num, resId)
-            num++
-        }
         // Get visual name
         name = resources.getString(
                 resources.getIdentifier(
@@ -108,6 +100,22 @@ internal constructor(packageName: String, resources: Resources, resourceId: Int)
         )
     }
 
+    private fun buildIcons(): SparseIntArray {
+        val icons = SparseIntArray()
+        val numberFormat = DecimalFormat("00")
+        var num = 0
+        while (num <= NB_ICONS) {
+            // To construct the id with name_ic_XX_32dp (ex : classic_ic_08_32dp )
+            val resId = resources.getIdentifier(
+                    id + "_" + numberFormat.format(num.toLong()) + "_32dp",
+                    "drawable",
+                    packageName)
+            icons.put(num, resId)
+            num++
+        }
+        return icons
+    }
+
     /**
      * Determine if each icon in the pack can be tint
      *
@@ -35,7 +35,11 @@ object IconPackChooser {
 
     private val TAG = IconPackChooser::class.java.name
 
-    private val iconPackList = ArrayList<IconPack>()
+    private const val DEFAULT_ICON_PACK = "default"
+
+    // Icon packs already loaded, by name of the pack in `ICON_PACKS`
+    private val iconPacks = LinkedHashMap<String, IconPack>()
+    @Volatile
     private var iconPackSelected: IconPack? = null
 
     private var isIconPackChooserBuilt: Boolean = false
@@ -48,6 +52,8 @@ object IconPackChooser {
      * (ex : `libreImplementation project(path: ':icon-pack-classic')` <br></br>
      * Each name of icon pack must be in `ICON_PACKS` in the build.gradle file
      *
+     * Only needed to list all the packs, the selected pack is loaded alone by [getSelectedIconPack]
+     *
      * @param context Context to construct each pack with the resources
      * @return An unique instance of [IconPackChooser], recall [.build] provide the same instance
      */
@@ -59,7 +65,7 @@ object IconPackChooser {
                 for (iconPackString in BuildConfig.ICON_PACKS) {
                     addOrCatchNewIconPack(context, iconPackString)
                 }
-                if (iconPackList.isEmpty()) {
+                if (iconPacks.isEmpty()) {
                     Log.e(TAG, "Icon packs can't be load, retry with one by default")
                     addDefaultIconPack(context)
                 }
@@ -70,32 +76,58 @@ object IconPackChooser {
     /**
      * Construct dynamically the icon pack provide by the default string resource "resource_id"
      */
-    private fun addDefaultIconPack(context: Context) {
+    private fun addDefaultIconPack(context: Context): IconPack {
         val resourceId = context.resources.getIdentifier("resource_id", "string", context.packageName)
-        iconPackList.add(IconPack(context.packageName, context.resources, resourceId))
+        return IconPack(context.packageName, context.resources, resourceId).also {
+            iconPacks[DEFAULT_ICON_PACK] = it
+        }
     }
 
     /**
      * Utility method to add new icon pack or catch exception if not retrieve
      */
-    private fun addOrCatchNewIconPack(context: Context, iconPackString: String) {
-        try {
-            iconPackList.add(IconPack(context.packageName, context.resources, context.resources.getIdentifier(
+    private fun addOrCatchNewIconPack(context: Context, iconPackString: String): IconPack? {
+        iconPacks[iconPackString]?.let {
+            return it
+        }
+        return try {
+            IconPack(context.packageName, context.resources, context.resources.getIdentifier(
                     iconPackString + "_resource_id",
                     "string",
-                    context.packageName)))
+                    context.packageName)).also {
+                iconPacks[iconPackString] = it
+            }
         } catch (e: Exception) {
             Log.w(TAG, "Icon pack $iconPackString can't be load")
+            null
         }
+    }
 
+    /**
+     * Load only the icon pack [iconPackIdString], the id of a pack being its name in `ICON_PACKS`
+     */
+    private fun loadIconPack(context: Context, iconPackIdString: String?): IconPack? {
+        synchronized(IconPackChooser::class.java) {
+            if (iconPackIdString != null && BuildConfig.ICON_PACKS.contains(iconPackIdString)) {
+                addOrCatchNewIconPack(context, iconPackIdString)?.let { iconPack ->
+                    if (iconPack.id == iconPackIdString)
+                        return iconPack
+                }
+            }
+            // Unknown id, search in all the packs
+            build(context)
+            return iconPacks.values.firstOrNull { it.id == iconPackIdString }
+        }
     }
 
     fun setSelectedIconPack(iconPackIdString: String?) {
-        for (iconPack in iconPackList) {
-            if (iconPack.id == iconPackIdString) {
-                Database.getInstance().drawFactory.clearCache()
-                iconPackSelected = iconPack
-                break
+        synchronized(IconPackChooser::class.java) {
+            for (iconPack in iconPacks.values) {
+                if (iconPack.id == iconPackIdString) {
+                    Database.getInstance().drawFactory.clearCache()
+                    iconPackSelected = iconPack
+                    break
+                }
             }
         }
     }
@@ -103,13 +135,12 @@ object IconPackChooser {
     /**
      * Get the current IconPack used
      *
-     * @param context Context to build the icon pack if not already build
+     * @param context Context to load the selected icon pack if not already loaded
      * @return IconPack currently in usage
      */
     fun getSelectedIconPack(context: Context): IconPack? {
-        build(context)
         if (iconPackSelected == null)
-            setSelectedIconPack(PreferencesUtil.getIconPackSelectedId(context))
+            iconPackSelected = loadIconPack(context, PreferencesUtil.getIconPackSelectedId(context))
         return iconPackSelected
     }
 
@@ -120,7 +151,12 @@ object IconPackChooser {
      * @return IconPack available
      */
     fun getIconPackList(context: Context): List<IconPack> {
-        build(context)
-        return iconPackList
+        synchronized(IconPackChooser::class.java) {
+            build(context)
+            // In the order of `ICON_PACKS`, whatever the pack loaded first
+            return iconPacks.entries
+                    .sortedBy { BuildConfig.ICON_PACKS.indexOf(it.key) }
+                    .map { it.value }
+        }
     }
 }
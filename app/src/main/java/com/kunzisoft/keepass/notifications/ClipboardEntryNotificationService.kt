@@ -28,6 +28,7 @@ import com.kunzisoft.keepass.model.EntryInfo
 import com.kunzisoft.keepass.settings.PreferencesUtil
 import com.kunzisoft.keepass.timeout.ClipboardHelper
 import com.kunzisoft.keepass.timeout.TimeoutHelper.NEVER
+import com.kunzisoft.keepass.timeout.TimerWheel
 import com.kunzisoft.keepass.utils.LOCK_ACTION
 import java.util.*
 
@@ -37,7 +38,7 @@ class ClipboardEntryNotificationService : LockNotificationService() {
     private var mEntryInfo: EntryInfo? = null
     private var clipboardHelper: ClipboardHelper? = null
     private var notificationTimeoutMilliSecs: Long = 0
-    private var cleanCopyNotificationTimerTask: Thread? = null
+    private var cleanCopyNotificationTimerTask: TimerWheel.Timeout? = null
 
     override fun onCreate() {
         super.onCreate()
@@ -165,34 +166,27 @@ class ClipboardEntryNotificationService : LockNotificationService() {
             val myNotificationId = notificationId
 
             if (notificationTimeoutMilliSecs != NEVER) {
-                cleanCopyNotificationTimerTask = Thread {
-                    val maxPos = 100
-                    val posDurationMills = notificationTimeoutMilliSecs / maxPos
-                    for (pos in maxPos downTo 0) {
-                        val newGeneratedValue = fieldToCopy.getGeneratedValue(mEntryInfo)
-                        // New auto generated value
-                        if (generatedValue != newGeneratedValue) {
-                            generatedValue = newGeneratedValue
-                            clipboardHelper?.copyToClipboard(fieldToCopy.label, generatedValue)
-                        }
-                        builder.setProgress(maxPos, pos, false)
-                        notificationManager?.notify(myNotificationId, builder.build())
-                        try {
-                            Thread.sleep(posDurationMills)
-                        } catch (e: InterruptedException) {
-                            break
-                        }
-                        if (pos <= 0) {
+                val maxPos = 100
+                builder.setProgress(maxPos, maxPos, false)
+                notificationManager?.notify(myNotificationId, builder.build())
+                cleanCopyNotificationTimerTask = TimerWheel.scheduleCountdown(notificationTimeoutMilliSecs,
+                        { remaining ->
+                            val newGeneratedValue = fieldToCopy.getGeneratedValue(mEntryInfo)
+                            // New auto generated value
+                            if (generatedValue != newGeneratedValue) {
+                                generatedValue = newGeneratedValue
+                                clipboardHelper?.copyToClipboard(fieldToCopy.label, generatedValue)
+                            }
+                            builder.setProgress(maxPos, (remaining * maxPos / notificationTimeoutMilliSecs).toInt(), false)
+                            notificationManager?.notify(myNotificationId, builder.build())
+                        },
+                        {
                             stopNotificationAndSendLockIfNeeded()
-                        }
-                    }
-                    stopTask(cleanCopyNotificationTimerTask)
-                    notificationManager?.cancel(myNotificationId)
-                    // Clean password only if no next field
-                    if (nextFields.size <= 0)
-                        cleanClipboard()
-                }
-                cleanCopyNotificationTimerTask?.start()
+                            notificationManager?.cancel(myNotificationId)
+                            // Clean password only if no next field
+                            if (nextFields.size <= 0)
+                                cleanClipboard()
+                        })
             } else {
                 // No timer
                 notificationManager?.notify(myNotificationId, builder.build())
@@ -21,23 +21,28 @@ package com.kunzisoft.keepass.notifications
 
 import android.content.Intent
 import android.net.Uri
-import android.os.AsyncTask
 import android.os.Binder
 import android.os.Bundle
+import android.os.Handler
 import android.os.IBinder
+import android.os.Looper
 import com.kunzisoft.keepass.R
 import com.kunzisoft.keepass.app.database.CipherDatabaseEntity
 import com.kunzisoft.keepass.database.action.*
 import com.kunzisoft.keepass.database.action.history.DeleteEntryHistoryDatabaseRunnable
+import com.kunzisoft.keepass.database.action.history.RemoveOldestHistoryDatabaseRunnable
 import com.kunzisoft.keepass.database.action.history.RestoreEntryHistoryDatabaseRunnable
 import com.kunzisoft.keepass.database.action.node.*
 import com.kunzisoft.keepass.database.element.*
 import com.kunzisoft.keepass.database.element.database.CompressionAlgorithm
 import com.kunzisoft.keepass.database.element.node.Node
+import com.kunzisoft.keepass.database.element.node.NodeDraftRegistry
+import com.kunzisoft.keepass.database.element.node.NodeHandle
 import com.kunzisoft.keepass.database.element.node.NodeId
 import com.kunzisoft.keepass.database.element.node.Type
 import com.kunzisoft.keepass.settings.PreferencesUtil
 import com.kunzisoft.keepass.tasks.ActionRunnable
+import com.kunzisoft.keepass.tasks.ActionRunnableScheduler
 import com.kunzisoft.keepass.tasks.ProgressTaskUpdater
 import com.kunzisoft.keepass.utils.DATABASE_START_TASK_ACTION
 import com.kunzisoft.keepass.utils.DATABASE_STOP_TASK_ACTION
@@ -48,7 +53,15 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
 
     override val notificationId: Int = 575
 
-    private var actionRunnableAsyncTask: ActionRunnableAsyncTask? = null
+    private val mActionScheduler = ActionRunnableScheduler { stopIfIdle() }
+    // Results of the actions finished before the bind of a listener
+    private val mUndeliveredResults = LinkedList<Pair<String, ActionRunnable.Result>>()
+    private val mHandler = Handler(Looper.getMainLooper())
+    private val mDropUndeliveredResults = Runnable {
+        mUndeliveredResults.clear()
+        sendBroadcast(Intent(DATABASE_STOP_TASK_ACTION))
+        stopIfIdle()
+    }
 
     private var mActionTaskBinder = ActionTaskBinder()
     private var mActionTaskListeners = LinkedList<ActionTaskListener>()
@@ -63,11 +76,23 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
 
         fun addActionTaskListener(actionTaskListener: ActionTaskListener) {
             mActionTaskListeners.add(actionTaskListener)
+            deliverUndeliveredResults()
         }
 
         fun removeActionTaskListener(actionTaskListener: ActionTaskListener) {
             mActionTaskListeners.remove(actionTaskListener)
         }
+
+        /**
+         * Number of actions waiting for the end of the running ones
+         */
+        fun getPendingActionsCount(): Int {
+            return mActionScheduler.queueDepth
+        }
+
+        fun cancelPendingActions() {
+            mActionScheduler.cancelPendingTasks()
+        }
     }
 
     interface ActionTaskListener {
@@ -77,8 +102,10 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
     }
 
     fun checkAction() {
-        mActionTaskListeners.forEach { actionTaskListener ->
-            actionTaskListener.onUpdateAction(mTitleId, mMessageId, mWarningId)
+        if (!mActionScheduler.isIdle) {
+            mActionTaskListeners.forEach { actionTaskListener ->
+                actionTaskListener.onUpdateAction(mTitleId, mMessageId, mWarningId)
+            }
         }
     }
 
@@ -132,11 +159,11 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
             ACTION_DATABASE_RESTORE_ENTRY_HISTORY -> buildDatabaseRestoreEntryHistoryActionTask(intent)
             ACTION_DATABASE_DELETE_ENTRY_HISTORY -> buildDatabaseDeleteEntryHistoryActionTask(intent)
             ACTION_DATABASE_UPDATE_COMPRESSION_TASK -> buildDatabaseUpdateCompressionActionTask(intent)
+            ACTION_DATABASE_UPDATE_MAX_HISTORY_ITEMS_TASK -> buildDatabaseUpdateMaxHistoryItemsActionTask(intent)
             ACTION_DATABASE_UPDATE_NAME_TASK,
             ACTION_DATABASE_UPDATE_DESCRIPTION_TASK,
             ACTION_DATABASE_UPDATE_DEFAULT_USERNAME_TASK,
             ACTION_DATABASE_UPDATE_COLOR_TASK,
-            ACTION_DATABASE_UPDATE_MAX_HISTORY_ITEMS_TASK,
             ACTION_DATABASE_UPDATE_MAX_HISTORY_SIZE_TASK,
             ACTION_DATABASE_UPDATE_ENCRYPTION_TASK,
             ACTION_DATABASE_UPDATE_KEY_DERIVATION_TASK,
@@ -147,42 +174,75 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
             else -> null
         }
 
-        actionRunnable?.let { actionRunnableNotNull ->
-            // Assign elements for updates
-            mTitleId = titleId
-            mMessageId = messageId
-            mWarningId = warningId
-
-            // Create the notification
-            newNotification(intent.getIntExtra(DATABASE_TASK_TITLE_KEY, titleId))
-
-            // Build and launch the action
-            actionRunnableAsyncTask = ActionRunnableAsyncTask(this,
-                {
-                    sendBroadcast(Intent(DATABASE_START_TASK_ACTION).apply {
-                        putExtra(DATABASE_TASK_TITLE_KEY, titleId)
-                        putExtra(DATABASE_TASK_MESSAGE_KEY, messageId)
-                        putExtra(DATABASE_TASK_WARNING_KEY, warningId)
-                    })
-
-                    mActionTaskListeners.forEach { actionTaskListener ->
-                        actionTaskListener.onStartAction(titleId, messageId, warningId)
+        if (actionRunnable != null && intentAction != null) {
+            // Create the notification, updated at the start of the action if others are running
+            if (mActionScheduler.isIdle)
+                newNotification(intent.getIntExtra(DATABASE_TASK_TITLE_KEY, titleId))
+
+            // Queue the action, run as soon as the running actions allow it
+            mActionScheduler.schedule(intentAction,
+                    actionRunnable,
+                    READ_ONLY_ACTIONS.contains(intentAction),
+                    {
+                        // Assign elements for updates
+                        mTitleId = titleId
+                        mMessageId = messageId
+                        mWarningId = warningId
+
+                        newNotification(intent.getIntExtra(DATABASE_TASK_TITLE_KEY, titleId))
+
+                        sendBroadcast(Intent(DATABASE_START_TASK_ACTION).apply {
+                            putExtra(DATABASE_TASK_TITLE_KEY, titleId)
+                            putExtra(DATABASE_TASK_MESSAGE_KEY, messageId)
+                            putExtra(DATABASE_TASK_WARNING_KEY, warningId)
+                        })
+
+                        mActionTaskListeners.forEach { actionTaskListener ->
+                            actionTaskListener.onStartAction(titleId, messageId, warningId)
+                        }
+                    }, { _, result ->
+                        deliverResult(intentAction, result)
                     }
+            )
+        }
 
-                }, { result ->
-                    mActionTaskListeners.forEach { actionTaskListener ->
-                        actionTaskListener.onStopAction(intentAction!!, result)
-                    }
+        return START_REDELIVER_INTENT
+    }
 
-                    sendBroadcast(Intent(DATABASE_STOP_TASK_ACTION))
+    private fun deliverResult(actionTask: String, result: ActionRunnable.Result) {
+        if (mActionTaskListeners.isEmpty()) {
+            // The listener of the activity which started the action may not be bound yet
+            mUndeliveredResults.add(Pair(actionTask, result))
+            mHandler.removeCallbacks(mDropUndeliveredResults)
+            mHandler.postDelayed(mDropUndeliveredResults, UNDELIVERED_RESULTS_DELAY)
+        } else {
+            mActionTaskListeners.forEach { actionTaskListener ->
+                actionTaskListener.onStopAction(actionTask, result)
+            }
+            sendBroadcast(Intent(DATABASE_STOP_TASK_ACTION))
+        }
+    }
 
-                    stopSelf()
-                }
-            )
-            actionRunnableAsyncTask?.execute({ actionRunnableNotNull })
+    private fun deliverUndeliveredResults() {
+        if (mUndeliveredResults.isNotEmpty()) {
+            mHandler.removeCallbacks(mDropUndeliveredResults)
+            while (mUndeliveredResults.isNotEmpty()) {
+                val (actionTask, result) = mUndeliveredResults.removeFirst()
+                deliverResult(actionTask, result)
+            }
+            stopIfIdle()
         }
+    }
 
-        return START_REDELIVER_INTENT
+    private fun stopIfIdle() {
+        if (mActionScheduler.isIdle && mUndeliveredResults.isEmpty())
+            stopSelf()
+    }
+
+    override fun onDestroy() {
+        mHandler.removeCallbacks(mDropUndeliveredResults)
+        mActionScheduler.shutdown()
+        super.onDestroy()
     }
 
     private fun newNotification(title: Int) {
@@ -307,6 +367,26 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         }
     }
 
+    /**
+     * Retrieve the draft group of the intent, only its handle is in the intent
+     */
+    private fun takeDraftGroup(database: Database, intent: Intent): Group? {
+        val handle: NodeHandle = intent.getParcelableExtra(GROUP_KEY) ?: return null
+        return database.getGroupByHandle(handle).also {
+            NodeDraftRegistry.remove(handle)
+        }
+    }
+
+    /**
+     * Retrieve the draft entry of the intent, only its handle is in the intent
+     */
+    private fun takeDraftEntry(database: Database, intent: Intent): Entry? {
+        val handle: NodeHandle = intent.getParcelableExtra(ENTRY_KEY) ?: return null
+        return database.getEntryByHandle(handle).also {
+            NodeDraftRegistry.remove(handle)
+        }
+    }
+
     private fun buildDatabaseCreateGroupActionTask(intent: Intent): ActionRunnable? {
         return if (intent.hasExtra(GROUP_KEY)
                 && intent.hasExtra(PARENT_ID_KEY)
@@ -314,7 +394,7 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         ) {
             val database = Database.getInstance()
             val parentId: NodeId<*>? = intent.getParcelableExtra(PARENT_ID_KEY)
-            val newGroup: Group? = intent.getParcelableExtra(GROUP_KEY)
+            val newGroup: Group? = takeDraftGroup(database, intent)
 
             if (parentId == null
                     || newGroup == null)
@@ -340,7 +420,7 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         ) {
             val database = Database.getInstance()
             val groupId: NodeId<*>? = intent.getParcelableExtra(GROUP_ID_KEY)
-            val newGroup: Group? = intent.getParcelableExtra(GROUP_KEY)
+            val newGroup: Group? = takeDraftGroup(database, intent)
 
             if (groupId == null
                     || newGroup == null)
@@ -366,7 +446,7 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         ) {
             val database = Database.getInstance()
             val parentId: NodeId<*>? = intent.getParcelableExtra(PARENT_ID_KEY)
-            val newEntry: Entry? = intent.getParcelableExtra(ENTRY_KEY)
+            val newEntry: Entry? = takeDraftEntry(database, intent)
 
             if (parentId == null
                     || newEntry == null)
@@ -392,7 +472,7 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         ) {
             val database = Database.getInstance()
             val entryId: NodeId<UUID>? = intent.getParcelableExtra(ENTRY_ID_KEY)
-            val newEntry: Entry? = intent.getParcelableExtra(ENTRY_KEY)
+            val newEntry: Entry? = takeDraftEntry(database, intent)
 
             if (entryId == null
                     || newEntry == null)
@@ -538,6 +618,21 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         }
     }
 
+    private fun buildDatabaseUpdateMaxHistoryItemsActionTask(intent: Intent): ActionRunnable? {
+        return if (intent.hasExtra(SAVE_DATABASE_KEY)) {
+            return RemoveOldestHistoryDatabaseRunnable(this,
+                    Database.getInstance(),
+                    intent.getBooleanExtra(SAVE_DATABASE_KEY, false)
+            ).apply {
+                mAfterSaveDatabase = { result ->
+                    result.data = intent.extras
+                }
+            }
+        } else {
+            null
+        }
+    }
+
     private fun buildDatabaseUpdateElementActionTask(intent: Intent): ActionRunnable? {
         return if (intent.hasExtra(SAVE_DATABASE_KEY)) {
             return SaveDatabaseRunnable(this,
@@ -566,39 +661,13 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         }
     }
 
-    private class ActionRunnableAsyncTask(private val progressTaskUpdater: ProgressTaskUpdater,
-                                          private val onPreExecute: () -> Unit,
-                                          private val onPostExecute: (result: ActionRunnable.Result) -> Unit)
-        : AsyncTask<((ProgressTaskUpdater?) -> ActionRunnable), Void, ActionRunnable.Result>() {
-
-        override fun onPreExecute() {
-            super.onPreExecute()
-            onPreExecute.invoke()
-        }
-
-        override fun doInBackground(vararg actionRunnables: ((ProgressTaskUpdater?)-> ActionRunnable)?): ActionRunnable.Result {
-            var resultTask = ActionRunnable.Result(false)
-            // Without that, bind listeners don't work properly (I don't know why?)
-            Thread.sleep(500)
-            actionRunnables.forEach {
-                it?.invoke(progressTaskUpdater)?.apply {
-                    run()
-                    resultTask = result
-                }
-            }
-            return resultTask
-        }
-
-        override fun onPostExecute(result: ActionRunnable.Result) {
-            super.onPostExecute(result)
-            onPostExecute.invoke(result)
-        }
-    }
-
     companion object {
 
         private val TAG = DatabaseTaskNotificationService::class.java.name
 
+        // Time to wait the bind of a listener before dropping the results of the actions
+        private const val UNDELIVERED_RESULTS_DELAY = 2000L
+
         const val DATABASE_TASK_TITLE_KEY = "DATABASE_TASK_TITLE_KEY"
         const val DATABASE_TASK_MESSAGE_KEY = "DATABASE_TASK_MESSAGE_KEY"
         const val DATABASE_TASK_WARNING_KEY = "DATABASE_TASK_WARNING_KEY"
@@ -629,6 +698,20 @@ class DatabaseTaskNotificationService : NotificationService(), ProgressTaskUpdat
         const val ACTION_DATABASE_UPDATE_ITERATIONS_TASK = "ACTION_DATABASE_UPDATE_ITERATIONS_TASK"
         const val ACTION_DATABASE_SAVE = "ACTION_DATABASE_SAVE"
 
+        // Actions which only save the database, run concurrently
+        private val READ_ONLY_ACTIONS = setOf(
+                ACTION_DATABASE_UPDATE_NAME_TASK,
+                ACTION_DATABASE_UPDATE_DESCRIPTION_TASK,
+                ACTION_DATABASE_UPDATE_DEFAULT_USERNAME_TASK,
+                ACTION_DATABASE_UPDATE_COLOR_TASK,
+                ACTION_DATABASE_UPDATE_MAX_HISTORY_SIZE_TASK,
+                ACTION_DATABASE_UPDATE_ENCRYPTION_TASK,
+                ACTION_DATABASE_UPDATE_KEY_DERIVATION_TASK,
+                ACTION_DATABASE_UPDATE_MEMORY_USAGE_TASK,
+                ACTION_DATABASE_UPDATE_PARALLELISM_TASK,
+                ACTION_DATABASE_UPDATE_ITERATIONS_TASK,
+                ACTION_DATABASE_SAVE)
+
         const val DATABASE_URI_KEY = "DATABASE_URI_KEY"
         const val MASTER_PASSWORD_CHECKED_KEY = "MASTER_PASSWORD_CHECKED_KEY"
         const val MASTER_PASSWORD_KEY = "MASTER_PASSWORD_KEY"
@@ -29,12 +29,13 @@ import com.kunzisoft.keepass.magikeyboard.MagikIME
 import com.kunzisoft.keepass.model.EntryInfo
 import com.kunzisoft.keepass.settings.PreferencesUtil
 import com.kunzisoft.keepass.timeout.TimeoutHelper
+import com.kunzisoft.keepass.timeout.TimerWheel
 import com.kunzisoft.keepass.utils.LOCK_ACTION
 
 class KeyboardEntryNotificationService : LockNotificationService() {
 
     override val notificationId = 486
-    private var cleanNotificationTimerTask: Thread? = null
+    private var cleanNotificationTimerTask: TimerWheel.Timeout? = null
     private var notificationTimeoutMilliSecs: Long = 0
 
     private var pendingDeleteIntent: PendingIntent? = null
@@ -100,23 +101,17 @@ class KeyboardEntryNotificationService : LockNotificationService() {
         // Timeout only if notification clear is available
         if (PreferencesUtil.isClearKeyboardNotificationEnable(this)) {
             if (notificationTimeoutMilliSecs != TimeoutHelper.NEVER) {
-                cleanNotificationTimerTask = Thread {
-                    val maxPos = 100
-                    val posDurationMills = notificationTimeoutMilliSecs / maxPos
-                    for (pos in maxPos downTo 0) {
-                        builder.setProgress(maxPos, pos, false)
-                        notificationManager?.notify(notificationId, builder.build())
-                        try {
-                            Thread.sleep(posDurationMills)
-                        } catch (e: InterruptedException) {
-                            break
-                        }
-                        if (pos <= 0) {
+                val maxPos = 100
+                builder.setProgress(maxPos, maxPos, false)
+                notificationManager?.notify(notificationId, builder.build())
+                cleanNotificationTimerTask = TimerWheel.scheduleCountdown(notificationTimeoutMilliSecs,
+                        { remaining ->
+                            builder.setProgress(maxPos, (remaining * maxPos / notificationTimeoutMilliSecs).toInt(), false)
+                            notificationManager?.notify(notificationId, builder.build())
+                        },
+                        {
                             stopNotificationAndSendLockIfNeeded()
-                        }
-                    }
-                }
-                cleanNotificationTimerTask?.start()
+                        })
             }
         }
     }
@@ -20,6 +20,7 @@
 package com.kunzisoft.keepass.notifications
 
 import android.content.Intent
+import com.kunzisoft.keepass.timeout.TimerWheel
 import com.kunzisoft.keepass.utils.LockReceiver
 import com.kunzisoft.keepass.utils.registerLockReceiver
 import com.kunzisoft.keepass.utils.unregisterLockReceiver
@@ -43,9 +44,8 @@ abstract class LockNotificationService : NotificationService() {
         registerLockReceiver(mLockReceiver)
     }
 
-    protected fun stopTask(task: Thread?) {
-        if (task != null && task.isAlive)
-            task.interrupt()
+    protected fun stopTask(task: TimerWheel.Timeout?) {
+        task?.cancel()
     }
 
     override fun onTaskRemoved(rootIntent: Intent?) {
@@ -160,17 +160,7 @@ data class OtpElement(var otpModel: OtpModel = OtpModel()) {
     }
 
     val token: String
-        get() {
-            if (secret == null)
-                return ""
-            return when (type) {
-                OtpType.HOTP -> TokenCalculator.HOTP(secret, counter, digits, algorithm)
-                OtpType.TOTP -> when (tokenType) {
-                    OtpTokenType.STEAM -> TokenCalculator.TOTP_Steam(secret, period, digits, algorithm)
-                    else -> TokenCalculator.TOTP_RFC6238(secret, period, digits, algorithm)
-                }
-            }
-        }
+        get() = OtpEngine.token(this)
 
     val secondsRemaining: Int
         get() = otpModel.period - (System.currentTimeMillis() / 1000 % otpModel.period).toInt()
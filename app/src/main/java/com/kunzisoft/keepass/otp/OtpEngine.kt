@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.otp
+
+import com.kunzisoft.keepass.timeout.TimerWheel
+import java.util.*
+import java.util.concurrent.CopyOnWriteArraySet
+
+/**
+ * Computation of the OTP tokens shared by all the views, the tokens are kept by period (or counter for HOTP)
+ * and the token of the next period is computed with the current one, to be ready at the change of period.
+ *
+ * The visible OTP widgets are refreshed by a single tick aligned on the seconds, so on the start of each period.
+ */
+object OtpEngine {
+
+    private const val MAX_CACHED_TOKENS = 64
+
+    interface TickListener {
+        /**
+         * Called in the thread of the timer wheel at each second
+         */
+        fun onTick(currentTimeMillis: Long)
+    }
+
+    private class TokenKey(secret: ByteArray,
+                           val algorithm: TokenCalculator.HashAlgorithm,
+                           val digits: Int,
+                           val steam: Boolean,
+                           val counter: Long) {
+
+        // Copied, a key of the cache must not change with the array of the element
+        val secret: ByteArray = secret.clone()
+
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is TokenKey) return false
+            return counter == other.counter
+                    && digits == other.digits
+                    && steam == other.steam
+                    && algorithm == other.algorithm
+                    && secret.contentEquals(other.secret)
+        }
+
+        override fun hashCode(): Int {
+            var result = secret.contentHashCode()
+            result = 31 * result + algorithm.hashCode()
+            result = 31 * result + digits
+            result = 31 * result + steam.hashCode()
+            result = 31 * result + counter.hashCode()
+            return result
+        }
+    }
+
+    private val tokenCache = object : LinkedHashMap<TokenKey, String>(MAX_CACHED_TOKENS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<TokenKey, String>?): Boolean {
+            return size > MAX_CACHED_TOKENS
+        }
+    }
+
+    private val tickListeners = CopyOnWriteArraySet<TickListener>()
+    private var tickTimeout: TimerWheel.Timeout? = null
+
+    /**
+     * Token of [otpElement] at [currentTimeMillis], empty if there is no secret
+     */
+    fun token(otpElement: OtpElement, currentTimeMillis: Long = System.currentTimeMillis()): String {
+        synchronized(tokenCache) {
+            return computeToken(otpElement, currentTimeMillis)
+        }
+    }
+
+    private fun computeToken(otpElement: OtpElement, currentTimeMillis: Long): String {
+        val secret = otpElement.secret ?: return ""
+        return when (otpElement.type) {
+            OtpType.HOTP -> cachedToken(TokenKey(secret, otpElement.algorithm, otpElement.digits,
+                    false, otpElement.counter))
+            OtpType.TOTP -> {
+                val steam = otpElement.tokenType == OtpTokenType.STEAM
+                val counter = currentTimeMillis / 1000 / otpElement.period
+                val token = cachedToken(TokenKey(secret, otpElement.algorithm, otpElement.digits, steam, counter))
+                // Ready for the next period
+                cachedToken(TokenKey(secret, otpElement.algorithm, otpElement.digits, steam, counter + 1))
+                token
+            }
+        }
+    }
+
+    private fun cachedToken(tokenKey: TokenKey): String {
+        return tokenCache.getOrPut(tokenKey) {
+            if (tokenKey.steam)
+                TokenCalculator.Steam(tokenKey.secret, tokenKey.counter, tokenKey.digits, tokenKey.algorithm)
+            else
+                TokenCalculator.HOTP(tokenKey.secret, tokenKey.counter, tokenKey.digits, tokenKey.algorithm)
+        }
+    }
+
+    /**
+     * Call [tickListener] at each second until removed, a single tick is shared by all the listeners
+     */
+    fun addTickListener(tickListener: TickListener) {
+        synchronized(tickListeners) {
+            tickListeners.add(tickListener)
+            if (tickTimeout == null) {
+                tickTimeout = TimerWheel.scheduleAtFixedRate(TimerWheel.COUNTDOWN_PERIOD) {
+                    val currentTimeMillis = System.currentTimeMillis()
+                    for (listener in tickListeners) {
+                        listener.onTick(currentTimeMillis)
+                    }
+                }
+            }
+        }
+    }
+
+    fun removeTickListener(tickListener: TickListener) {
+        synchronized(tickListeners) {
+            tickListeners.remove(tickListener)
+            if (tickListeners.isEmpty()) {
+                tickTimeout?.cancel()
+                tickTimeout = null
+            }
+        }
+    }
+
+    /**
+     * Remove the tokens and the initialised Mac of the secrets
+     */
+    fun clearCache() {
+        synchronized(tokenCache) {
+            tokenCache.clear()
+        }
+        TokenCalculator.clearCache()
+    }
+}
@@ -23,8 +23,9 @@ package com.kunzisoft.keepass.otp;
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.text.NumberFormat;
-import java.util.Locale;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -55,14 +56,68 @@ public class TokenCalculator {
         }
     }
 
+    private static final int MAX_CACHED_MACS = 32;
+
+    /**
+     * Initialised Mac by algorithm and secret, the most recently used are kept
+     */
+    private static final LinkedHashMap<MacKey, Mac> macCache =
+            new LinkedHashMap<MacKey, Mac>(MAX_CACHED_MACS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MacKey, Mac> eldest) {
+                    return size() > MAX_CACHED_MACS;
+                }
+            };
+
+    private static final class MacKey {
+        private final HashAlgorithm algorithm;
+        private final byte[] key;
+        private final int hashCode;
+
+        MacKey(HashAlgorithm algorithm, byte[] key) {
+            this.algorithm = algorithm;
+            this.key = key.clone();
+            this.hashCode = 31 * algorithm.hashCode() + Arrays.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MacKey)) return false;
+            MacKey macKey = (MacKey) o;
+            return algorithm == macKey.algorithm && Arrays.equals(key, macKey.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     private static byte[] generateHash(HashAlgorithm algorithm, byte[] key, byte[] data)
             throws NoSuchAlgorithmException, InvalidKeyException {
-        String algo = "Hmac" + algorithm.toString();
-
-        Mac mac = Mac.getInstance(algo);
-        mac.init(new SecretKeySpec(key, algo));
+        // A Mac is not thread safe, each use is synchronized with the cache
+        synchronized (macCache) {
+            MacKey macKey = new MacKey(algorithm, key);
+            Mac mac = macCache.get(macKey);
+            if (mac == null) {
+                String algo = "Hmac" + algorithm.toString();
+                mac = Mac.getInstance(algo);
+                mac.init(new SecretKeySpec(key, algo));
+                macCache.put(macKey, mac);
+            }
+            // doFinal resets the Mac for the next use with the same key
+            return mac.doFinal(data);
+        }
+    }
 
-        return mac.doFinal(data);
+    /**
+     * Remove the initialised Mac of all the secrets, to not keep them after the database is closed
+     */
+    public static void clearCache() {
+        synchronized (macCache) {
+            macCache.clear();
+        }
     }
 
     public static int TOTP_RFC6238(byte[] secret, int period, long time, int digits, HashAlgorithm algorithm) {
@@ -77,7 +132,14 @@ public class TokenCalculator {
     }
 
     public static String TOTP_Steam(byte[] secret, int period, int digits, HashAlgorithm algorithm) {
-        int fullToken = TOTP(secret, period, System.currentTimeMillis() / 1000, algorithm);
+        return Steam(secret, System.currentTimeMillis() / 1000 / period, digits, algorithm);
+    }
+
+    /**
+     * Steam token of the period [counter], as retrieved by TOTP_Steam during this period
+     */
+    public static String Steam(byte[] secret, long counter, int digits, HashAlgorithm algorithm) {
+        int fullToken = HOTP(secret, counter, algorithm);
 
         StringBuilder tokenBuilder = new StringBuilder();
 
@@ -123,10 +185,14 @@ public class TokenCalculator {
     }
 
     public static String formatTokenString(int token, int digits) {
-        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
-        numberFormat.setMinimumIntegerDigits(digits);
-        numberFormat.setGroupingUsed(false);
-
-        return numberFormat.format(token);
+        // Left padded with zeros, without the cost of a NumberFormat
+        String tokenString = Integer.toString(token);
+        if (tokenString.length() >= digits)
+            return tokenString;
+        StringBuilder tokenBuilder = new StringBuilder(digits);
+        for (int i = tokenString.length(); i < digits; i++) {
+            tokenBuilder.append('0');
+        }
+        return tokenBuilder.append(tokenString).toString();
     }
 }
\ No newline at end of file
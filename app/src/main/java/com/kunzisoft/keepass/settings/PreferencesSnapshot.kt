@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.settings
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.kunzisoft.keepass.R
+import com.kunzisoft.keepass.database.element.SortNodeEnum
+import com.kunzisoft.keepass.timeout.TimeoutHelper
+
+/**
+ * Immutable values of the settings read in the hot paths (list binding, timeout check, clipboard and autofill),
+ * parsed once from the shared preferences and replaced as a whole by [PreferencesUtil] when a setting changes.
+ */
+data class PreferencesSnapshot(val listTextSize: Float,
+                               val listSort: SortNodeEnum,
+                               val ascendingSort: Boolean,
+                               val groupsBeforeSort: Boolean,
+                               val recycleBinBottomSort: Boolean,
+                               val showUsernamesListEntries: Boolean,
+                               val showNumberEntries: Boolean,
+                               val showExpiredEntries: Boolean,
+                               val omitBackup: Boolean,
+                               val timeSaved: Long,
+                               val appTimeout: Long,
+                               val clipboardTimeout: Long,
+                               val clipboardNotificationsEnable: Boolean,
+                               val clearClipboardNotificationEnable: Boolean,
+                               val allowCopyPasswordAndProtectedFields: Boolean,
+                               val autofillAutoSearchEnable: Boolean) {
+
+    companion object {
+
+        fun load(context: Context, prefs: SharedPreferences): PreferencesSnapshot {
+            val resources = context.resources
+            return PreferencesSnapshot(
+                    listTextSize = loadListTextSize(context, prefs),
+                    listSort = prefs.getString(context.getString(R.string.sort_node_key),
+                            SortNodeEnum.DB.name)?.let { SortNodeEnum.valueOf(it) } ?: SortNodeEnum.DB,
+                    ascendingSort = prefs.getBoolean(context.getString(R.string.sort_ascending_key),
+                            resources.getBoolean(R.bool.sort_ascending_default)),
+                    groupsBeforeSort = prefs.getBoolean(context.getString(R.string.sort_group_before_key),
+                            resources.getBoolean(R.bool.sort_group_before_default)),
+                    recycleBinBottomSort = prefs.getBoolean(context.getString(R.string.sort_recycle_bin_bottom_key),
+                            resources.getBoolean(R.bool.sort_recycle_bin_bottom_default)),
+                    showUsernamesListEntries = prefs.getBoolean(context.getString(R.string.list_entries_show_username_key),
+                            resources.getBoolean(R.bool.list_entries_show_username_default)),
+                    showNumberEntries = prefs.getBoolean(context.getString(R.string.list_groups_show_number_entries_key),
+                            resources.getBoolean(R.bool.list_groups_show_number_entries_default)),
+                    showExpiredEntries = !prefs.getBoolean(context.getString(R.string.hide_expired_entries_key),
+                            resources.getBoolean(R.bool.hide_expired_entries_default)),
+                    omitBackup = prefs.getBoolean(context.getString(R.string.omit_backup_search_key),
+                            resources.getBoolean(R.bool.omit_backup_search_default)),
+                    timeSaved = loadTimeSaved(context, prefs),
+                    appTimeout = try {
+                        (prefs.getString(context.getString(R.string.app_timeout_key),
+                                context.getString(R.string.clipboard_timeout_default)) ?: "300000").toLong()
+                    } catch (e: NumberFormatException) {
+                        TimeoutHelper.DEFAULT_TIMEOUT
+                    },
+                    clipboardTimeout = prefs.getString(context.getString(R.string.clipboard_timeout_key),
+                            context.getString(R.string.clipboard_timeout_default))?.toLong()
+                            ?: TimeoutHelper.DEFAULT_TIMEOUT,
+                    clipboardNotificationsEnable = prefs.getBoolean(context.getString(R.string.clipboard_notifications_key),
+                            resources.getBoolean(R.bool.clipboard_notifications_default)),
+                    clearClipboardNotificationEnable = prefs.getBoolean(context.getString(R.string.clear_clipboard_notification_key),
+                            resources.getBoolean(R.bool.clear_clipboard_notification_default)),
+                    allowCopyPasswordAndProtectedFields = prefs.getBoolean(context.getString(R.string.allow_copy_password_key),
+                            resources.getBoolean(R.bool.allow_copy_password_default)),
+                    autofillAutoSearchEnable = prefs.getBoolean(context.getString(R.string.autofill_auto_search_key),
+                            resources.getBoolean(R.bool.autofill_auto_search_default))
+            )
+        }
+
+        fun loadTimeSaved(context: Context, prefs: SharedPreferences): Long {
+            return prefs.getLong(context.getString(R.string.timeout_backup_key), TimeoutHelper.NEVER)
+        }
+
+        /**
+         * Retrieve the text size in % (1 for 100%)
+         */
+        private fun loadListTextSize(context: Context, prefs: SharedPreferences): Float {
+            val listSizeString = prefs.getString(context.getString(R.string.list_size_key),
+                    context.getString(R.string.list_size_string_medium))
+            val index = context.resources.getStringArray(R.array.list_size_string_values).indexOf(listSizeString)
+            val typedArray = context.resources.obtainTypedArray(R.array.list_size_values)
+            val listSize = typedArray.getFloat(index, 1.0F)
+            typedArray.recycle()
+            return listSize
+        }
+    }
+}
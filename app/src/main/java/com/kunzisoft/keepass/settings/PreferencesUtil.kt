@@ -20,17 +20,49 @@
 package com.kunzisoft.keepass.settings
 
 import android.content.Context
+import android.content.SharedPreferences
 import android.net.Uri
 import androidx.preference.PreferenceManager
 import com.kunzisoft.keepass.R
 import com.kunzisoft.keepass.database.element.SortNodeEnum
-import com.kunzisoft.keepass.timeout.TimeoutHelper
 import java.util.*
 
 object PreferencesUtil {
 
     var APPEARANCE_CHANGED = false
 
+    @Volatile
+    private var snapshot: PreferencesSnapshot? = null
+    // Strong reference, the shared preferences only keep weak references of the listeners
+    private var snapshotListener: SharedPreferences.OnSharedPreferenceChangeListener? = null
+
+    /**
+     * Settings of the hot paths, loaded once then replaced when a preference changes,
+     * the returned snapshot is immutable and can be read in any thread without lock
+     */
+    fun getSnapshot(context: Context): PreferencesSnapshot {
+        return snapshot ?: loadSnapshot(context.applicationContext)
+    }
+
+    @Synchronized
+    private fun loadSnapshot(appContext: Context): PreferencesSnapshot {
+        snapshot?.let { return it }
+        val prefs = PreferenceManager.getDefaultSharedPreferences(appContext)
+        val timeoutBackupKey = appContext.getString(R.string.timeout_backup_key)
+        val listener = SharedPreferences.OnSharedPreferenceChangeListener { sharedPreferences, key ->
+            // The saved time changes at each resume, don't parse all the settings again
+            val currentSnapshot = snapshot
+            snapshot = if (key == timeoutBackupKey && currentSnapshot != null) {
+                currentSnapshot.copy(timeSaved = PreferencesSnapshot.loadTimeSaved(appContext, sharedPreferences))
+            } else {
+                PreferencesSnapshot.load(appContext, sharedPreferences)
+            }
+        }
+        prefs.registerOnSharedPreferenceChangeListener(listener)
+        snapshotListener = listener
+        return PreferencesSnapshot.load(appContext, prefs).also { snapshot = it }
+    }
+
     fun saveDefaultDatabasePath(context: Context, defaultDatabaseUri: Uri?) {
         val prefs = PreferenceManager.getDefaultSharedPreferences(context)
         prefs?.edit()?.apply {
@@ -86,9 +118,7 @@ object PreferencesUtil {
     }
 
     fun omitBackup(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.omit_backup_search_key),
-                context.resources.getBoolean(R.bool.omit_backup_search_default))
+        return getSnapshot(context).omitBackup
     }
 
     fun automaticallyFocusSearch(context: Context): Boolean {
@@ -98,35 +128,22 @@ object PreferencesUtil {
     }
 
     fun showUsernamesListEntries(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.list_entries_show_username_key),
-                context.resources.getBoolean(R.bool.list_entries_show_username_default))
+        return getSnapshot(context).showUsernamesListEntries
     }
 
     fun showNumberEntries(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.list_groups_show_number_entries_key),
-                context.resources.getBoolean(R.bool.list_groups_show_number_entries_default))
+        return getSnapshot(context).showNumberEntries
     }
 
     fun showExpiredEntries(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return ! prefs.getBoolean(context.getString(R.string.hide_expired_entries_key),
-                context.resources.getBoolean(R.bool.hide_expired_entries_default))
+        return getSnapshot(context).showExpiredEntries
     }
 
     /**
      * Retrieve the text size in % (1 for 100%)
      */
     fun getListTextSize(context: Context): Float {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        val listSizeString = prefs.getString(context.getString(R.string.list_size_key),
-                            context.getString(R.string.list_size_string_medium))
-        val index = context.resources.getStringArray(R.array.list_size_string_values).indexOf(listSizeString)
-        val typedArray = context.resources.obtainTypedArray(R.array.list_size_values)
-        val listSize = typedArray.getFloat(index, 1.0F)
-        typedArray.recycle()
-        return listSize
+        return getSnapshot(context).listTextSize
     }
 
     fun getDefaultPasswordLength(context: Context): Int {
@@ -143,17 +160,18 @@ object PreferencesUtil {
     }
 
     fun isClipboardNotificationsEnable(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.clipboard_notifications_key),
-                context.resources.getBoolean(R.bool.clipboard_notifications_default))
+        return getSnapshot(context).clipboardNotificationsEnable
     }
 
     /**
      * Save current time, can be retrieve with `getTimeSaved()`
      */
     fun saveCurrentTime(context: Context) {
+        val currentTime = System.currentTimeMillis()
+        // Written in the snapshot first, to be checked without waiting for the listener
+        snapshot?.let { snapshot = it.copy(timeSaved = currentTime) }
         PreferenceManager.getDefaultSharedPreferences(context).edit().apply {
-            putLong(context.getString(R.string.timeout_backup_key), System.currentTimeMillis())
+            putLong(context.getString(R.string.timeout_backup_key), currentTime)
             apply()
         }
     }
@@ -162,29 +180,18 @@ object PreferencesUtil {
      * Time previously saved in milliseconds (commonly used to compare with current time and check timeout)
      */
     fun getTimeSaved(context: Context): Long {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getLong(context.getString(R.string.timeout_backup_key),
-                TimeoutHelper.NEVER)
+        return getSnapshot(context).timeSaved
     }
 
     /**
      * App timeout selected in milliseconds
      */
     fun getAppTimeout(context: Context): Long {
-        return try {
-            val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-            (prefs.getString(context.getString(R.string.app_timeout_key),
-                    context.getString(R.string.clipboard_timeout_default)) ?: "300000").toLong()
-        } catch (e: NumberFormatException) {
-            TimeoutHelper.DEFAULT_TIMEOUT
-        }
+        return getSnapshot(context).appTimeout
     }
 
     fun getClipboardTimeout(context: Context): Long {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getString(context.getString(R.string.clipboard_timeout_key),
-                context.getString(R.string.clipboard_timeout_default))?.toLong()
-                ?: TimeoutHelper.DEFAULT_TIMEOUT
+        return getSnapshot(context).clipboardTimeout
     }
 
     fun isLockDatabaseWhenScreenShutOffEnable(context: Context): Boolean {
@@ -230,30 +237,19 @@ object PreferencesUtil {
     }
 
     fun getListSort(context: Context): SortNodeEnum {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        prefs.getString(context.getString(R.string.sort_node_key),
-                SortNodeEnum.DB.name)?.let {
-            return SortNodeEnum.valueOf(it)
-        }
-        return SortNodeEnum.DB
+        return getSnapshot(context).listSort
     }
 
     fun getGroupsBeforeSort(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.sort_group_before_key),
-                context.resources.getBoolean(R.bool.sort_group_before_default))
+        return getSnapshot(context).groupsBeforeSort
     }
 
     fun getAscendingSort(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.sort_ascending_key),
-                context.resources.getBoolean(R.bool.sort_ascending_default))
+        return getSnapshot(context).ascendingSort
     }
 
     fun getRecycleBinBottomSort(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.sort_recycle_bin_bottom_key),
-                context.resources.getBoolean(R.bool.sort_recycle_bin_bottom_default))
+        return getSnapshot(context).recycleBinBottomSort
     }
 
     fun isPasswordMask(context: Context): Boolean {
@@ -275,15 +271,11 @@ object PreferencesUtil {
     }
 
     fun allowCopyPasswordAndProtectedFields(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.allow_copy_password_key),
-                context.resources.getBoolean(R.bool.allow_copy_password_default))
+        return getSnapshot(context).allowCopyPasswordAndProtectedFields
     }
 
     fun isClearClipboardNotificationEnable(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.clear_clipboard_notification_key),
-                context.resources.getBoolean(R.bool.clear_clipboard_notification_default))
+        return getSnapshot(context).clearClipboardNotificationEnable
     }
 
     fun isClearKeyboardNotificationEnable(context: Context): Boolean {
@@ -356,8 +348,6 @@ object PreferencesUtil {
     }
 
     fun isAutofillAutoSearchEnable(context: Context): Boolean {
-        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
-        return prefs.getBoolean(context.getString(R.string.autofill_auto_search_key),
-                context.resources.getBoolean(R.bool.autofill_auto_search_default))
+        return getSnapshot(context).autofillAutoSearchEnable
     }
 }
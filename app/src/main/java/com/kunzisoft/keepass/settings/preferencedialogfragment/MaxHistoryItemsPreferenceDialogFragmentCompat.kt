@@ -57,9 +57,7 @@ class MaxHistoryItemsPreferenceDialogFragmentCompat : DatabaseSavePreferenceDial
                 val oldMaxHistoryItems = database.historyMaxItems
                 database.historyMaxItems = maxHistoryItems
 
-                // Remove all history items
-                database.removeOldestHistoryForEachEntry()
-
+                // The history items over the maximum are removed by the action
                 mProgressDialogThread?.startDatabaseSaveMaxHistoryItems(oldMaxHistoryItems, maxHistoryItems, mDatabaseAutoSaveEnable)
             }
         }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.stream
+
+import java.io.*
+
+/**
+ * Buffer the written bytes in memory, then in a temp file when [memoryThreshold] is exceeded,
+ * to replay them later with [writeTo]. Only data already encrypted should be spooled.
+ */
+class SpooledOutputStream(private val memoryThreshold: Int = DEFAULT_MEMORY_THRESHOLD,
+                          private val tempDirectory: File? = null) : OutputStream() {
+
+    private var memoryOutputStream: ByteArrayOutputStream? = ByteArrayOutputStream()
+    private var tempFile: File? = null
+    private var currentOutputStream: OutputStream = memoryOutputStream!!
+
+    @Throws(IOException::class)
+    private fun checkThreshold(count: Int) {
+        memoryOutputStream?.let { memoryStream ->
+            if (memoryStream.size() + count > memoryThreshold) {
+                // Switch to the temp file
+                val file = File.createTempFile(TEMP_PREFIX, null, tempDirectory)
+                val fileOutputStream = BufferedOutputStream(FileOutputStream(file))
+                memoryStream.writeTo(fileOutputStream)
+                tempFile = file
+                currentOutputStream = fileOutputStream
+                memoryOutputStream = null
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun write(oneByte: Int) {
+        checkThreshold(1)
+        currentOutputStream.write(oneByte)
+    }
+
+    @Throws(IOException::class)
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        checkThreshold(count)
+        currentOutputStream.write(buffer, offset, count)
+    }
+
+    @Throws(IOException::class)
+    override fun flush() {
+        currentOutputStream.flush()
+    }
+
+    /**
+     * Only close the spool, the content is still available until [release]
+     */
+    @Throws(IOException::class)
+    override fun close() {
+        currentOutputStream.close()
+    }
+
+    /**
+     * Write all the spooled bytes in [outputStream], must be called after [close]
+     */
+    @Throws(IOException::class)
+    fun writeTo(outputStream: OutputStream) {
+        memoryOutputStream?.writeTo(outputStream)
+        tempFile?.let { file ->
+            FileInputStream(file).use { inputStream ->
+                inputStream.readBytes(BUFFER_SIZE) { buffer ->
+                    outputStream.write(buffer)
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the spooled bytes
+     */
+    fun release() {
+        memoryOutputStream = null
+        tempFile?.delete()
+        tempFile = null
+    }
+
+    companion object {
+        private const val TEMP_PREFIX = "spool"
+        private const val BUFFER_SIZE = 8 * 1024
+        const val DEFAULT_MEMORY_THRESHOLD = 8 * 1024 * 1024
+    }
+}
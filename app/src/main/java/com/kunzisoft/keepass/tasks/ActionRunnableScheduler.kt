@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.tasks
+
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.kunzisoft.keepass.BuildConfig
+import java.util.*
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Queue of the actions of the database, each action is run in a background thread as soon as it can be.
+ *
+ * Read only actions run concurrently, an action which modifies the database waits for the end
+ * of the running actions and is run alone. Actions are started in their order of arrival,
+ * a read only action queued after a modification waits for it.
+ *
+ * The start and the finish of a task, and [onIdle] when no more task is queued or running,
+ * are called in the main thread.
+ */
+class ActionRunnableScheduler(private val onIdle: () -> Unit) {
+
+    class Task internal constructor(val actionTask: String,
+                                    val actionRunnable: ActionRunnable,
+                                    val isReadOnly: Boolean,
+                                    internal val onStart: (Task) -> Unit,
+                                    internal val onFinish: (Task, ActionRunnable.Result) -> Unit) {
+        val queuedTime = System.currentTimeMillis()
+        var startTime: Long = 0L
+            internal set
+        var finishTime: Long = 0L
+            internal set
+
+        /**
+         * Time in the queue before the start of the action
+         */
+        val waitingTime: Long
+            get() = (if (startTime > 0) startTime else System.currentTimeMillis()) - queuedTime
+
+        /**
+         * Time of the action itself
+         */
+        val runningTime: Long
+            get() = if (startTime > 0) (if (finishTime > 0) finishTime else System.currentTimeMillis()) - startTime else 0L
+    }
+
+    private val mExecutor: ExecutorService = Executors.newCachedThreadPool(object : ThreadFactory {
+        private val threadNumber = AtomicInteger(1)
+        override fun newThread(runnable: Runnable): Thread {
+            return Thread(runnable, TAG + "-" + threadNumber.getAndIncrement())
+        }
+    })
+    private val mMainHandler = Handler(Looper.getMainLooper())
+
+    private val mPendingTasks = LinkedList<Task>()
+    private var mRunningReadOnlyTasks = 0
+    private var mRunningModificationTask = false
+
+    /**
+     * Number of actions waiting to be started
+     */
+    val queueDepth: Int
+        @Synchronized get() = mPendingTasks.size
+
+    val isIdle: Boolean
+        @Synchronized get() = mPendingTasks.isEmpty()
+                && mRunningReadOnlyTasks == 0
+                && !mRunningModificationTask
+
+    @Synchronized
+    fun schedule(actionTask: String,
+                 actionRunnable: ActionRunnable,
+                 isReadOnly: Boolean,
+                 onStart: (Task) -> Unit,
+                 onFinish: (Task, ActionRunnable.Result) -> Unit): Task {
+        val task = Task(actionTask, actionRunnable, isReadOnly, onStart, onFinish)
+        mPendingTasks.add(task)
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Action $actionTask queued, queue depth " + mPendingTasks.size)
+        startNextTasks()
+        return task
+    }
+
+    /**
+     * Cancel a task not yet started, its finish is called with a failed result.
+     * A running action is not interrupted, to not leave the database in an intermediate state
+     * @return true if the task was cancelled
+     */
+    @Synchronized
+    fun cancel(task: Task): Boolean {
+        if (!mPendingTasks.remove(task))
+            return false
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Action " + task.actionTask + " cancelled after " + task.waitingTime + " ms")
+        mMainHandler.post {
+            task.onFinish(task, ActionRunnable.Result(false))
+        }
+        if (isIdle)
+            mMainHandler.post { onIdle() }
+        return true
+    }
+
+    /**
+     * Cancel all the tasks not yet started
+     */
+    @Synchronized
+    fun cancelPendingTasks() {
+        ArrayList(mPendingTasks).forEach { cancel(it) }
+    }
+
+    private fun startNextTasks() {
+        while (mPendingTasks.isNotEmpty() && !mRunningModificationTask) {
+            val nextTask = mPendingTasks.first
+            if (!nextTask.isReadOnly && mRunningReadOnlyTasks > 0)
+                break
+            mPendingTasks.removeFirst()
+            if (nextTask.isReadOnly)
+                mRunningReadOnlyTasks++
+            else
+                mRunningModificationTask = true
+            execute(nextTask)
+        }
+    }
+
+    private fun execute(task: Task) {
+        mExecutor.execute {
+            task.startTime = System.currentTimeMillis()
+            mMainHandler.post {
+                task.onStart(task)
+            }
+            val actionRunnable = task.actionRunnable
+            try {
+                actionRunnable.run()
+            } catch (e: Exception) {
+                Log.e(TAG, "Unable to run the action " + task.actionTask, e)
+                actionRunnable.result.isSuccess = false
+                actionRunnable.result.message = e.message
+            }
+            task.finishTime = System.currentTimeMillis()
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Action " + task.actionTask
+                        + " waited " + task.waitingTime + " ms and ran " + task.runningTime + " ms")
+            // Finish posted before the start of the next tasks, to be received in order
+            mMainHandler.post {
+                task.onFinish(task, actionRunnable.result)
+            }
+            synchronized(this) {
+                if (task.isReadOnly)
+                    mRunningReadOnlyTasks--
+                else
+                    mRunningModificationTask = false
+                startNextTasks()
+                if (isIdle)
+                    mMainHandler.post { onIdle() }
+            }
+        }
+    }
+
+    /**
+     * Drop the tasks not yet started without calling their finish, the running actions are completed
+     */
+    @Synchronized
+    fun shutdown() {
+        mPendingTasks.clear()
+        mExecutor.shutdown()
+    }
+
+    companion object {
+        private val TAG = ActionRunnableScheduler::class.java.name
+    }
+}
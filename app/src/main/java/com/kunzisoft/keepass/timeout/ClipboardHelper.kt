@@ -33,14 +33,11 @@ import android.widget.Toast
 import com.kunzisoft.keepass.R
 import com.kunzisoft.keepass.database.exception.ClipboardException
 import com.kunzisoft.keepass.settings.PreferencesUtil
-import java.util.*
 
 class ClipboardHelper(private val context: Context) {
 
     private var mClipboardManager: ClipboardManager? = null
 
-    private val mTimer = Timer()
-
     private fun getClipboardManager(): ClipboardManager? {
         if (mClipboardManager == null)
             mClipboardManager = context.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager?
@@ -60,7 +57,9 @@ class ClipboardHelper(private val context: Context) {
 
         val clipboardTimeout = PreferencesUtil.getClipboardTimeout(context)
         if (clipboardTimeout > 0) {
-            mTimer.schedule(ClearClipboardTask(context, text), clipboardTimeout)
+            TimerWheel.schedule(clipboardTimeout) {
+                clearClipboardIfUnchanged(context, text)
+            }
         }
     }
 
@@ -105,18 +104,15 @@ class ClipboardHelper(private val context: Context) {
         }
     }
 
-    // Task which clears the clipboard, and sends a toast to the foreground.
-    private inner class ClearClipboardTask (private val mCtx: Context,
-                                            private val mClearText: String) : TimerTask() {
-        override fun run() {
-            val currentClip = getClipboard(mCtx).toString()
-            if (currentClip == mClearText) {
-                try {
-                    cleanClipboard()
-                    R.string.clipboard_cleared
-                } catch (e: ClipboardException) {
-                    R.string.clipboard_error_clear
-                }
+    // Clears the clipboard if it still contains the copied text
+    private fun clearClipboardIfUnchanged(context: Context, clearText: String) {
+        val currentClip = getClipboard(context).toString()
+        if (currentClip == clearText) {
+            try {
+                cleanClipboard()
+                R.string.clipboard_cleared
+            } catch (e: ClipboardException) {
+                R.string.clipboard_error_clear
             }
         }
     }
@@ -45,6 +45,8 @@ object TimeoutHelper {
     var temporarilyDisableTimeout = false
         private set
 
+    private var lockTimeout: TimerWheel.Timeout? = null
+
     private fun getLockPendingIntent(context: Context): PendingIntent {
         return PendingIntent.getBroadcast(context.applicationContext,
                 REQUEST_ID,
@@ -53,7 +55,7 @@ object TimeoutHelper {
     }
 
     /**
-     * Start the lock timer by creating an alarm,
+     * Start the lock timer by creating an alarm, and a timer in the timer wheel while the process is running,
      * if the method is recalled with a previous lock timer pending, the previous one is deleted
      */
     private fun startLockTimer(context: Context) {
@@ -61,15 +63,22 @@ object TimeoutHelper {
             val timeout = PreferencesUtil.getAppTimeout(context)
             if (timeout != NEVER) {
                 // No timeout don't start timeout service
-                (context.applicationContext.getSystemService(Context.ALARM_SERVICE) as AlarmManager?)?.let { alarmManager ->
+                val appContext = context.applicationContext
+                (appContext.getSystemService(Context.ALARM_SERVICE) as AlarmManager?)?.let { alarmManager ->
                     val triggerTime = System.currentTimeMillis() + timeout
                     Log.d(TAG, "TimeoutHelper start")
+                    // The exact alarm is the reference of the lock, even if the device is asleep
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
                         alarmManager.setExact(AlarmManager.RTC, triggerTime, getLockPendingIntent(context))
                     } else {
                         alarmManager.set(AlarmManager.RTC, triggerTime, getLockPendingIntent(context))
                     }
                 }
+                // Only an additional trigger, the timer wheel doesn't run while the CPU is in deep sleep
+                lockTimeout?.cancel()
+                lockTimeout = TimerWheel.schedule(timeout) {
+                    appContext.sendBroadcast(Intent(LOCK_ACTION))
+                }
             }
         }
     }
@@ -78,6 +87,8 @@ object TimeoutHelper {
      * Cancel the lock timer currently pending, useful if lock was triggered by another way
      */
     fun cancelLockTimer(context: Context) {
+        lockTimeout?.cancel()
+        lockTimeout = null
         (context.applicationContext.getSystemService(Context.ALARM_SERVICE) as AlarmManager?)?.let { alarmManager ->
             Log.d(TAG, "TimeoutHelper cancel")
             alarmManager.cancel(getLockPendingIntent(context))
@@ -105,16 +116,17 @@ object TimeoutHelper {
 
         // Check whether the timeout has expired
         val currentTime = System.currentTimeMillis()
+        val preferences = PreferencesUtil.getSnapshot(context)
 
         // Retrieve the timeout programmatically backup
-        val timeoutBackup = PreferencesUtil.getTimeSaved(context)
+        val timeoutBackup = preferences.timeSaved
         // The timeout never started
         if (timeoutBackup == NEVER) {
             return true
         }
 
         // Retrieve the app timeout in settings
-        val appTimeout = PreferencesUtil.getAppTimeout((context))
+        val appTimeout = preferences.appTimeout
         // We are set to never timeout
         if (appTimeout == NEVER) {
             return true
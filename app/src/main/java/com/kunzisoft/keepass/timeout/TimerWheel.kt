@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Jeremy Jamet / Kunzisoft.
+ *
+ * This file is part of KeePassDX.
+ *
+ *  KeePassDX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDX.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.kunzisoft.keepass.timeout
+
+import android.os.SystemClock
+import android.util.Log
+import java.util.*
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Hashed timer wheel shared by the timers of the app (clipboard clearing, lock timeout, countdown notifications
+ * and OTP refresh), all the tasks are run in a single thread which only wakes up at the next deadline.
+ *
+ * Deadlines are rounded to a tick of [TICK_DURATION] ms so the timers of a same tick are run by the same wake-up,
+ * periodic timers are aligned on the seconds of the clock to be run together.
+ * The thread is stopped when no timer is pending.
+ */
+object TimerWheel {
+
+    private val TAG = TimerWheel::class.java.name
+
+    private const val TICK_DURATION = 100L
+    private const val WHEEL_SIZE = 512
+    // Period of the countdowns, all the countdowns are updated by the same tick
+    const val COUNTDOWN_PERIOD = 1000L
+
+    /**
+     * Timer registered in the wheel, [cancel] removes it before its next run
+     */
+    class Timeout internal constructor(internal var deadline: Long,
+                                       // Deadline of the next run from the current one, null if the timer is finished
+                                       internal val nextDeadline: (Long) -> Long?,
+                                       // Called with the deadline of the run
+                                       internal val task: (Long) -> Unit) {
+
+        internal var tick = 0L
+        internal var isScheduled = false
+
+        @Volatile
+        var isCancelled = false
+            private set
+
+        fun cancel() {
+            isCancelled = true
+            remove(this)
+        }
+    }
+
+    private val lock = Object()
+    private val wheel = Array(WHEEL_SIZE) { ArrayList<Timeout>() }
+    private var pendingTimeouts = 0
+    private var lastTick = SystemClock.elapsedRealtime() / TICK_DURATION
+    private var worker: Thread? = null
+
+    /**
+     * Run [task] once after [delay] ms
+     */
+    fun schedule(delay: Long, task: () -> Unit): Timeout {
+        val timeout = Timeout(SystemClock.elapsedRealtime() + delay, { null }, { task.invoke() })
+        add(timeout)
+        return timeout
+    }
+
+    /**
+     * Run [task] each [period] ms, on the multiples of the period of the clock
+     */
+    fun scheduleAtFixedRate(period: Long, task: () -> Unit): Timeout {
+        val timeout = Timeout(SystemClock.elapsedRealtime() + delayToNextPeriod(period),
+                { deadline -> nextPeriodDeadline(deadline, period) },
+                { task.invoke() })
+        add(timeout)
+        return timeout
+    }
+
+    /**
+     * Call [onTick] with the remaining time each [COUNTDOWN_PERIOD] ms, then [onFinish] after [duration] ms
+     */
+    fun scheduleCountdown(duration: Long,
+                          onTick: (remaining: Long) -> Unit,
+                          onFinish: () -> Unit): Timeout {
+        val end = SystemClock.elapsedRealtime() + duration
+        val timeout = Timeout(min(SystemClock.elapsedRealtime() + delayToNextPeriod(COUNTDOWN_PERIOD), end),
+                { deadline -> if (deadline >= end) null else min(nextPeriodDeadline(deadline, COUNTDOWN_PERIOD), end) },
+                { deadline ->
+                    // Finished only by the run of the end deadline, which is the last one
+                    if (deadline >= end)
+                        onFinish.invoke()
+                    else
+                        onTick.invoke((end - SystemClock.elapsedRealtime()).coerceAtLeast(0))
+                })
+        add(timeout)
+        return timeout
+    }
+
+    private fun delayToNextPeriod(period: Long): Long {
+        return period - System.currentTimeMillis() % period
+    }
+
+    /**
+     * First period boundary after the current time, and after the [deadline] of the current run,
+     * so the periods missed during a deep sleep are skipped and not run in a burst
+     */
+    private fun nextPeriodDeadline(deadline: Long, period: Long): Long {
+        return max(deadline + period, SystemClock.elapsedRealtime() + delayToNextPeriod(period))
+    }
+
+    private fun add(timeout: Timeout) {
+        synchronized(lock) {
+            if (timeout.isCancelled || timeout.isScheduled)
+                return
+            // Rounded up to the next tick, to not run the timer before its deadline,
+            // and after the last tick visited, to not wait a full turn of the wheel
+            timeout.tick = max((timeout.deadline + TICK_DURATION - 1) / TICK_DURATION, lastTick + 1)
+            wheel[(timeout.tick % WHEEL_SIZE).toInt()].add(timeout)
+            timeout.isScheduled = true
+            pendingTimeouts++
+            if (worker == null) {
+                worker = Thread({ runWheel() }, TAG).apply {
+                    isDaemon = true
+                    start()
+                }
+            } else {
+                // The new deadline may be before the current wait
+                lock.notifyAll()
+            }
+        }
+    }
+
+    private fun remove(timeout: Timeout) {
+        synchronized(lock) {
+            if (timeout.isScheduled) {
+                wheel[(timeout.tick % WHEEL_SIZE).toInt()].remove(timeout)
+                timeout.isScheduled = false
+                pendingTimeouts--
+            }
+        }
+    }
+
+    private fun runWheel() {
+        val expiredTimeouts = ArrayList<Timeout>()
+        while (true) {
+            synchronized(lock) {
+                while (expiredTimeouts.isEmpty()) {
+                    if (pendingTimeouts <= 0) {
+                        worker = null
+                        return
+                    }
+                    val currentTick = SystemClock.elapsedRealtime() / TICK_DURATION
+                    collectExpiredTimeouts(currentTick, expiredTimeouts)
+                    if (expiredTimeouts.isEmpty()) {
+                        val waitingTime = nextTick() * TICK_DURATION - SystemClock.elapsedRealtime()
+                        if (waitingTime > 0) {
+                            try {
+                                lock.wait(waitingTime)
+                            } catch (e: InterruptedException) {
+                                Log.w(TAG, "Timer wheel interrupted", e)
+                            }
+                        }
+                    }
+                }
+            }
+            // Tasks are run without the lock, to be able to schedule and cancel timers
+            for (timeout in expiredTimeouts) {
+                if (timeout.isCancelled)
+                    continue
+                try {
+                    timeout.task.invoke(timeout.deadline)
+                } catch (e: Exception) {
+                    Log.e(TAG, "Unable to run the timer task", e)
+                }
+                timeout.nextDeadline(timeout.deadline)?.let { nextDeadline ->
+                    timeout.deadline = nextDeadline
+                    add(timeout)
+                }
+            }
+            expiredTimeouts.clear()
+        }
+    }
+
+    /**
+     * Move the timeouts expired at [currentTick] in [expiredTimeouts], each bucket is visited once at most
+     */
+    private fun collectExpiredTimeouts(currentTick: Long, expiredTimeouts: MutableList<Timeout>) {
+        val ticksToVisit = min(currentTick - lastTick, WHEEL_SIZE.toLong())
+        var tick = currentTick - ticksToVisit + 1
+        while (tick <= currentTick) {
+            val iterator = wheel[(tick % WHEEL_SIZE).toInt()].iterator()
+            while (iterator.hasNext()) {
+                val timeout = iterator.next()
+                if (timeout.tick <= currentTick) {
+                    iterator.remove()
+                    timeout.isScheduled = false
+                    pendingTimeouts--
+                    expiredTimeouts.add(timeout)
+                }
+            }
+            tick++
+        }
+        if (currentTick > lastTick)
+            lastTick = currentTick
+    }
+
+    private fun nextTick(): Long {
+        var nextTick = Long.MAX_VALUE
+        for (bucket in wheel) {
+            for (timeout in bucket) {
+                if (timeout.tick < nextTick)
+                    nextTick = timeout.tick
+            }
+        }
+        return nextTick
+    }
+}
@@ -124,5 +124,5 @@ fun Context.closeDatabase() {
         cancelAll()
     }
     // Clear data
-    Database.getInstance().closeAndClear(applicationContext.filesDir)
+    Database.getInstance().closeAndClearInBackground(applicationContext.filesDir)
 }
\ No newline at end of file
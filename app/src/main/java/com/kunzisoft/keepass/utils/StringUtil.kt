@@ -24,7 +24,8 @@ import java.util.*
 object StringUtil {
 
     /**
-     * Create a list of String by split text when ' ', '\t', '\r' or '\n' is found
+     * Create a list of String by split text when ' ', '\t', '\r' or '\n' is found,
+     * except between double quotes
      */
     fun splitStringTerms(text: String?): List<String> {
         val list = ArrayList<String>()
@@ -36,18 +37,16 @@ object StringUtil {
         var quoted = false
 
         for (element in text) {
-
-            if ((element == ' ' || element == '\t' || element == '\r' || element == '\n') && !quoted) {
-
-                val len = stringBuilder.length
-                when {
-                    len > 0 -> {
+            when {
+                element == '\"' -> quoted = !quoted
+                (element == ' ' || element == '\t' || element == '\r' || element == '\n') && !quoted -> {
+                    val len = stringBuilder.length
+                    if (len > 0) {
                         list.add(stringBuilder.toString())
                         stringBuilder.delete(0, len)
                     }
-                    element == '\"' -> quoted = !quoted
-                    else -> stringBuilder.append(element)
                 }
+                else -> stringBuilder.append(element)
             }
         }
 
@@ -41,6 +41,7 @@ import com.kunzisoft.keepass.database.element.Entry
 import com.kunzisoft.keepass.database.element.security.ProtectedString
 import com.kunzisoft.keepass.model.EntryAttachment
 import com.kunzisoft.keepass.otp.OtpElement
+import com.kunzisoft.keepass.otp.OtpEngine
 import com.kunzisoft.keepass.otp.OtpType
 import com.kunzisoft.keepass.utils.toKeePassRefString
 import java.util.*
@@ -68,6 +69,12 @@ class EntryContentsView @JvmOverloads constructor(context: Context,
     private val otpActionView: ImageView
 
     private var otpRunnable: Runnable? = null
+    // Refresh of the TOTP, on the tick shared by the OTP views
+    private val otpTickListener = object : OtpEngine.TickListener {
+        override fun onTick(currentTimeMillis: Long) {
+            otpRunnable?.let { otpContainerView.post(it) }
+        }
+    }
 
     private val urlContainerView: View
     private val urlView: TextView
@@ -232,7 +239,8 @@ class EntryContentsView @JvmOverloads constructor(context: Context,
     fun assignOtp(otpElement: OtpElement?,
                   otpProgressView: ProgressBar?,
                   onClickListener: OnClickListener) {
-        otpContainerView.removeCallbacks(otpRunnable)
+        stopOtpRefresh()
+        otpRunnable = null
 
         if (otpElement != null) {
             otpContainerView.visibility = View.VISIBLE
@@ -263,9 +271,9 @@ class EntryContentsView @JvmOverloads constructor(context: Context,
                                 otpView.text = otpElement.token
                             }
                             otpProgressView?.progress = otpElement.secondsRemaining
-                            otpContainerView.postDelayed(otpRunnable, 1000)
                         }
                         otpContainerView.post(otpRunnable)
+                        startOtpRefresh()
                     }
                 }
             }
@@ -275,6 +283,26 @@ class EntryContentsView @JvmOverloads constructor(context: Context,
         }
     }
 
+    private fun startOtpRefresh() {
+        if (otpRunnable != null)
+            OtpEngine.addTickListener(otpTickListener)
+    }
+
+    private fun stopOtpRefresh() {
+        OtpEngine.removeTickListener(otpTickListener)
+        otpContainerView.removeCallbacks(otpRunnable)
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        startOtpRefresh()
+    }
+
+    override fun onDetachedFromWindow() {
+        stopOtpRefresh()
+        super.onDetachedFromWindow()
+    }
+
     fun assignOtpCopyListener(onClickListener: OnClickListener?) {
         otpActionView.setOnClickListener(onClickListener)
     }